@@ -0,0 +1,63 @@
+package de.othr.jit.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import de.othr.jit.core.Jit;
+import de.othr.jit.service.CheckoutService;
+import de.othr.jit.service.CommitService;
+
+/**
+ * This class measures switching between two commits, which differ
+ * in a fraction of their files. Every invocation checks out the
+ * other commit.
+ * @author codemonkey500
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckoutBenchmark extends RepositoryState {
+
+    @Param({ "0.1" })
+    public double changedFraction;
+
+    private String[] commits;
+    private int next;
+
+    @Override
+    protected void prepare() throws IOException {
+
+        commits = new String[2];
+        commits[0] = commit("first");
+
+        generator.modify(files, changedFraction);
+        Jit.addFile(ROOT.toString());
+        commits[1] = commit("second");
+    }
+
+    @Benchmark
+    public int checkoutFiles() {
+
+        CheckoutService checkout = new CheckoutService();
+        checkout.checkoutFiles(commits[next]);
+        next = 1 - next;
+        return checkout.getWritten();
+    }
+
+    private static String commit(String message) {
+
+        CommitService commit = new CommitService(message);
+        commit.commitFiles();
+        return commit.getCommitHash();
+    }
+}
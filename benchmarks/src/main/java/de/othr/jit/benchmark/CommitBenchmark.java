@@ -0,0 +1,35 @@
+package de.othr.jit.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import de.othr.jit.service.CommitService;
+
+/**
+ * This class measures a commit of the staged repository. The blobs
+ * were stored by the add command, so the tree is built from the
+ * index and its directory objects are written. After the first
+ * commit the objects exist and writing them is skipped.
+ * @author codemonkey500
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitBenchmark extends RepositoryState {
+
+    @Benchmark
+    public String commitFiles() {
+
+        CommitService commit = new CommitService("benchmark");
+        commit.commitFiles();
+        return commit.getCommitHash();
+    }
+}
@@ -0,0 +1,48 @@
+package de.othr.jit.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import de.othr.jit.utility.SecureHashUtil;
+
+/**
+ * This class measures the hashing of file contents.
+ * @author codemonkey500
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({ "1024", "65536", "1048576" })
+    public int size;
+
+    private byte[] data;
+
+    @Setup
+    public void createData() {
+
+        data = new byte[size];
+        new Random(42).nextBytes(data);
+    }
+
+    @Benchmark
+    public String computeHash() {
+
+        return SecureHashUtil.computeHash(data);
+    }
+}
@@ -0,0 +1,142 @@
+package de.othr.jit.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+import de.othr.jit.entity.Commit;
+import de.othr.jit.service.LogService;
+import de.othr.jit.storage.CommitCache;
+import de.othr.jit.storage.CommitGraph;
+import de.othr.jit.storage.CommitGraphWriter;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.utility.SecureHashUtil;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class measures walking a long history with and without the
+ * commit-graph. The history is a line of commits, every 50th commit
+ * merges a side branch. Every invocation starts with an empty commit
+ * cache, like a single call of jit.
+ * @author codemonkey500
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+
+    private static final Path ROOT = Paths.get(USER_DIR, "jit-bench-history");
+    private static final int MERGE_DISTANCE = 50;
+
+    @Param({ "10000" })
+    public int commitCount;
+
+    @Param({ "false", "true" })
+    public boolean useGraph;
+
+    private ObjectStore store;
+    private CommitGraph graph;
+    private String head;
+    //Tip of a branch, which forked in the middle of the history
+    private String branch;
+
+    @Setup(Level.Trial)
+    public void createHistory() throws IOException {
+
+        if (Files.exists(ROOT)) {
+            throw new IllegalStateException(ROOT + " already exists!");
+        }
+        Files.createDirectories(ROOT);
+        store = new ObjectStore(ROOT.toString());
+
+        String tree = SecureHashUtil.computeHash(new byte[0]);
+        String previous = null;
+        String side = null;
+
+        for (int i = 0; i < commitCount; i++) {
+            List<String> parents = previous == null ? Collections.emptyList()
+                    : i % MERGE_DISTANCE == 0 && side != null
+                            ? Arrays.asList(previous, side)
+                            : Collections.singletonList(previous);
+            previous = write(tree, parents, i, "commit " + i);
+
+            if (i % MERGE_DISTANCE == MERGE_DISTANCE / 2) {
+                side = write(tree, Collections.singletonList(previous), i,
+                        "side " + i);
+            }
+            if (i == commitCount / 2) {
+                branch = write(tree, Collections.singletonList(previous), i,
+                        "branch");
+            }
+        }
+        head = previous;
+
+        if (useGraph) {
+            Path file = ROOT.resolve("commit-graph");
+            new CommitGraphWriter(new CommitCache(store), null).write(file,
+                    Arrays.asList(head, branch));
+            graph = new CommitGraph(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteHistory() {
+
+        FileSystemUtils.deleteRecursively(ROOT.toFile());
+    }
+
+    @Benchmark
+    public int walkHistory() {
+
+        Iterator<String> walk = new LogService(new CommitCache(store),
+                graph).walk(head);
+        int count = 0;
+        while (walk.hasNext()) {
+            walk.next();
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public List<String> mergeBase() throws IOException {
+
+        return new LogService(new CommitCache(store), graph).mergeBases(head,
+                branch);
+    }
+
+    private String write(String tree, List<String> parents, long time,
+            String message) {
+
+        byte[] content = new Commit(tree, parents, "benchmark", time,
+                ZoneOffset.UTC, message).toBytes();
+        String hash = SecureHashUtil.computeHash(content);
+        store.writeObject(hash, OBJECT_TYPE_COMMIT, content);
+        return hash;
+    }
+}
@@ -0,0 +1,54 @@
+package de.othr.jit.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import de.othr.jit.datastructure.MerkleTree;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.storage.ObjectStore;
+
+/**
+ * This class measures adding a file to a staged tree. Only the
+ * directories on the path of the file are hashed again.
+ * @author codemonkey500
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MerkleTreeBenchmark extends RepositoryState {
+
+    private MerkleTree tree;
+    private Path file;
+
+    @Override
+    protected void prepare() throws IOException {
+
+        tree = MerkleTree.fromIndex(new StagingIndex().entries());
+        file = files.get(files.size() / 2).resolveSibling("added.txt");
+        Files.write(file, generator.content(meanSize));
+    }
+
+    @Benchmark
+    public String addFileToExistingTree() throws IOException {
+
+        tree.addFileToExistingTree(file.toString(), new ObjectStore());
+        return tree.getRoot().getHash();
+    }
+
+    @Benchmark
+    public MerkleTree fromIndex() {
+
+        return MerkleTree.fromIndex(new StagingIndex().entries());
+    }
+}
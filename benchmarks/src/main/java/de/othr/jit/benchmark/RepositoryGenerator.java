@@ -0,0 +1,146 @@
+package de.othr.jit.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class generates a synthetic working directory.
+ * <p>
+ * The files are spread over a directory tree of the given depth, every
+ * directory has up to fanOut sub directories. The file sizes follow
+ * a distribution around the mean size. The content is random text,
+ * so it compresses about as well as source code. The same seed
+ * always generates the same repository.
+ * @author codemonkey500
+ *
+ */
+public class RepositoryGenerator {
+
+    /**
+     * Distribution of the file sizes.
+     */
+    public enum SizeDistribution {
+        //Every file has the mean size
+        FIXED,
+        //Sizes between 1 byte and twice the mean size
+        UNIFORM,
+        //Pareto distribution, many small files and a few large ones
+        PARETO
+    }
+
+    private static final byte[] ALPHABET = ("abcdefghijklmnopqrstuvwxyz"
+            + "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 \n{}();=+-*/")
+            .getBytes();
+    private static final double PARETO_ALPHA = 1.5;
+    //Largest file compared to the mean size
+    private static final int MAX_SIZE_FACTOR = 64;
+
+    private final int fileCount;
+    private final int depth;
+    private final int fanOut;
+    private final int meanSize;
+    private final SizeDistribution distribution;
+    private final Random random;
+
+    /**
+     * @param fileCount - number of files to be generated
+     * @param depth - maximum number of directories above a file
+     * @param fanOut - maximum number of sub directories of a directory
+     * @param meanSize - mean size of the files in bytes
+     * @param distribution - of the file sizes
+     * @param seed - of the random generator
+     */
+    public RepositoryGenerator(int fileCount, int depth, int fanOut,
+            int meanSize, SizeDistribution distribution, long seed) {
+        this.fileCount = fileCount;
+        this.depth = depth;
+        this.fanOut = fanOut;
+        this.meanSize = meanSize;
+        this.distribution = distribution;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * This method writes the files of the repository.
+     * @param root - directory of the repository, it is created
+     *        if it does not exist
+     * @return - the generated files
+     * @throws IOException - if a file can not be written
+     */
+    public List<Path> generate(Path root) throws IOException {
+
+        List<Path> files = new ArrayList<Path>(fileCount);
+
+        for (int i = 0; i < fileCount; i++) {
+            Path directory = root;
+            int level = depth == 0 ? 0 : random.nextInt(depth + 1);
+            for (int d = 0; d < level; d++) {
+                directory = directory.resolve("dir" + random.nextInt(fanOut));
+            }
+
+            Path file = directory.resolve("file" + i + ".txt");
+            Files.createDirectories(directory);
+            Files.write(file, content(nextSize()));
+            files.add(file);
+        }
+
+        return files;
+    }
+
+    /**
+     * This method changes some of the files. A changed file gets
+     * new content of the same size.
+     * @param files - of the repository
+     * @param fraction - of the files to be changed, between 0 and 1
+     * @return - the changed files
+     * @throws IOException - if a file can not be written
+     */
+    public List<Path> modify(List<Path> files, double fraction)
+            throws IOException {
+
+        List<Path> changed = new ArrayList<Path>();
+
+        for (Path file : files) {
+            if (random.nextDouble() < fraction) {
+                Files.write(file, content((int) Files.size(file)));
+                changed.add(file);
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * This method generates random text.
+     * @param size - in bytes
+     * @return - the content
+     */
+    public byte[] content(int size) {
+
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return content;
+    }
+
+    private int nextSize() {
+
+        switch (distribution) {
+        case UNIFORM:
+            return 1 + random.nextInt(2 * meanSize);
+        case PARETO:
+            //The mean of a pareto distribution is alpha * xm / (alpha - 1)
+            double minimum = meanSize * (PARETO_ALPHA - 1) / PARETO_ALPHA;
+            double size = minimum
+                    / Math.pow(1 - random.nextDouble(), 1 / PARETO_ALPHA);
+            return (int) Math.min(size, (double) meanSize * MAX_SIZE_FACTOR);
+        default:
+            return meanSize;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package de.othr.jit.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.util.FileSystemUtils;
+import de.othr.jit.core.Jit;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class provides a generated repository, which is initialized
+ * and staged completely.
+ * <p>
+ * jit always works on the current working directory, so the files are
+ * generated in the directory "jit-bench" below it. The benchmarks
+ * refuse to run in a directory, which already contains a repository.
+ * @author codemonkey500
+ *
+ */
+@State(Scope.Benchmark)
+public class RepositoryState {
+
+    //Keeps the level of all jit loggers, the services log every command
+    private static final Logger JIT_LOGGER = Logger.getLogger("de.othr.jit");
+
+    public static final Path ROOT = Paths.get(USER_DIR, "jit-bench");
+
+    @Param({ "1000" })
+    public int fileCount;
+
+    @Param({ "4" })
+    public int depth;
+
+    @Param({ "8" })
+    public int fanOut;
+
+    @Param({ "4096" })
+    public int meanSize;
+
+    @Param({ "PARETO" })
+    public RepositoryGenerator.SizeDistribution distribution;
+
+    protected RepositoryGenerator generator;
+    protected List<Path> files;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+
+        if (Files.exists(Paths.get(PATH_JIT_FOLDER))) {
+            throw new IllegalStateException(PATH_JIT_FOLDER
+                    + " already exists, run the benchmarks in an empty"
+                    + " directory!");
+        }
+
+        JIT_LOGGER.setLevel(java.util.logging.Level.WARNING);
+
+        generator = new RepositoryGenerator(fileCount, depth, fanOut,
+                meanSize, distribution, 42);
+        files = generator.generate(ROOT);
+
+        Jit.initializeDirectory();
+        Jit.addFile(ROOT.toString());
+
+        prepare();
+    }
+
+    /**
+     * This method is called after the repository was staged. JMH does
+     * not order the setup methods of a state and its super class, so
+     * benchmarks override this method instead.
+     * @throws IOException - if the repository can not be prepared
+     */
+    protected void prepare() throws IOException {
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() {
+
+        FileSystemUtils.deleteRecursively(Paths.get(PATH_JIT_FOLDER).toFile());
+        FileSystemUtils.deleteRecursively(ROOT.toFile());
+    }
+}
@@ -0,0 +1,54 @@
+package de.othr.jit.benchmark;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import de.othr.jit.datastructure.MerkleTree;
+import de.othr.jit.service.AddService;
+import de.othr.jit.utility.FileSystemUtil;
+
+/**
+ * This class measures writing and reading the staging index and
+ * adding an unchanged directory, which only compares stat data.
+ * @author codemonkey500
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StagingBenchmark extends RepositoryState {
+
+    private MerkleTree tree;
+
+    @Override
+    protected void prepare() {
+
+        tree = FileSystemUtil.deserializeStagingFile();
+    }
+
+    @Benchmark
+    public void serializeStagingFile() {
+
+        FileSystemUtil.serializeStagingFile(tree);
+    }
+
+    @Benchmark
+    public MerkleTree deserializeStagingFile() {
+
+        return FileSystemUtil.deserializeStagingFile();
+    }
+
+    @Benchmark
+    public void addUnchangedDirectory() {
+
+        new AddService().addDirectory(Paths.get(ROOT.toString()));
+    }
+}
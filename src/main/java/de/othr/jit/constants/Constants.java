@@ -1,6 +1,7 @@
 package de.othr.jit.constants;
 
 import java.nio.file.Paths;
+import java.util.zip.Deflater;
 
 /**
  * This class defines all the constants being used in this project
@@ -13,15 +14,68 @@ public final class Constants {
 
     public static final String USER_DIR = System.getProperty("user.dir");
     public static final String PATH_STAGING_FILE = USER_DIR
-            + Paths.get("/.jit/staging/staging.ser");
+            + Paths.get("/.jit/staging/index");
     public static final String PATH_JIT_FOLDER = USER_DIR + Paths.get("/.jit");
     public static final String PATH_OBJECTS_FOLDER = USER_DIR
             + Paths.get("/.jit/objects");
     public static final String PATH_STAGING_FOLDER = USER_DIR
             + Paths.get("/.jit/staging");
+    public static final String PATH_SPARSE_FILE = USER_DIR
+            + Paths.get("/.jit/sparse");
+    public static final String PATH_DAEMON_SOCKET = USER_DIR
+            + Paths.get("/.jit/daemon.sock");
+    public static final String PATH_REFS_FOLDER = USER_DIR
+            + Paths.get("/.jit/refs/heads");
+    public static final String PATH_COMMIT_GRAPH_FILE = USER_DIR
+            + Paths.get("/.jit/commit-graph");
     public static final String ROOT_NAME = "root";
     public static final String JIT_FOLDER_NAME = ".jit";
 
+    //#################### Staging Index Constants ####################
+
+    public static final int FILE_MODE_REGULAR = 0100644;
+    public static final int FILE_MODE_EXECUTABLE = 0100755;
+    public static final int DIRECTORY_MODE = 040000;
+    public static final long SMUDGED_SIZE = -1;
+    public static final long RACY_GRANULARITY_MILLIS = 2000;
+
+    //#################### Object Store Constants ####################
+
+    public static final String OBJECT_TYPE_BLOB = "blob";
+    public static final String OBJECT_TYPE_TREE = "tree";
+    public static final String OBJECT_TYPE_COMMIT = "commit";
+    public static final String OBJECT_TYPE_CHUNKED = "chunked";
+
+    //#################### Performance Constants ####################
+
+    public static final int PARALLELISM = Integer.getInteger(
+            "jit.parallelism", Runtime.getRuntime().availableProcessors());
+
+    //Object writes mostly wait for the disk, so more threads are used
+    public static final int IO_PARALLELISM = Integer.getInteger(
+            "jit.io.parallelism",
+            2 * Runtime.getRuntime().availableProcessors());
+
+    //0 stores objects uncompressed, 9 compresses best
+    public static final int COMPRESSION_LEVEL = Integer.getInteger(
+            "jit.compression", Deflater.DEFAULT_COMPRESSION);
+
+    //Larger files are stored in chunks, 0 disables chunking
+    public static final long CHUNK_THRESHOLD = Long.getLong(
+            "jit.chunk.threshold", 16L * 1024 * 1024);
+
+    //Number of similar blobs a new blob is compared with in a pack
+    public static final int DELTA_WINDOW = Integer.getInteger(
+            "jit.delta.window", 10);
+    public static final int MAX_DELTA_DEPTH = Integer.getInteger(
+            "jit.delta.depth", 50);
+    public static final long DELTA_BASE_CACHE_SIZE = Long.getLong(
+            "jit.delta.cacheSize", 32L * 1024 * 1024);
+
+    //Number of parsed commits kept in memory
+    public static final int COMMIT_CACHE_SIZE = Integer.getInteger(
+            "jit.commit.cacheSize", 16 * 1024);
+
     //#################### Jit Commands  ####################
 
     public static final String INIT = "init";
@@ -29,12 +83,39 @@ public final class Constants {
     public static final String REMOVE = "remove";
     public static final String COMMIT = "commit";
     public static final String CHECKOUT = "checkout";
+    public static final String STATUS = "status";
+    public static final String GC = "gc";
+    public static final String SPARSE = "sparse";
+    public static final String DAEMON = "daemon";
+    public static final String BATCH = "batch";
+    public static final String CAT_OBJECT = "cat-object";
+    public static final String LOG = "log";
+    public static final String MERGE_BASE = "merge-base";
+    public static final String COMMIT_GRAPH = "commit-graph";
+    public static final String PATHS_SEPARATOR = "--";
+    public static final String DISABLE_OPTION = "--disable";
+    public static final String STATS_OPTION = "--stats";
+    public static final String TRACE_OPTION = "--trace=";
+    public static final String MAX_COUNT_OPTION = "-n";
+    public static final String IS_ANCESTOR_OPTION = "--is-ancestor";
+    //Trace file, every command appends its metrics as one line of JSON
+    public static final String TRACE_FILE = System.getProperty("jit.trace");
 
     //#################### Header KeyWords  ####################
 
-    public static final String COMMIT_HEADER_VALUE = "Commit:";
-    public static final String DIRECTORY_HEADER_VALUE = "Directory";
-    public static final String FILE_HEADER_VALUE = "File";
+    public static final String COMMIT_TREE_KEY = "tree";
+    public static final String COMMIT_PARENT_KEY = "parent";
+    public static final String COMMIT_AUTHOR_KEY = "author";
+    //Author of new commits
+    public static final String AUTHOR = System.getProperty("jit.author",
+            System.getProperty("user.name"));
+
+    //#################### Reference Constants ####################
+
+    public static final String HEAD = "HEAD";
+    public static final String REFS_HEADS_PREFIX = "refs/heads/";
+    public static final String SYMBOLIC_REF_PREFIX = "ref: ";
+    public static final String DEFAULT_BRANCH = "master";
 
     //#################### TEST File Paths  ####################
 
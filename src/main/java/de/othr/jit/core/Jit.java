@@ -1,16 +1,18 @@
 package de.othr.jit.core;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
-import java.util.Optional;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import de.othr.jit.datastructure.MerkleTree;
-import de.othr.jit.entity.Directory;
-import de.othr.jit.entity.FileContainer;
-import de.othr.jit.service.CheckoutService;
-import de.othr.jit.service.CommitService;
-import de.othr.jit.utility.FileSystemUtil;
 import static de.othr.jit.constants.Constants.*;
 
 /**
@@ -25,31 +27,17 @@ public class Jit {
 
     public static void main(String[] args) {
 
-        if (args.length == 1 && args[0].equals(INIT)) {
-
-            initializeDirectory();
-
-        } else if(args.length == 2){
-            switch (args[0]) {
-            case ADD:
-                addFile(args[1]);
-                break;
-            case REMOVE:
-                removeFile(args[1]);
-                break;
-            case COMMIT:
-                commit(args[1]);
-                break;
-            case CHECKOUT:
-                checkoutFile(args[1]);
-                break;
-                
-            default:
-                LOGGER.log(Level.SEVERE, "Unknown command: " + args[0]);
-            }
-            
+        if (args.length == 1 && args[0].equals(DAEMON)) {
+
+            daemon();
+
+        } else if (args.length == 1 && args[0].equals(BATCH)) {
+
+            batch(System.in, System.out);
+
         } else {
-            LOGGER.log(Level.SEVERE, "Missing argument");
+
+            new Session().execute(Arrays.asList(args));
         }
     }
 
@@ -61,61 +49,23 @@ public class Jit {
      */
     public static void initializeDirectory() {
 
-        FileSystemUtil.createInitDirectory();
-
+        new Session().init();
     }
 
     /**
-     * This method is used to add a file to the data structure.
+     * This method is used to add a file or a directory with all its
+     * files to the data structure.
      * In case the .jit direcory does not exist, the user will get
      * a message on console.
+     * The content of the files is stored as blobs right away. An already
+     * staged file is only added again, if it was changed.
      * 
      * @param path
-     *            - pointing to the file
+     *            - pointing to the file or directory
      */
     public static void addFile(String path) {
 
-        if (!new File(PATH_JIT_FOLDER).exists()) {
-
-            LOGGER.log(Level.SEVERE, "Initialize Jit first!");
-            
-        } else if(!new File(path).exists()) {
-            
-            LOGGER.log(Level.SEVERE, "Path not valid");
-            
-        } else if (new File(PATH_STAGING_FILE).exists()) {
-
-            MerkleTree tree = FileSystemUtil
-                    .deserializeStagingFile();
-
-            //Check, if file already exists in the staging file
-            String name = Paths.get(path).getFileName().toString();
-            if (tree.getAllFiles().stream()
-                    .map(f -> f.getName()).anyMatch(f -> f.equals(name))) {
-                LOGGER.log(Level.SEVERE,
-                        "File already exists in staging area!");
-                return;
-            }
-
-            tree.addFileToExistingTree(path);
-            FileSystemUtil.serializeStagingFile(tree);
-            LOGGER.info(Paths.get(path).getFileName().toString()
-                    + " was added to staging area!");
-        } else {
-
-            //Check for wether file exists or not
-            if (new File(path).exists()) {
-                LOGGER.info(Paths.get(path).getFileName().toString()
-                        + " was added to staging area!");
-                MerkleTree tree = new MerkleTree();
-                tree.addInitialFile(path);
-                FileSystemUtil.serializeStagingFile(tree);
-            } else {
-                LOGGER.log(Level.SEVERE, "File does not exits!");
-            }
-
-        }
-
+        new Session().add(path);
     }
 
     /**
@@ -127,51 +77,7 @@ public class Jit {
      */
     public static void removeFile(String path) {
 
-        if (!new File(path).exists()) {
-            LOGGER.log(Level.SEVERE,
-                    "File with path: " + path + " does not exist!");
-        } else {
-            MerkleTree tree = FileSystemUtil
-                    .deserializeStagingFile();
-
-            //Delete file in MerkleTree
-            Optional<FileContainer> file = tree
-                    .getAllFiles().stream()
-                    .filter(f -> f.getPath().equals(
-                            Paths.get(path).toAbsolutePath().toString()))
-                    .findFirst();
-
-            if (file.isPresent()) {
-                String parentName = file.get().getParent().getName();
-                Optional<Directory> parent = tree.getDirectories().stream()
-                        .filter(dir -> dir.getName().equals(parentName))
-                        .findFirst();
-                parent.get().getChildren().remove(file.get());
-
-                tree.getAllFiles().remove(file.get());
-
-                //Delete empty directory
-                if (parent.get().getChildren().isEmpty()) {
-                    parent.get().getParent().getChildren().remove(parent.get());
-                    tree.getDirectories().remove(parent.get());
-                }
-            } else {
-                LOGGER.log(Level.SEVERE, "File not found in data structure!");
-            }
-
-            //No more files stored in staging area. -> Delete staging.ser
-            if (tree.getAllFiles().size() == 0) {
-                FileSystemUtil.deleteStagingFile();
-                LOGGER.info("Staging area is empty now!");
-
-            } else {
-                FileSystemUtil.serializeStagingFile(tree);
-                LOGGER.info("Removed "
-                        + Paths.get(path).getFileName().toString()
-                        + " from staging area!");
-            }
-
-        }
+        new Session().remove(path);
     }
 
     /**
@@ -181,20 +87,162 @@ public class Jit {
      */
     public static void commit(String message) {
 
-        CommitService commit = new CommitService(message);
-        commit.commitFiles();
-        LOGGER.info("Commit successful");
+        new Session().commit(message);
+    }
+
+    /**
+     * This method is used to print all staged files, which were
+     * changed or deleted in the working directory.
+     * Only files with changed stat data are hashed again.
+     */
+    public static void status() {
+
+        new Session().status();
+    }
+
+    /**
+     * This method is used to pack all loose objects, so the
+     * object store consists of a few large files.
+     */
+    public static void gc() {
+
+        new Session().gc();
     }
 
     /**
      * This method is used to checkout files from the object directory.
      * 
      * @param hash - representing the file name of the commit
+     *            or the name of a branch
      */
     public static void checkoutFile(String hash) {
 
-        CheckoutService checkout = new CheckoutService();
-        checkout.checkoutFiles(hash);
+        new Session().checkout(hash);
+    }
+
+    /**
+     * This method is used to checkout some files or directories
+     * of a commit. All other files are not touched.
+     * 
+     * @param hash - representing the file name of the commit
+     * @param paths - pointing to the files or directories
+     */
+    public static void checkoutPaths(String hash, List<String> paths) {
+
+        new Session().checkout(hash, paths);
+    }
+
+    /**
+     * This method is used to set the sparse checkout patterns.
+     * Only files below the given paths are kept in the working
+     * directory, by this and all following checkouts.
+     * 
+     * @param paths - pointing to the files or directories
+     *            or "--disable" to checkout all files again
+     */
+    public static void sparse(List<String> paths) {
+
+        new Session().sparse(paths);
+    }
+
+    /**
+     * This method is used to print the history of a commit,
+     * the newest commit first.
+     * 
+     * @param name - "HEAD", the name of a branch or a hash value
+     * @param maxCount - number of commits to be printed, a negative
+     *            value prints all commits
+     */
+    public static void log(String name, int maxCount) {
+
+        new Session().log(name, maxCount);
+    }
+
+    /**
+     * This method is used to write the commit-graph, so walking
+     * the history does not read the commit objects.
+     */
+    public static void commitGraph() {
+
+        new Session().commitGraph();
+    }
+
+    /**
+     * This method is used to print the best common ancestor
+     * of two commits.
+     * 
+     * @param first - name of a branch or hash value of a commit
+     * @param second - name of a branch or hash value of a commit
+     */
+    public static void mergeBase(String first, String second) {
+
+        new Session().mergeBase(first, second);
+    }
+
+    /**
+     * This method is used to start the daemon. It keeps the staging
+     * index and the object store in memory and accepts commands over
+     * the socket .jit/daemon.sock until it receives "stop".
+     */
+    public static void daemon() {
+
+        if (!new File(PATH_JIT_FOLDER).exists()) {
+            LOGGER.log(Level.SEVERE, "Initialize Jit first!");
+            return;
+        }
+
+        try {
+            new JitDaemon(Paths.get(PATH_DAEMON_SOCKET)).run();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Daemon could not be started!", e);
+        }
+    }
+
+    /**
+     * This method is used to execute many commands in one process.
+     * Every line of the input is one command with its arguments
+     * separated by tabs, e.g. "add\tpath/to/file". The staging index
+     * is loaded once and kept for all commands. Staged changes are
+     * written once, when the batch ends or a command like "commit"
+     * needs them.
+     * The content of objects is written to the output, each preceded
+     * by a line "hash type size".
+     * 
+     * @param in - the commands, e.g. stdin
+     * @param out - receiving the content of objects, e.g. stdout
+     * @return - the number of failed commands
+     */
+    public static int batch(InputStream in, OutputStream out) {
+
+        BufferedOutputStream buffered = new BufferedOutputStream(out);
+        Session session = new Session(buffered, true);
+        session.setDeferred(true);
+        int executed = 0;
+        int failed = 0;
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                executed++;
+                if (!session.execute(Arrays.asList(line.split("\t")))) {
+                    failed++;
+                }
+            }
+            buffered.flush();
+
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read the commands!", e);
+        } finally {
+            session.setDeferred(false);
+        }
 
+        LOGGER.info("Batch finished: " + executed + " commands, "
+                + failed + " failed");
+        return failed;
     }
 }
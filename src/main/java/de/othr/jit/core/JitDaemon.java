@@ -0,0 +1,239 @@
+package de.othr.jit.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * This class represents the jit daemon.
+ * <p>
+ * The daemon keeps one {@link Session} in memory and accepts commands
+ * over a Unix domain socket in the .jit directory, so a command does
+ * not pay the start of a new JVM and the loading of the index.
+ * Every request is one line with the command and its arguments
+ * separated by tabs, e.g. "add\tsrc". The daemon answers with the
+ * log messages of the command, one per line starting with the level,
+ * followed by a line "ok" or "error". The content of an object is
+ * sent before, preceded by a line "hash type size".
+ * The command "stop" shuts the daemon down.
+ * <p>
+ * Commands are executed one after another. A command is answered
+ * only after its changes were appended and synced to the staging
+ * index, so a crash of the daemon never loses an answered command.
+ * Changes of the index by other processes are loaded before the next
+ * command uses the index.
+ * @author codemonkey500
+ *
+ */
+public class JitDaemon {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(JitDaemon.class.getName());
+
+    //Parent of all jit loggers, the output of a command is sent from here
+    private static final Logger JIT_LOGGER = Logger.getLogger("de.othr.jit");
+
+    public static final String STOP = "stop";
+    public static final String OK = "ok";
+    public static final String ERROR = "error";
+
+    private final Path socket;
+    private final ClientOutput output;
+    private final Session session;
+    private final ExecutorService connections;
+    private ServerSocketChannel server;
+
+    public JitDaemon(Path socket) {
+        this.socket = socket;
+        this.output = new ClientOutput();
+        this.session = new Session(output, true);
+        this.connections = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * This method binds the socket and accepts clients until the
+     * daemon is stopped. A socket file left by a crashed daemon
+     * is replaced.
+     * @throws IOException - if the socket can not be bound
+     */
+    public void run() throws IOException {
+
+        Files.deleteIfExists(socket);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        LOGGER.info("Daemon listening on " + socket);
+
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                connections.execute(() -> serve(client));
+            }
+        } catch (ClosedChannelException e) {
+            LOGGER.info("Daemon stopped");
+        } finally {
+            connections.shutdown();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /**
+     * This method stops accepting clients. Running commands
+     * are finished.
+     */
+    public void stop() {
+
+        try {
+            if (server != null) {
+                server.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not close " + socket, e);
+        }
+    }
+
+    /**
+     * This private method answers the requests of one client
+     * until it closes the connection.
+     */
+    private void serve(SocketChannel client) {
+
+        try (SocketChannel channel = client;
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        Channels.newInputStream(channel),
+                        StandardCharsets.UTF_8));
+                OutputStream raw = Channels.newOutputStream(channel);
+                PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                        raw, StandardCharsets.UTF_8), true)) {
+
+            String line;
+            while ((line = in.readLine()) != null) {
+
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.equals(STOP)) {
+                    out.println(OK);
+                    stop();
+                    return;
+                }
+
+                out.println(execute(line, raw, out) ? OK : ERROR);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Connection to client lost", e);
+        }
+    }
+
+    /**
+     * This private method executes one request. The log messages and
+     * the output of the command are sent to the client.
+     * @param raw - stream of the client for the content of objects
+     * @param out - writer of the client for the log messages
+     * @return - true, if the command succeeded
+     */
+    private boolean execute(String line, OutputStream raw,
+            PrintWriter out) {
+
+        ClientHandler handler = new ClientHandler(out);
+
+        synchronized (session) {
+            JIT_LOGGER.addHandler(handler);
+            output.target = raw;
+            try {
+                return session.execute(Arrays.asList(line.split("\t")));
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Command failed: " + line, e);
+                return false;
+            } finally {
+                output.target = null;
+                JIT_LOGGER.removeHandler(handler);
+            }
+        }
+    }
+
+    /**
+     * This class sends the log messages of a command to the client.
+     * The parameters of a message are filled in and the message of a
+     * thrown exception is appended, every message is one line.
+     */
+    private static class ClientHandler extends Handler {
+
+        private final PrintWriter out;
+
+        ClientHandler(PrintWriter out) {
+            this.out = out;
+            setFormatter(new SimpleFormatter());
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+
+            if (!isLoggable(record)) {
+                return;
+            }
+
+            String message = getFormatter().formatMessage(record);
+            StringBuilder line = new StringBuilder();
+            line.append(record.getLevel()).append(' ');
+            line.append(message == null ? "" : message);
+            if (record.getThrown() != null) {
+                line.append(": ").append(record.getThrown());
+            }
+            out.println(line.toString().replace('\n', ' ')
+                    .replace('\r', ' '));
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * This class sends the output of the session to the client of
+     * the running command.
+     */
+    private static class ClientOutput extends OutputStream {
+
+        private volatile OutputStream target;
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+}
@@ -0,0 +1,735 @@
+package de.othr.jit.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import de.othr.jit.datastructure.MerkleTree;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.entity.IndexEntry;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.service.AddService;
+import de.othr.jit.service.CheckoutService;
+import de.othr.jit.service.CommitService;
+import de.othr.jit.service.GcService;
+import de.othr.jit.service.LogService;
+import de.othr.jit.service.StatusService;
+import de.othr.jit.storage.CommitCache;
+import de.othr.jit.storage.CommitGraph;
+import de.othr.jit.storage.CommitGraphWriter;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.storage.ObjectStream;
+import de.othr.jit.storage.RefStore;
+import de.othr.jit.utility.FileSystemUtil;
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class executes the jit commands on one working directory.
+ * <p>
+ * The staging index, the tree built from it, the object store, the
+ * commit-graph and the recently read commits are kept between the
+ * commands. Files staged or removed by the session are updated in
+ * the kept tree, so only the directories on their paths are hashed
+ * again. The tree is built again, if another process changed the
+ * index. A single call of jit uses a new
+ * session, the daemon keeps one session for its whole lifetime.
+ * Every change of the staging index is appended and synced to the
+ * index file before the command returns, so the file always holds the
+ * state of the last completed command. Commands, which rewrite the
+ * index file, reload it afterwards. Before a command uses the index,
+ * it is loaded again, if another process changed the index file.
+ * A deferred session, used by the batch mode, keeps the changes of
+ * "add" and "remove" in memory and writes them at once before any
+ * other command, which may use the index file, and when it ends.
+ * <p>
+ * The content of objects is written to the output of the session.
+ * A framed session, used by the batch mode and the daemon, writes a
+ * line "hash type size" before every object and a line break after
+ * it, so many objects can be read from one stream.
+ * <p>
+ * The metrics of every command are recorded, see {@link Metrics}.
+ * The option "--stats" in front of a command prints them, the option
+ * "--trace=file" appends them to a trace file as JSON.
+ * @author codemonkey500
+ *
+ */
+public class Session {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(Session.class.getName());
+
+    //Parent of all jit loggers, errors of a command are noticed here
+    private static final Logger JIT_LOGGER = Logger.getLogger("de.othr.jit");
+
+    //Commands, which neither read the index file nor need it written
+    private static final Set<String> DEFERRING_COMMANDS = Set.of(ADD,
+            REMOVE, CAT_OBJECT, LOG, MERGE_BASE);
+
+    private final ObjectStore objectStore;
+    private final RefStore refs;
+    private final CommitCache commits;
+    private final OutputStream out;
+    private final boolean framed;
+    private boolean deferred;
+    private StagingIndex index;
+    //Tree of the staging index, null if it has to be built again
+    private MerkleTree tree;
+    private CommitGraph graph;
+    private boolean graphLoaded;
+
+    public Session() {
+        this(System.out, false);
+    }
+
+    /**
+     * @param out - receiving the content of objects
+     * @param framed - true, if every object is preceded by a header
+     */
+    public Session(OutputStream out, boolean framed) {
+        this.objectStore = new ObjectStore();
+        this.refs = new RefStore();
+        this.commits = new CommitCache(objectStore);
+        this.out = out;
+        this.framed = framed;
+    }
+
+    /**
+     * This method is used to execute a command line.
+     * @param args - the options, the command and its arguments,
+     *        e.g. "--stats", "add", "src"
+     * @return - false, if the command is unknown, an argument is
+     *         missing or the command logged an error
+     */
+    public boolean execute(List<String> args) {
+
+        boolean stats = false;
+        String trace = TRACE_FILE;
+        int first = 0;
+
+        for (; first < args.size(); first++) {
+            String option = args.get(first);
+            if (option.equals(STATS_OPTION)) {
+                stats = true;
+            } else if (option.startsWith(TRACE_OPTION)) {
+                trace = option.substring(TRACE_OPTION.length());
+            } else {
+                break;
+            }
+        }
+
+        List<String> command = args.subList(first, args.size());
+        Metrics metrics = Metrics.start(command.isEmpty() ? ""
+                : command.get(0));
+        ErrorHandler errors = new ErrorHandler();
+        JIT_LOGGER.addHandler(errors);
+
+        try {
+            if (index != null && (command.isEmpty()
+                    || !DEFERRING_COMMANDS.contains(command.get(0)))) {
+                index.flush();
+            }
+            return dispatch(command) && !errors.failed;
+        } finally {
+            JIT_LOGGER.removeHandler(errors);
+            metrics.finish();
+            if (stats) {
+                metrics.print();
+            }
+            if (trace != null) {
+                metrics.appendTo(Paths.get(trace));
+            }
+        }
+    }
+
+    private boolean dispatch(List<String> args) {
+
+        if (args.isEmpty()) {
+            LOGGER.log(Level.SEVERE, "Missing argument");
+            return false;
+        }
+
+        String command = args.get(0);
+
+        if (args.size() == 1 && command.equals(INIT)) {
+
+            init();
+
+        } else if (args.size() == 1 && command.equals(STATUS)) {
+
+            status();
+
+        } else if (args.size() == 1 && command.equals(GC)) {
+
+            gc();
+
+        } else if (args.size() == 1 && command.equals(COMMIT_GRAPH)) {
+
+            commitGraph();
+
+        } else if (args.size() == 3 && command.equals(MERGE_BASE)) {
+
+            mergeBase(args.get(1), args.get(2));
+
+        } else if (args.size() == 4 && command.equals(MERGE_BASE)
+                && args.get(1).equals(IS_ANCESTOR_OPTION)) {
+
+            isAncestor(args.get(2), args.get(3));
+
+        } else if (args.size() > 3 && command.equals(CHECKOUT)
+                && args.get(2).equals(PATHS_SEPARATOR)) {
+
+            checkout(args.get(1), args.subList(3, args.size()));
+
+        } else if (args.size() > 1 && command.equals(SPARSE)) {
+
+            sparse(args.subList(1, args.size()));
+
+        } else if (command.equals(LOG)) {
+
+            return log(args.subList(1, args.size()));
+
+        } else if (args.size() == 2) {
+            switch (command) {
+            case ADD:
+                add(args.get(1));
+                break;
+            case REMOVE:
+                remove(args.get(1));
+                break;
+            case COMMIT:
+                commit(args.get(1));
+                break;
+            case CHECKOUT:
+                checkout(args.get(1));
+                break;
+            case CAT_OBJECT:
+                catObject(args.get(1));
+                break;
+
+            default:
+                LOGGER.log(Level.SEVERE, "Unknown command: " + command);
+                return false;
+            }
+
+        } else {
+            LOGGER.log(Level.SEVERE, "Missing argument");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * This method is used to defer the changes of the staging index,
+     * e.g. for many commands of the batch mode. Ending the deferred
+     * mode writes the collected changes.
+     * @param deferred - true, to collect the changes in memory
+     */
+    public void setDeferred(boolean deferred) {
+
+        this.deferred = deferred;
+        if (index != null) {
+            index.setDeferred(deferred);
+        }
+    }
+
+    /**
+     * This method is used to initialize the .jit directory.
+     */
+    public void init() {
+
+        FileSystemUtil.createInitDirectory();
+        invalidate();
+    }
+
+    /**
+     * This method is used to add a file or a directory with all its
+     * files to the staging index.
+     * @param path - pointing to the file or directory
+     */
+    public void add(String path) {
+
+        if (!new File(PATH_JIT_FOLDER).exists()) {
+
+            LOGGER.log(Level.SEVERE, "Initialize Jit first!");
+
+        } else if (new File(path).isDirectory()) {
+
+            List<IndexEntry> entries = new AddService(getIndex(),
+                    objectStore, PARALLELISM).addDirectory(Paths.get(path));
+            if (tree != null) {
+                entries.forEach(tree::putEntry);
+            }
+
+        } else if (!new File(path).isFile()) {
+
+            LOGGER.log(Level.SEVERE, "Path not valid");
+
+        } else {
+
+            IndexEntry entry = new AddService(getIndex(), objectStore,
+                    PARALLELISM).addFile(Paths.get(path));
+            if (tree != null && entry != null) {
+                tree.putEntry(entry);
+            }
+        }
+    }
+
+    /**
+     * This method is used to delete a file from the staging index.
+     * @param path - pointing to the file
+     */
+    public void remove(String path) {
+
+        if (!new File(path).exists()) {
+            LOGGER.log(Level.SEVERE,
+                    "File with path: " + path + " does not exist!");
+            return;
+        }
+
+        StagingIndex index = getIndex();
+        String relativePath = FileSystemUtil.toRelativePath(path);
+
+        if (!index.remove(relativePath)) {
+            LOGGER.log(Level.SEVERE, "File not found in data structure!");
+        } else if (tree != null) {
+            tree.removeFile(relativePath);
+        }
+
+        //No more files stored in staging area. -> Delete the index
+        if (index.isEmpty()) {
+            //A deferred index may not be written yet
+            if (new File(PATH_STAGING_FILE).exists()) {
+                FileSystemUtil.deleteStagingFile();
+            }
+            invalidate();
+            LOGGER.info("Staging area is empty now!");
+
+        } else {
+            LOGGER.info("Removed " + Paths.get(path).getFileName().toString()
+                    + " from staging area!");
+        }
+    }
+
+    /**
+     * This method is used to commit the files of the staging index.
+     * @param message - from the user
+     */
+    public void commit(String message) {
+
+        StatusService status = new StatusService(getIndex());
+        status.checkStatus();
+        status.getModified().forEach(p -> LOGGER.warning(
+                "Changes of " + p + " are not staged for commit"));
+
+        CommitService commit = new CommitService(message, getTree(),
+                objectStore, refs);
+        commit.commitFiles();
+        if (commit.getCommitHash() != null) {
+            LOGGER.info("Commit successful: " + commit.getCommitHash());
+        }
+    }
+
+    /**
+     * This method is used to print all staged files, which were
+     * changed or deleted in the working directory.
+     */
+    public void status() {
+
+        if (!new File(PATH_STAGING_FILE).exists()) {
+            LOGGER.info("Staging area is empty!");
+            return;
+        }
+
+        StatusService status = new StatusService(getIndex());
+        status.checkStatus();
+        status.printStatus();
+    }
+
+    /**
+     * This method is used to pack all loose objects. The commit-graph
+     * is written afterwards.
+     */
+    public void gc() {
+
+        if (!new File(PATH_JIT_FOLDER).exists()) {
+            LOGGER.log(Level.SEVERE, "Initialize Jit first!");
+            return;
+        }
+
+        new GcService(objectStore).repack();
+        commitGraph();
+    }
+
+    /**
+     * This method is used to write the commit-graph of all commits
+     * reachable from the branches and HEAD.
+     */
+    @SuppressWarnings("try")
+    public void commitGraph() {
+
+        if (!new File(PATH_JIT_FOLDER).exists()) {
+            LOGGER.log(Level.SEVERE, "Initialize Jit first!");
+            return;
+        }
+
+        Set<String> tips = refs.listTips();
+        if (tips.isEmpty()) {
+            LOGGER.info("No commits, the commit-graph is not written");
+            return;
+        }
+
+        try (Metrics.Phase phase = Metrics.phase("commit-graph.write")) {
+            int count = new CommitGraphWriter(commits, getGraph()).write(
+                    Paths.get(PATH_COMMIT_GRAPH_FILE), tips);
+            Metrics.count("commit-graph.commits", count);
+            LOGGER.info("Commit-graph written with " + count + " commits");
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not write the commit-graph", e);
+        }
+        graphLoaded = false;
+        graph = null;
+    }
+
+    /**
+     * This method is used to checkout a commit. Checking out a branch
+     * makes it the current branch, following commits move the branch.
+     * Checking out a hash value points HEAD to the commit directly.
+     * Checking out "HEAD" or the current branch does not move HEAD.
+     * @param name - of a branch or hash value of the commit
+     */
+    public void checkout(String name) {
+
+        String hash = resolve(name);
+        if (hash == null) {
+            return;
+        }
+
+        if (new CheckoutService(objectStore).checkoutFiles(hash)) {
+            if (name.equals(HEAD) || name.equals(refs.getBranch())) {
+                LOGGER.fine("HEAD stays at " + name);
+            } else if (refs.isBranch(name)) {
+                refs.attachHead(name);
+            } else {
+                refs.detachHead(hash);
+            }
+        }
+        invalidate();
+    }
+
+    /**
+     * This method is used to checkout some files or directories
+     * of a commit. HEAD is not moved.
+     * @param name - of a branch or hash value of the commit
+     * @param paths - pointing to the files or directories
+     */
+    public void checkout(String name, List<String> paths) {
+
+        String hash = resolve(name);
+        if (hash == null) {
+            return;
+        }
+
+        new CheckoutService(objectStore).checkoutFiles(hash, paths);
+        invalidate();
+    }
+
+    /**
+     * This method is used to set the sparse checkout patterns.
+     * @param paths - pointing to the files or directories
+     *            or "--disable" to checkout all files again
+     */
+    public void sparse(List<String> paths) {
+
+        if (!new File(PATH_JIT_FOLDER).exists()) {
+            LOGGER.log(Level.SEVERE, "Initialize Jit first!");
+            return;
+        }
+
+        new CheckoutService(objectStore).applySparsePatterns(
+                paths.equals(Collections.singletonList(DISABLE_OPTION))
+                        ? Collections.emptyList() : paths);
+        invalidate();
+    }
+
+    /**
+     * This method is used to print the content of an object.
+     * A blob stored in chunks is printed as one blob.
+     * @param hash - of the object
+     */
+    public void catObject(String hash) {
+
+        try {
+            if (!objectStore.contains(hash)) {
+                LOGGER.log(Level.SEVERE, "Object " + hash
+                        + " does not exist!");
+                if (framed) {
+                    out.write((hash + " missing\n")
+                            .getBytes(StandardCharsets.UTF_8));
+                }
+                return;
+            }
+
+            try (ObjectStream in = objectStore.openContent(hash)) {
+                if (framed) {
+                    out.write((hash + " " + in.getType() + " "
+                            + in.getSize() + "\n")
+                                    .getBytes(StandardCharsets.UTF_8));
+                }
+                in.transferTo(out);
+                if (framed) {
+                    out.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read object " + hash, e);
+        } finally {
+            flush();
+        }
+    }
+
+    /**
+     * This method is used to print the history of a commit, the newest
+     * commit first. A framed session writes the commit objects with
+     * a header like cat-object.
+     * @param name - of a branch or hash value of the newest commit
+     * @param maxCount - number of commits to be printed, a negative
+     *        value prints all commits
+     */
+    public void log(String name, int maxCount) {
+
+        String hash = resolve(name);
+        if (hash == null) {
+            return;
+        }
+
+        if (!framed) {
+            new LogService(commits, getGraph()).printLog(hash, maxCount,
+                    out);
+            flush();
+            return;
+        }
+
+        try {
+            Iterator<String> walk = new LogService(commits, getGraph())
+                    .walk(hash);
+            for (int i = 0; i != maxCount && walk.hasNext(); i++) {
+                catObject(walk.next());
+            }
+        } catch (UncheckedIOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read the history",
+                    e.getCause());
+        }
+    }
+
+    /**
+     * This method is used to print the best common ancestor of two
+     * commits.
+     * @param first - name of a branch or hash value of a commit
+     * @param second - name of a branch or hash value of a commit
+     */
+    public void mergeBase(String first, String second) {
+
+        String firstHash = resolve(first);
+        String secondHash = resolve(second);
+        if (firstHash == null || secondHash == null) {
+            return;
+        }
+
+        try {
+            List<String> bases = new LogService(commits, getGraph())
+                    .mergeBases(firstHash, secondHash);
+            if (bases.isEmpty()) {
+                LOGGER.info("The commits have no common ancestor");
+            } else {
+                out.write((bases.get(0) + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read the history", e);
+        } finally {
+            flush();
+        }
+    }
+
+    /**
+     * This method is used to print, wether a commit is an ancestor
+     * of another commit, "true" or "false".
+     * @param ancestor - name of a branch or hash value of a commit
+     * @param commit - name of a branch or hash value of a commit
+     */
+    public void isAncestor(String ancestor, String commit) {
+
+        String ancestorHash = resolve(ancestor);
+        String commitHash = resolve(commit);
+        if (ancestorHash == null || commitHash == null) {
+            return;
+        }
+
+        try {
+            boolean result = new LogService(commits, getGraph())
+                    .isAncestor(ancestorHash, commitHash);
+            out.write((result + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read the history", e);
+        } finally {
+            flush();
+        }
+    }
+
+    /**
+     * This private method parses the arguments of the log command,
+     * e.g. "-n", "10", "master".
+     */
+    private boolean log(List<String> args) {
+
+        int maxCount = -1;
+        String name = HEAD;
+        int i = 0;
+
+        if (args.size() > 1 && args.get(0).equals(MAX_COUNT_OPTION)) {
+            try {
+                maxCount = Integer.parseInt(args.get(1));
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.SEVERE, "Invalid count: " + args.get(1));
+                return false;
+            }
+            i = 2;
+        }
+        if (i < args.size()) {
+            name = args.get(i++);
+        }
+        if (i < args.size()) {
+            LOGGER.log(Level.SEVERE, "Unknown argument: " + args.get(i));
+            return false;
+        }
+
+        log(name, maxCount);
+        return true;
+    }
+
+    /**
+     * This private method resolves HEAD, a branch or a hash value.
+     * @return - the hash value or null, if there is no commit yet
+     */
+    private String resolve(String name) {
+
+        String hash = refs.resolve(name);
+        if (hash == null) {
+            LOGGER.log(Level.SEVERE, name + " has no commit yet!");
+        }
+        return hash;
+    }
+
+    private void flush() {
+
+        try {
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not write the output", e);
+        }
+    }
+
+    /**
+     * This private method returns the staging index. A kept index is
+     * loaded again, if the index file was changed by another process,
+     * e.g. by a single call of jit while the daemon runs.
+     */
+    private StagingIndex getIndex() {
+
+        if (index == null) {
+            index = new StagingIndex();
+            index.setDeferred(deferred);
+        } else if (index.reloadIfChanged()) {
+            tree = null;
+        }
+        return index;
+    }
+
+    /**
+     * This private method maps the commit-graph once.
+     * @return - the commit-graph or null, if it was not written yet
+     */
+    private CommitGraph getGraph() {
+
+        if (!graphLoaded) {
+            graphLoaded = true;
+            Path file = Paths.get(PATH_COMMIT_GRAPH_FILE);
+            if (Files.exists(file)) {
+                try {
+                    graph = new CommitGraph(file);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Ignoring the commit-graph", e);
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * This private method returns the tree of the staging index. The
+     * tree is built once, afterwards only its dirty directories are
+     * hashed again.
+     */
+    @SuppressWarnings("try")
+    private MerkleTree getTree() {
+
+        StagingIndex current = getIndex();
+        if (tree == null) {
+            try (Metrics.Phase phase = Metrics.phase("tree.build")) {
+                tree = MerkleTree.fromIndex(current.entries());
+            }
+        } else {
+            try (Metrics.Phase phase = Metrics.phase("tree.rehash")) {
+                tree.rehash();
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * This private method drops the staging index and its tree, after
+     * the index file was rewritten by another component.
+     */
+    private void invalidate() {
+
+        index = null;
+        tree = null;
+    }
+
+    /**
+     * This class notices, wether an error was logged.
+     */
+    private static class ErrorHandler extends Handler {
+
+        private volatile boolean failed;
+
+        @Override
+        public void publish(LogRecord record) {
+
+            if (record.getLevel().intValue() >= Level.SEVERE.intValue()) {
+                failed = true;
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,254 +1,387 @@
 package de.othr.jit.datastructure;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import de.othr.jit.entity.Directory;
 import de.othr.jit.entity.FileContainer;
+import de.othr.jit.entity.IndexEntry;
 import de.othr.jit.entity.JitObject;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.storage.ObjectStore;
 import de.othr.jit.utility.FileSystemUtil;
 import de.othr.jit.utility.SecureHashUtil;
-import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import static de.othr.jit.constants.Constants.*;
 
 /**
  * This class is used to represent the file system.
- * 
+ * All directories and files are indexed by their path relative
+ * to the working directory, so a lookup does not have to
+ * search the whole tree.
+ * A session keeps its tree and links staged files into it, only the
+ * directories on their paths are hashed again.
+ *
  * @author codemonkey500
  *
  */
-public class MerkleTree implements Serializable {
-    
-    private static final long serialVersionUID = 1L;
-
-    private static final Logger LOGGER = Logger
-            .getLogger(MerkleTree.class.getName());
-    
-    private List<Directory> directories;
+public class MerkleTree {
+
+    private Map<String, Directory> directories;
     private Directory root;
-    private List<FileContainer> allFiles;
+    private Map<String, FileContainer> allFiles;
 
     public MerkleTree() {
-        this.directories = new LinkedList<Directory>();
-        this.allFiles = new LinkedList<FileContainer>();
+        this.directories = new LinkedHashMap<String, Directory>();
+        this.allFiles = new LinkedHashMap<String, FileContainer>();
     }
 
     /**
      * This method adds a file to a non existing MerkleTree.
-     * The MerkleTree will get hashed aswell.
-     * 
+     * The MerkleTree will get hashed aswell and the content of
+     * the file will be stored in the object store.
+     *
      * @param path - pointing to the file
+     * @param store - the content of the file is written to
+     * @throws IOException - if the file can not be read
      */
-    public void addInitialFile(String path) {
+    public void addInitialFile(String path, ObjectStore store)
+            throws IOException {
 
-        this.directories = createDirectoryList(path);
-        hashInitialTree();
+        insertFile(path, store);
+        rehash();
 
     }
 
     /**
-     * This methods should be called on the already existing tree.
-     * The file will be added to the data structure.
-     * The affected parts of the tree will get new hash values.
-     * 
-     * @param path - pointing on a file
+     * This method builds a MerkleTree from the entries of the
+     * staging index. The files will not be read again, their
+     * stored hash values are used instead.
+     * The tree is hashed in parallel.
+     *
+     * @param entries - of the staging index
+     * @return - the hashed MerkleTree
      */
-    public void addFileToExistingTree(String path) {
-
-        //creating the mergeTree
-        MerkleTree treeToMerge = new MerkleTree();
-        treeToMerge.addInitialFile(path);
-        treeToMerge.hashInitialTree();
-        this.allFiles.addAll(treeToMerge.allFiles);
-        
-        Directory parent = treeToMerge.getAllFiles().get(0).getParent();
-        
-        //searching for the right merge directory
-        while(!this.directories.contains(parent)) {
+    public static MerkleTree fromIndex(Collection<IndexEntry> entries) {
 
-            parent = parent.getParent();
+        return fromIndex(entries, PARALLELISM);
+    }
+
+    /**
+     * This method builds a MerkleTree from the entries of the
+     * staging index. The files will not be read again, their
+     * stored hash values are used instead.
+     *
+     * @param entries - of the staging index
+     * @param parallelism - number of threads hashing the tree
+     * @return - the hashed MerkleTree
+     */
+    public static MerkleTree fromIndex(Collection<IndexEntry> entries,
+            int parallelism) {
+
+        MerkleTree tree = new MerkleTree();
+
+        if (entries.isEmpty()) {
+            return tree;
         }
-        
-        List<JitObject> tempDirList = new LinkedList<JitObject>();
-        
-        //once the right dir is found, the right part of the mergeTree
-        //will be added
-        for (Directory d : this.directories) {
-            if(d.equals(parent)) {
-                d.addChildren(parent.getChildren());
-                tempDirList = parent.getChildren()
-                        .stream()
-                        .filter(dir -> dir instanceof Directory)
-                        .collect(Collectors.toList());
-                break;
-            }
-        } 
-        
-        //checking if the merge did add a directory aswell.
-        //If this is the case, we have to store this dir in our list.
-        if(tempDirList.size() > 0) {
-            this.directories.add((Directory) tempDirList.get(0));
+
+        for (IndexEntry entry : entries) {
+            tree.putEntry(entry);
         }
-        
-        this.hashMergedTree();
+
+        tree.rehash(parallelism);
+        return tree;
     }
 
     /**
-     * This method creates a list of directories. Those directories
-     * are part of the path. The directories will be linked so that
-     * every element in this list knows its children.
-     * 
-     * @param path - is pointing to the file
+     * This method links an entry of the staging index into the tree.
+     * The file is not read again, the stored hash value is used.
+     * Only the directories on its path are marked dirty, they are
+     * hashed by the next call of {@link #rehash()}.
+     *
+     * @param entry - of the staging index
      */
-    private List<Directory> createDirectoryList(String path) {
+    public void putEntry(IndexEntry entry) {
 
-        List<Directory> directories = new LinkedList<Directory>();
-
-        Directory root = new Directory(ROOT_NAME);
-        
-        directories.add(root);
-        this.root = root;
+        FileContainer file = insertFile(entry.getPath(),
+                FileSystemUtil.toAbsolutePath(entry.getPath()),
+                SecureHashUtil.encode(entry.getId()));
+        file.setMode(entry.getMode());
+        file.setStat(entry);
+    }
 
-        List<String> split = FileSystemUtil.splitPath(path);
+    /**
+     * This methods should be called on the already existing tree.
+     * The file will be added to the data structure and its content
+     * will be stored in the object store.
+     * The affected parts of the tree will get new hash values.
+     *
+     * @param path - pointing on a file
+     * @param store - the content of the file is written to
+     * @throws IOException - if the file can not be read
+     */
+    public void addFileToExistingTree(String path, ObjectStore store)
+            throws IOException {
 
-        //the path is poining on our start directory
-        Path dir = Paths.get(split.get(0)).toFile().getAbsoluteFile().toPath();
+        insertFile(path, store);
+        rehash();
+    }
 
-        File file = new File(path);
+    /**
+     * This method removes a file from the tree. Directories, which
+     * are empty afterwards, will be removed aswell.
+     *
+     * @param relativePath - e.g. "src/main/C.java"
+     * @return - true, if the file was part of the tree
+     */
+    public boolean removeFile(String relativePath) {
 
-        try {
-            Files.walkFileTree(dir, new FileVisitor<Path>() {
+        FileContainer file = this.allFiles.remove(relativePath);
 
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir,
-                        BasicFileAttributes attrs) throws IOException {
+        if (file == null) {
+            return false;
+        }
 
-                    directories.add(new Directory(dir.toFile().getName()));
+        Directory parent = file.getParent();
+        parent.removeChild(file.getName());
+        String parentPath = parentPath(relativePath);
 
-                    return FileVisitResult.CONTINUE;
+        //Delete empty directories up to the root
+        while (parent != this.root && parent.getChildren().isEmpty()) {
+            parent.getParent().removeChild(parent.getName());
+            this.directories.remove(parentPath);
+            parent = parent.getParent();
+            parentPath = parentPath(parentPath);
+        }
 
-                }
+        if (this.allFiles.isEmpty()) {
+            this.directories.clear();
+            this.root = null;
+        } else {
+            parent.markDirty();
+            rehash();
+        }
+        return true;
+    }
 
-                @Override
-                public FileVisitResult visitFile(Path dir,
-                        BasicFileAttributes attrs) throws IOException {
-
-                    //When the file is found, the search will terminate
-                    //The last directory will store the link to the file 
-                    //in its list of children.
-                    //All files of the tree will be stored
-                    //in a list for later merge
-                    if (dir.toFile().getName().equals(file.getName())) {
-                        FileContainer file = new FileContainer(
-                                dir.toFile().getName(), dir.toString());
-                        file.setParent(directories.get(directories.size() - 1));
-                        directories.get(directories.size() - 1).getChildren()
-                                .add(file);
-                        allFiles.add(file);
-
-                        return FileVisitResult.TERMINATE;
-                    }
-
-                    return FileVisitResult.CONTINUE;
-                }
+    /**
+     * Use this method to look up a file by its path.
+     *
+     * @param relativePath - e.g. "src/main/C.java"
+     * @return - the file or null, if it is not part of the tree
+     */
+    public FileContainer getFile(String relativePath) {
+        return allFiles.get(relativePath);
+    }
 
-                @Override
-                public FileVisitResult visitFileFailed(Path dir,
-                        IOException exc)
-                        throws IOException {
+    /**
+     * Use this method to look up a directory by its path.
+     * The root directory has the empty path.
+     *
+     * @param relativePath - e.g. "src/main"
+     * @return - the directory or null, if it is not part of the tree
+     */
+    public Directory getDirectory(String relativePath) {
+        return directories.get(relativePath);
+    }
 
-                    return FileVisitResult.CONTINUE;
-                }
+    /**
+     * This private method stores a file of the working directory
+     * in the object store and links it into the tree.
+     * The stat data is taken before the content is hashed, so a
+     * change while hashing is detected on the next check.
+     *
+     * @param path - pointing to the file
+     * @param store - the content of the file is written to
+     * @throws IOException - if the file can not be read
+     */
+    private void insertFile(String path, ObjectStore store)
+            throws IOException {
+
+        String relativePath = FileSystemUtil.toRelativePath(path);
+        IndexEntry stat = IndexEntry.fromFile(relativePath, Paths.get(path),
+                null);
+        String hash = store.writeBlob(Paths.get(path));
+        stat.setId(SecureHashUtil.decode(hash));
+
+        FileContainer file = insertFile(relativePath,
+                Paths.get(path).toAbsolutePath().toString(), hash);
+        file.setMode(stat.getMode());
+        file.setStat(stat);
+    }
 
-                @Override
-                public FileVisitResult postVisitDirectory(Path dir,
-                        IOException exc)
-                        throws IOException {
+    /**
+     * This private method links a file into the tree. Missing
+     * directories on the path will be created, an already linked
+     * file with the same path will be replaced.
+     * The directories on the path are marked dirty, the tree
+     * will not be hashed.
+     *
+     * @param relativePath - e.g. "src/main/C.java"
+     * @param absolutePath - pointing to the file
+     * @param hash - of the files content
+     */
+    private FileContainer insertFile(String relativePath,
+            String absolutePath, String hash) {
 
-                    directories.remove(new Directory(dir.toFile().getName()));
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, ExceptionUtils.getStackTrace(e));
+        if (this.root == null) {
+            this.root = new Directory(ROOT_NAME);
+            this.directories.put("", this.root);
         }
 
-        //Link directories
-        for (int i = directories.size() - 2; i >= 0; i--) {
-            directories.get(i).addChild(directories.get(i + 1));
-            directories.get(i + 1).setParent(directories.get(i));
+        List<String> split = FileSystemUtil.splitPath(relativePath);
+        Directory parent = this.root;
+        StringBuilder path = new StringBuilder();
+
+        for (String name : split.subList(0, split.size() - 1)) {
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            path.append(name);
+
+            Directory next = this.directories.get(path.toString());
+            if (next == null) {
+                next = new Directory(name);
+                next.setParent(parent);
+                parent.addChild(next);
+                parent.markDirty();
+                this.directories.put(path.toString(), next);
+            }
+            parent = next;
         }
 
-        return directories;
+        FileContainer file = new FileContainer(split.get(split.size() - 1),
+                absolutePath, hash);
+        file.setParent(parent);
+        parent.addChild(file);
+        parent.markDirty();
+        this.allFiles.put(relativePath, file);
+        return file;
+    }
+
+    private static String parentPath(String relativePath) {
+
+        int index = relativePath.lastIndexOf('/');
+        return index < 0 ? "" : relativePath.substring(0, index);
     }
 
     /**
-     * Use this method to hash a inital tree.
+     * Use this method to hash all dirty parts of the tree.
+     * Only directories on the path of a changed node are marked dirty,
+     * so every dirty directory is computed exactly once bottom-up and
+     * unchanged subtrees keep their hash values.
      * The method will follow merkle tree hash principles.
      * @see <a href="https://en.wikipedia.org/wiki/Merkle_tree">MerkleTree</a>
      */
-    private void hashInitialTree() {
+    public void rehash() {
 
-        for (int i = directories.size() - 1; i >= 0; i--) {
+        if (this.root != null && this.root.isDirty()) {
+            hashDirectory(this.root);
+        }
+    }
 
-            StringBuilder sb = new StringBuilder();
+    /**
+     * Use this method to hash all dirty parts of the tree with
+     * several threads. Independent subtrees are hashed concurrently
+     * and a directory is hashed as soon as all its dirty sub
+     * directories are done. The result is the same as of
+     * {@link #rehash()}.
+     *
+     * @param parallelism - number of threads, 1 hashes sequentially
+     */
+    public void rehash(int parallelism) {
 
-            for (JitObject child : directories.get(i).getChildren()) {
-                sb.append(child.getHash());
-            }
+        if (parallelism <= 1 || this.root == null
+                || !this.root.isDirty()) {
+            rehash();
+            return;
+        }
 
-            directories.get(i).setHash(
-                    SecureHashUtil
-                            .computeHash(sb.toString().getBytes()).getBytes());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new HashTask(this.root));
+        } finally {
+            pool.shutdown();
         }
     }
-    
+
     /**
-     * This method can be used to hash a MerkleTree.
-     * This method will follow the merkle tree hash principles. 
-     * @see <a href="https://en.wikipedia.org/wiki/Merkle_tree">MerkleTree</a>
+     * This private method hashes a dirty directory after its dirty
+     * sub directories. The hash is computed from mode, name and raw
+     * hash value of every child in name order.
+     *
+     * @param dir - to be hashed
      */
-    private void hashMergedTree() {
-        
-        this.directories.stream().forEach(dir -> dir.resetHash());
-        
-        List<Directory> dirList = new LinkedList<Directory>();
-        allFiles.stream().map(p -> p.getParent()).distinct()
-                .forEach(p -> dirList.add(p));
-        
-        for (Directory dir : dirList) {
-            Directory walker = dir;
-            while(!walker.getName().equals(ROOT_NAME)) {
-                StringBuilder sb = new StringBuilder();
-                walker.getChildren().stream().map(c -> c.getHash())
-                        .forEach(c -> sb.append(c));
-                sb.append(walker.getHash());
-                walker.setHash(sb.toString().getBytes());
-                walker = walker.getParent();
+    private static void hashDirectory(Directory dir) {
+
+        for (JitObject child : dir.getChildNodes()) {
+            if (child instanceof Directory && ((Directory) child).isDirty()) {
+                hashDirectory((Directory) child);
             }
         }
-        
-        StringBuilder sb = new StringBuilder();
-        this.root.getChildren().stream()
-                .forEach(dir -> sb.append(dir.getHash()));
-        this.root.setHash(sb.toString().getBytes());
-        
+
+        dir.updateHash(digestChildren(dir));
+        Metrics.count("tree.directories.hashed", 1);
     }
 
+    /**
+     * This method computes the digest of a directory from its
+     * children. The children have to be hashed already. The digest
+     * is the digest of the tree object of the directory, see
+     * {@link TreeObject}.
+     *
+     * @param dir - to be hashed
+     * @return - the raw digest
+     */
+    static byte[] digestChildren(Directory dir) {
+
+        return SecureHashUtil.digest(TreeObject.encode(dir));
+    }
+
+    /**
+     * This class hashes a dirty directory. Every dirty sub directory
+     * is hashed by its own task first.
+     */
+    private static class HashTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Directory dir;
+
+        HashTask(Directory dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+
+            List<HashTask> tasks = new ArrayList<HashTask>();
+            for (JitObject child : dir.getChildNodes()) {
+                if (child instanceof Directory
+                        && ((Directory) child).isDirty()) {
+                    tasks.add(new HashTask((Directory) child));
+                }
+            }
+
+            invokeAll(tasks);
+            dir.updateHash(digestChildren(dir));
+            Metrics.count("tree.directories.hashed", 1);
+        }
+    }
+
+    /**
+     * Use this method to get all directories. Parents are
+     * always listed before their children.
+     * @return - a copy of the directory list
+     */
     public List<Directory> getDirectories() {
-        return directories;
+        return new ArrayList<Directory>(directories.values());
     }
 
     public Directory getRoot() {
@@ -259,11 +392,11 @@ public class MerkleTree implements Serializable {
         this.root = root;
     }
 
+    /**
+     * Use this method to get all files in the order they were added.
+     * @return - a copy of the file list
+     */
     public List<FileContainer> getAllFiles() {
-        return allFiles;
-    }
-
-    public void setAllFiles(List<FileContainer> allFiles) {
-        this.allFiles = allFiles;
+        return new ArrayList<FileContainer>(allFiles.values());
     }
 }
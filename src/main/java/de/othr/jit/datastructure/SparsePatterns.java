@@ -0,0 +1,153 @@
+package de.othr.jit.datastructure;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class represents a set of path prefixes, which limits
+ * the files of a checkout.
+ * <p>
+ * A path is included, if it equals a prefix or lies below it.
+ * A directory has to be visited, if it is included or a prefix
+ * lies below it. An empty set includes every path.
+ * The sparse checkout patterns are stored in the file .jit/sparse,
+ * one prefix per line.
+ * @author codemonkey500
+ *
+ */
+public class SparsePatterns {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(SparsePatterns.class.getName());
+
+    private final List<String> prefixes;
+
+    /**
+     * @param prefixes - paths relative to the working directory,
+     *        e.g. "src/main"
+     */
+    public SparsePatterns(Collection<String> prefixes) {
+
+        TreeSet<String> normalized = new TreeSet<String>();
+        for (String prefix : prefixes) {
+            String trimmed = prefix.trim();
+            while (trimmed.endsWith("/")) {
+                trimmed = trimmed.substring(0, trimmed.length() - 1);
+            }
+            if (!trimmed.isEmpty()) {
+                normalized.add(trimmed);
+            }
+        }
+        this.prefixes = new ArrayList<String>(normalized);
+    }
+
+    /**
+     * This method loads the sparse checkout patterns.
+     * @return - the patterns or an empty set, if sparse checkout
+     *         is not enabled
+     */
+    public static SparsePatterns load() {
+
+        return load(Paths.get(PATH_SPARSE_FILE));
+    }
+
+    /**
+     * This method loads patterns from a file.
+     * @param file - one prefix per line
+     * @return - the patterns or an empty set, if the file
+     *         does not exist
+     */
+    public static SparsePatterns load(Path file) {
+
+        if (!Files.exists(file)) {
+            return new SparsePatterns(Collections.emptyList());
+        }
+
+        try {
+            return new SparsePatterns(
+                    Files.readAllLines(file, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read " + file, e);
+            return new SparsePatterns(Collections.emptyList());
+        }
+    }
+
+    /**
+     * This method stores the patterns in a file. An empty set
+     * deletes the file, so sparse checkout is disabled.
+     * @param file - to be written
+     */
+    public void save(Path file) {
+
+        try {
+            if (prefixes.isEmpty()) {
+                Files.deleteIfExists(file);
+            } else {
+                Files.write(file, prefixes, StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not write " + file, e);
+        }
+    }
+
+    /**
+     * Use this method to check, wether a file or directory
+     * is part of the checkout.
+     * @param path - relative path, e.g. "src/main/C.java"
+     * @return - true, if the path lies below a prefix
+     */
+    public boolean includes(String path) {
+
+        if (prefixes.isEmpty()) {
+            return true;
+        }
+
+        for (String prefix : prefixes) {
+            if (path.equals(prefix) || path.startsWith(prefix + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Use this method to check, wether a directory contains
+     * any part of the checkout.
+     * @param path - relative path of the directory, "" for the root
+     * @return - true, if the directory is included or a prefix
+     *         lies below it
+     */
+    public boolean leadsTo(String path) {
+
+        if (path.isEmpty() || includes(path)) {
+            return true;
+        }
+
+        for (String prefix : prefixes) {
+            if (prefix.startsWith(path + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return prefixes.isEmpty();
+    }
+
+    public List<String> getPrefixes() {
+        return Collections.unmodifiableList(prefixes);
+    }
+}
@@ -0,0 +1,747 @@
+package de.othr.jit.datastructure;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import de.othr.jit.entity.IndexEntry;
+import de.othr.jit.metrics.Metrics;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class represents the binary staging index.
+ * <p>
+ * The file starts with a header (magic, version, number of sorted
+ * entries, end of the sorted section) followed by an offset table and
+ * the entries sorted by path. Every entry stores the stat data of its
+ * file (mode, size, mtime, ctime, inode) and the raw object id.
+ * Changes are appended as records behind the sorted section, so
+ * staging a single file does not rewrite the index. Once enough
+ * records are appended, the index is compacted into a new sorted file.
+ * <p>
+ * Appends and compactions hold the lock file "index.lock", which is
+ * created exclusively, so concurrent processes never lose a record.
+ * A deferred index, e.g. of the batch mode, collects its changes in
+ * memory and writes all of them at once, when it is flushed.
+ * <p>
+ * The sorted section is read through a memory-mapped buffer and
+ * searched binary, the appended records are held in memory.
+ * Paths are stored with an unsigned 16 bit length, so a path longer
+ * than {@value #MAX_PATH_LENGTH} bytes in UTF-8 can not be staged.
+ * @author codemonkey500
+ *
+ */
+public class StagingIndex {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(StagingIndex.class.getName());
+
+    private static final int MAGIC = 0x4A494458;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int ID_LENGTH = 20;
+    private static final int MAX_PATH_LENGTH = 0xFFFF;
+    private static final byte OP_REMOVE = 0;
+    private static final byte OP_PUT = 1;
+    private static final int MIN_COMPACT_THRESHOLD = 64;
+    private static final long LOCK_TIMEOUT_MILLIS = 5000;
+    private static final long LOCK_RETRY_MILLIS = 10;
+
+    private final Path file;
+    private ByteBuffer buffer;
+    private int sortedCount;
+    private int size;
+    //End of the last complete record
+    private long validLength;
+    //Stat data of the index file, when it was loaded
+    private BasicFileAttributes loaded;
+
+    //Appended records, a null value marks a removed path
+    private final Map<String, IndexEntry> pending;
+    //Changes not written yet, null if the index is not deferred
+    private Map<String, IndexEntry> deferred;
+
+    public StagingIndex() {
+        this(Paths.get(PATH_STAGING_FILE));
+    }
+
+    public StagingIndex(Path file) {
+        this.file = file;
+        this.pending = new TreeMap<String, IndexEntry>();
+        load();
+    }
+
+    /**
+     * Use this method to look up a staged file.
+     * @param path - relative path of the file
+     * @return - the entry or null, if the file is not staged
+     */
+    public IndexEntry get(String path) {
+
+        if (pending.containsKey(path)) {
+            return pending.get(path);
+        }
+
+        int index = search(path);
+        return index < 0 ? null : readEntry(offsetOf(index));
+    }
+
+    /**
+     * Use this method to check wether a file is staged.
+     * @param path - relative path of the file
+     * @return - true, if the file is staged
+     */
+    public boolean contains(String path) {
+
+        return get(path) != null;
+    }
+
+    /**
+     * This method is used to stage a file. An existing entry with
+     * the same path will be replaced.
+     * The change is appended to the index file immediately, unless
+     * the index is deferred.
+     * A racy clean entry will be smudged before it is stored.
+     * @param entry - to be staged
+     */
+    public void put(IndexEntry entry) {
+
+        entry.smudgeIfRacy(System.currentTimeMillis());
+        update(Collections.singletonMap(entry.getPath(), entry));
+    }
+
+    /**
+     * This method is used to stage many files at once.
+     * All records are appended with a single write, too many records
+     * rewrite the index a single time instead.
+     * @param entries - to be staged
+     */
+    public void putAll(Collection<IndexEntry> entries) {
+
+        long now = System.currentTimeMillis();
+        Map<String, IndexEntry> changes = new TreeMap<String, IndexEntry>();
+        for (IndexEntry entry : entries) {
+            entry.smudgeIfRacy(now);
+            changes.put(entry.getPath(), entry);
+        }
+        update(changes);
+    }
+
+    /**
+     * This method is used to remove a file from the index.
+     * The change is appended to the index file immediately, unless
+     * the index is deferred.
+     * @param path - relative path of the file
+     * @return - true, if the file was staged
+     */
+    public boolean remove(String path) {
+
+        if (!contains(path)) {
+            return false;
+        }
+
+        update(Collections.singletonMap(path, null));
+        return true;
+    }
+
+    /**
+     * This method is used to defer the changes of the index. They are
+     * applied in memory only, until the index is flushed. Ending the
+     * deferred mode flushes the index.
+     * @param defer - true, to collect the following changes
+     */
+    public void setDeferred(boolean defer) {
+
+        if (defer && deferred == null) {
+            deferred = new TreeMap<String, IndexEntry>();
+        } else if (!defer && deferred != null) {
+            flush();
+            deferred = null;
+        }
+    }
+
+    /**
+     * This method writes the changes of a deferred index. The index
+     * file is loaded again under the lock, so changes of another
+     * process are kept, and all changes are written at once.
+     */
+    public void flush() {
+
+        if (deferred == null || deferred.isEmpty()) {
+            return;
+        }
+
+        Map<String, IndexEntry> changes = deferred;
+        deferred = new TreeMap<String, IndexEntry>();
+        Path lockFile = lockFile(file);
+        boolean moved = false;
+        try (FileChannel lock = lock(lockFile)) {
+            load();
+            moved = write(lock, changes);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Updating the staging index failed!", e);
+            //Kept for the next flush
+            changes.putAll(deferred);
+            deferred = changes;
+            return;
+        } finally {
+            unlock(lockFile, moved);
+        }
+        Metrics.count("staging.flushed", changes.size());
+    }
+
+    /**
+     * Use this method to get all staged files.
+     * @return - all entries sorted by path
+     */
+    public List<IndexEntry> entries() {
+
+        List<IndexEntry> entries = new ArrayList<IndexEntry>(size);
+        Iterator<Map.Entry<String, IndexEntry>> changes = pending.entrySet()
+                .iterator();
+        Map.Entry<String, IndexEntry> change = changes.hasNext()
+                ? changes.next() : null;
+
+        for (int i = 0; i < sortedCount; i++) {
+            IndexEntry entry = readEntry(offsetOf(i));
+
+            //Merge the appended records into the sorted section
+            while (change != null
+                    && change.getKey().compareTo(entry.getPath()) <= 0) {
+                if (change.getValue() != null) {
+                    entries.add(change.getValue());
+                }
+                boolean replaced = change.getKey().equals(entry.getPath());
+                change = changes.hasNext() ? changes.next() : null;
+                if (replaced) {
+                    entry = null;
+                    break;
+                }
+            }
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+
+        while (change != null) {
+            if (change.getValue() != null) {
+                entries.add(change.getValue());
+            }
+            change = changes.hasNext() ? changes.next() : null;
+        }
+
+        return entries;
+    }
+
+    /**
+     * This method is used to keep a long living index up to date,
+     * e.g. the index of the daemon. If another process appended to or
+     * replaced the index file since it was loaded, it is loaded again.
+     * @return - true, if the index was loaded again
+     */
+    public boolean reloadIfChanged() {
+
+        try {
+            if (!isChanged()) {
+                return false;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not check the staging index", e);
+        }
+        load();
+        if (deferred != null) {
+            deferred.forEach(this::apply);
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * This method is used to write a complete, sorted index file.
+     * The file is written to the lock file of the index and moved
+     * afterwards, so readers never see a half written index.
+     * @param file - the index file
+     * @param entries - to be stored
+     * @return - false, if the index is locked or could not be written
+     */
+    public static boolean write(Path file, Collection<IndexEntry> entries) {
+
+        Path lockFile = lockFile(file);
+        boolean moved = false;
+        try (FileChannel lock = lock(lockFile)) {
+            moved = save(file, lock, entries);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Writing the staging index failed!", e);
+        } finally {
+            unlock(lockFile, moved);
+        }
+        return moved;
+    }
+
+    /**
+     * This private method writes the sorted index into the lock file,
+     * which is held by the caller, and moves it to the index file.
+     * @return - true, once the lock file was moved
+     */
+    @SuppressWarnings("try")
+    private static boolean save(Path file, FileChannel lock,
+            Collection<IndexEntry> entries) throws IOException {
+
+        try (Metrics.Phase phase = Metrics.phase("staging.save")) {
+            List<IndexEntry> sorted = new ArrayList<IndexEntry>(entries);
+            sorted.sort(Comparator.comparing(IndexEntry::getPath));
+
+            long now = System.currentTimeMillis();
+            sorted.forEach(entry -> entry.smudgeIfRacy(now));
+
+            List<byte[]> paths = new ArrayList<byte[]>(sorted.size());
+            int length = HEADER_SIZE + 4 * sorted.size();
+            for (IndexEntry entry : sorted) {
+                byte[] path = encodePath(entry.getPath());
+                paths.add(path);
+                length += entryLength(path);
+            }
+
+            ByteBuffer out = ByteBuffer.allocate(length);
+            out.putInt(MAGIC).putInt(VERSION).putInt(sorted.size())
+                    .putInt(length);
+
+            int offset = HEADER_SIZE + 4 * sorted.size();
+            for (byte[] path : paths) {
+                out.putInt(offset);
+                offset += entryLength(path);
+            }
+            for (int i = 0; i < sorted.size(); i++) {
+                putEntry(out, sorted.get(i), paths.get(i));
+            }
+            out.flip();
+
+            while (out.hasRemaining()) {
+                lock.write(out);
+            }
+            lock.force(true);
+            Metrics.count("staging.syncs", 1);
+            Files.move(lockFile(file), file,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+    }
+
+    /**
+     * This private method maps the index file and reads the
+     * appended records. A record, which ends behind the end of the
+     * file, was torn by a crash while it was appended. It and
+     * everything behind it is ignored.
+     */
+    @SuppressWarnings("try")
+    private void load() {
+
+        this.buffer = null;
+        this.sortedCount = 0;
+        this.size = 0;
+        this.validLength = 0;
+        this.pending.clear();
+        this.loaded = null;
+
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try (Metrics.Phase phase = Metrics.phase("staging.load");
+                FileChannel channel = FileChannel.open(file,
+                        StandardOpenOption.READ)) {
+
+            this.loaded = Files.readAttributes(file,
+                    BasicFileAttributes.class);
+            MappedByteBuffer mapped = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int limit = mapped.limit();
+            int sortedEnd = limit < HEADER_SIZE ? 0 : mapped.getInt(12);
+            if (limit < HEADER_SIZE || mapped.getInt(0) != MAGIC
+                    || mapped.getInt(4) != VERSION
+                    || mapped.getInt(8) < 0 || sortedEnd > limit
+                    || sortedEnd < HEADER_SIZE + 4L * mapped.getInt(8)) {
+                LOGGER.log(Level.SEVERE,
+                        "Staging index is damaged or outdated. "
+                                + "Please add your files again!");
+                return;
+            }
+
+            this.buffer = mapped;
+            this.sortedCount = mapped.getInt(8);
+            this.size = sortedCount;
+
+            int offset = sortedEnd;
+            while (offset < limit) {
+                int length = recordLength(offset);
+                if (length < 0 || length > limit - offset) {
+                    LOGGER.fine("Ignoring a torn record of the staging "
+                            + "index at " + offset);
+                    break;
+                }
+
+                byte op = mapped.get(offset);
+                String path = readPath(offset + 1);
+                boolean present = contains(path);
+
+                if (op == OP_PUT) {
+                    pending.put(path, readEntry(offset + 1));
+                    if (!present) {
+                        size++;
+                    }
+                } else {
+                    pending.put(path, null);
+                    if (present) {
+                        size--;
+                    }
+                }
+                offset += length;
+            }
+            this.validLength = offset;
+
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Reading the staging index failed!", e);
+        }
+    }
+
+    /**
+     * This private method applies changes to the index. A deferred
+     * index only keeps them in memory, otherwise they are written
+     * while the lock file is held. Records appended by another process
+     * are loaded first.
+     * @param changes - by path, a null value removes the path
+     */
+    private void update(Map<String, IndexEntry> changes) {
+
+        try {
+            for (String path : changes.keySet()) {
+                encodePath(path);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Nothing was staged!", e);
+            return;
+        }
+
+        if (deferred != null) {
+            changes.forEach(this::apply);
+            deferred.putAll(changes);
+            return;
+        }
+
+        Path lockFile = lockFile(file);
+        boolean moved = false;
+        boolean failed = false;
+        try (FileChannel lock = lock(lockFile)) {
+            if (isChanged()) {
+                load();
+            }
+            moved = write(lock, changes);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Updating the staging index failed!", e);
+            failed = true;
+        } finally {
+            unlock(lockFile, moved);
+        }
+
+        //The changes may be applied in memory only
+        if (failed) {
+            load();
+        }
+    }
+
+    /**
+     * This private method writes changes, while the caller holds the
+     * lock file. All records are appended and synced at once, a torn
+     * record of a crashed process is cut off. If there is no index yet
+     * or too many records are appended, a new sorted index is written
+     * instead.
+     * @return - true, if the lock file was moved to the index file
+     */
+    private boolean write(FileChannel lock, Map<String, IndexEntry> changes)
+            throws IOException {
+
+        Map<String, IndexEntry> applied = new TreeMap<String, IndexEntry>();
+        List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+        for (Map.Entry<String, IndexEntry> change : changes.entrySet()) {
+            String path = change.getKey();
+            IndexEntry entry = change.getValue();
+            if (entry == null && !contains(path)) {
+                continue;
+            }
+
+            byte[] pathBytes = encodePath(path);
+            ByteBuffer out = ByteBuffer.allocate(1 + (entry == null
+                    ? 2 + pathBytes.length : entryLength(pathBytes)));
+            out.put(entry == null ? OP_REMOVE : OP_PUT);
+            if (entry == null) {
+                out.putShort((short) pathBytes.length).put(pathBytes);
+            } else {
+                putEntry(out, entry, pathBytes);
+            }
+            out.flip();
+            records.add(out);
+            applied.put(path, entry);
+        }
+        //Applied only, once every path could be encoded
+        applied.forEach(this::apply);
+
+        //Rewrites the index, once the appended records grow too
+        //large compared to the sorted section
+        if (buffer == null || pending.size() > Math.max(
+                MIN_COMPACT_THRESHOLD, sortedCount / 4)) {
+            boolean moved = save(file, lock, entries());
+            load();
+            return moved;
+        }
+        if (records.isEmpty()) {
+            return false;
+        }
+
+        long length = 0;
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                LOGGER.log(Level.WARNING, "Cutting off a torn record "
+                        + "of the staging index at " + validLength);
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+            ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+            for (ByteBuffer record : buffers) {
+                length += record.remaining();
+            }
+            for (long written = 0; written < length;) {
+                written += channel.write(buffers);
+            }
+            channel.force(false);
+        }
+        Metrics.count("staging.appends", records.size());
+        Metrics.count("staging.syncs", 1);
+
+        validLength += length;
+        loaded = Files.readAttributes(file, BasicFileAttributes.class);
+        return false;
+    }
+
+    /**
+     * This private method applies a change to the records held in
+     * memory.
+     * @param entry - the new entry or null, if the path is removed
+     */
+    private void apply(String path, IndexEntry entry) {
+
+        boolean present = contains(path);
+        pending.put(path, entry);
+        if (entry != null && !present) {
+            size++;
+        } else if (entry == null && present) {
+            size--;
+        }
+    }
+
+    /**
+     * This private method checks, wether the index file was replaced
+     * or appended since it was loaded.
+     */
+    private boolean isChanged() throws IOException {
+
+        if (!Files.exists(file)) {
+            return loaded != null;
+        }
+        if (loaded == null) {
+            return true;
+        }
+        BasicFileAttributes current = Files.readAttributes(file,
+                BasicFileAttributes.class);
+        return current.size() != loaded.size()
+                || !current.lastModifiedTime()
+                        .equals(loaded.lastModifiedTime())
+                || !Objects.equals(current.fileKey(), loaded.fileKey());
+    }
+
+    /**
+     * This private method computes the length of an appended record.
+     * @return - the length or -1, if the record is not complete
+     */
+    private int recordLength(int offset) {
+
+        if (buffer.limit() - offset < 3) {
+            return -1;
+        }
+        byte op = buffer.get(offset);
+        int pathLength = pathLength(offset + 1);
+
+        if (op == OP_PUT) {
+            return 1 + entryLength(pathLength);
+        }
+        return op == OP_REMOVE ? 1 + 2 + pathLength : -1;
+    }
+
+    private static Path lockFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".lock");
+    }
+
+    /**
+     * This private method creates the lock file of the index. Only one
+     * process at a time can create it, so appended records are never
+     * lost by a compaction of another process. A lock left behind by a
+     * crashed process has to be removed by hand.
+     */
+    private static FileChannel lock(Path lockFile) throws IOException {
+
+        long deadline = System.currentTimeMillis() + LOCK_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return FileChannel.open(lockFile, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE_NEW);
+            } catch (FileAlreadyExistsException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("The staging index is locked. "
+                            + "Remove " + lockFile + ", if no other jit "
+                            + "is running!", e);
+                }
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Waiting for the staging index lock");
+            }
+        }
+    }
+
+    /**
+     * This private method removes the lock file, unless it was moved
+     * to the index file already.
+     */
+    private static void unlock(Path lockFile, boolean moved) {
+
+        if (moved) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(lockFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not remove " + lockFile, e);
+        }
+    }
+
+    /**
+     * This private method searches the sorted section.
+     * @return - the index of the entry or a negative value
+     */
+    private int search(String path) {
+
+        int low = 0;
+        int high = sortedCount - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = readPath(offsetOf(mid)).compareTo(path);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int offsetOf(int index) {
+        return buffer.getInt(HEADER_SIZE + 4 * index);
+    }
+
+    private int pathLength(int offset) {
+        return Short.toUnsignedInt(buffer.getShort(offset));
+    }
+
+    private String readPath(int offset) {
+
+        byte[] path = new byte[pathLength(offset)];
+        buffer.get(offset + 2, path);
+        return new String(path, StandardCharsets.UTF_8);
+    }
+
+    private IndexEntry readEntry(int offset) {
+
+        int pathLength = pathLength(offset);
+        String path = readPath(offset);
+        int pos = offset + 2 + pathLength;
+
+        int mode = buffer.getInt(pos);
+        long size = buffer.getLong(pos + 4);
+        long modified = buffer.getLong(pos + 12);
+        long changed = buffer.getLong(pos + 20);
+        long inode = buffer.getLong(pos + 28);
+        byte[] id = new byte[ID_LENGTH];
+        buffer.get(pos + 36, id);
+
+        return new IndexEntry(path, mode, size, modified, changed, inode,
+                id);
+    }
+
+    /**
+     * This private method encodes a path for the index file.
+     * @return - the UTF-8 bytes of the path
+     * @throws IOException - if the path is too long to be stored
+     */
+    private static byte[] encodePath(String path) throws IOException {
+
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_PATH_LENGTH) {
+            throw new IOException("The path " + path.substring(0, 64)
+                    + "... is longer than " + MAX_PATH_LENGTH + " bytes");
+        }
+        return bytes;
+    }
+
+    private static int entryLength(byte[] path) {
+        return entryLength(path.length);
+    }
+
+    private static int entryLength(int pathLength) {
+        return 2 + pathLength + 4 + 8 + 8 + 8 + 8 + ID_LENGTH;
+    }
+
+    private static void putEntry(ByteBuffer out, IndexEntry entry,
+            byte[] path) {
+
+        out.putShort((short) path.length).put(path);
+        out.putInt(entry.getMode()).putLong(entry.getSize())
+                .putLong(entry.getModified()).putLong(entry.getChanged())
+                .putLong(entry.getInode()).put(entry.getId());
+    }
+}
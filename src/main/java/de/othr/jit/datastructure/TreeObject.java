@@ -0,0 +1,195 @@
+package de.othr.jit.datastructure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import de.othr.jit.entity.Directory;
+import de.othr.jit.entity.JitObject;
+import de.othr.jit.utility.SecureHashUtil;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class reads and writes the binary tree objects.
+ * <p>
+ * A tree object lists the children of a directory in name order.
+ * Every entry consists of the mode (int), the length of the name
+ * (short), the name in UTF-8 and the raw id of the child. The hash
+ * value of a directory is the digest of its tree object.
+ * <p>
+ * The entries are read directly from the buffer. Only their offsets
+ * are collected, while the buffer is checked, so an entry is found by
+ * a binary search and names and ids are decoded only on request.
+ * @author codemonkey500
+ *
+ */
+public final class TreeObject {
+
+    static final int ENTRY_HEADER_SIZE = Integer.BYTES + Short.BYTES;
+    static final int ID_LENGTH = 20;
+
+    private final ByteBuffer data;
+    private final int[] offsets;
+
+    /**
+     * This constructor parses a tree object.
+     * @param data - content of the tree object, from its position
+     *        to its limit
+     * @throws IOException - if an entry is truncated
+     */
+    public TreeObject(ByteBuffer data) throws IOException {
+
+        this.data = data.slice();
+
+        int count = 0;
+        int offset = 0;
+        while (offset < this.data.limit()) {
+            offset = next(offset);
+            count++;
+        }
+
+        this.offsets = new int[count];
+        offset = 0;
+        for (int i = 0; i < count; i++) {
+            offsets[i] = offset;
+            offset = next(offset);
+        }
+    }
+
+    /**
+     * This private method checks an entry.
+     * @return - the offset of the next entry
+     */
+    private int next(int offset) throws IOException {
+
+        if (offset + ENTRY_HEADER_SIZE > data.limit()) {
+            throw new IOException("Corrupt tree object");
+        }
+        int end = offset + ENTRY_HEADER_SIZE + nameLength(offset) + ID_LENGTH;
+        if (end > data.limit()) {
+            throw new IOException("Corrupt tree object");
+        }
+        return end;
+    }
+
+    /**
+     * This method is used to encode the children of a directory.
+     * The children have to be hashed already.
+     * @param dir - to be encoded
+     * @return - the content of the tree object
+     */
+    public static byte[] encode(Directory dir) {
+
+        int size = 0;
+        byte[][] names = new byte[dir.getChildNodes().size()][];
+        int i = 0;
+        for (JitObject child : dir.getChildNodes()) {
+            names[i] = child.getName().getBytes(StandardCharsets.UTF_8);
+            size += ENTRY_HEADER_SIZE + names[i].length + ID_LENGTH;
+            i++;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        i = 0;
+        for (JitObject child : dir.getChildNodes()) {
+            buffer.putInt(child.getMode())
+                    .putShort((short) names[i].length)
+                    .put(names[i])
+                    .put(child.getId());
+            i++;
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Use this method to get the number of entries.
+     * @return - the number of children of the directory
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    public int getMode(int index) {
+        return data.getInt(offsets[index]);
+    }
+
+    public boolean isDirectory(int index) {
+        return getMode(index) == DIRECTORY_MODE;
+    }
+
+    public String getName(int index) {
+
+        byte[] name = new byte[nameLength(offsets[index])];
+        data.get(offsets[index] + ENTRY_HEADER_SIZE, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    public byte[] getId(int index) {
+
+        byte[] id = new byte[ID_LENGTH];
+        int offset = offsets[index];
+        data.get(offset + ENTRY_HEADER_SIZE + nameLength(offset), id);
+        return id;
+    }
+
+    public String getHash(int index) {
+        return SecureHashUtil.encode(getId(index));
+    }
+
+    /**
+     * This method is used to find an entry by a binary search.
+     * @param name - of the child
+     * @return - the index of the entry or a negative value, if the
+     *         directory has no child of this name
+     */
+    public int find(String name) {
+
+        int low = 0;
+        int high = offsets.length - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = compareName(middle, name);
+
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * This private method compares the name of an entry with a name
+     * like {@link String#compareTo(String)}, which orders the children
+     * of a directory. ASCII names are compared in the buffer, other
+     * names are decoded.
+     */
+    private int compareName(int index, String name) {
+
+        int offset = offsets[index];
+        int length = nameLength(offset);
+        int start = offset + ENTRY_HEADER_SIZE;
+
+        for (int i = 0; i < length; i++) {
+            byte b = data.get(start + i);
+            if (b < 0) {
+                return getName(index).compareTo(name);
+            }
+            if (i == name.length()) {
+                return 1;
+            }
+            if (b != name.charAt(i)) {
+                return b - name.charAt(i);
+            }
+        }
+        return length - name.length();
+    }
+
+    private int nameLength(int offset) {
+        return data.getShort(offset + Integer.BYTES) & 0xFFFF;
+    }
+}
@@ -0,0 +1,192 @@
+package de.othr.jit.entity;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class represents a commit object.
+ * <p>
+ * A commit is stored as text. It starts with header lines, followed
+ * by an empty line and the message, e.g.
+ * <pre>
+ * tree &lt;hash&gt;
+ * parent &lt;hash&gt;
+ * author codemonkey500 1589112000 +0200
+ *
+ * message
+ * </pre>
+ * The first commit has no parent, a merge has several parents.
+ * The time is stored in seconds since the epoch together with the
+ * offset of the authors time zone. The hash value of a commit is the
+ * digest of this text.
+ * @author codemonkey500
+ *
+ */
+public class Commit {
+
+    private static final DateTimeFormatter OFFSET_FORMAT = DateTimeFormatter
+            .ofPattern("xx");
+
+    private String tree;
+    private List<String> parents;
+    private String author;
+    private long time;
+    private ZoneOffset offset;
+    private String message;
+
+    /**
+     * @param tree - hash value of the root directory
+     * @param parents - hash values of the parent commits
+     * @param author - name of the author
+     * @param time - of the commit in seconds since the epoch
+     * @param offset - of the authors time zone
+     * @param message - from the user
+     */
+    public Commit(String tree, List<String> parents, String author,
+            long time, ZoneOffset offset, String message) {
+        this.tree = tree;
+        this.parents = Collections.unmodifiableList(
+                new ArrayList<String>(parents));
+        this.author = author;
+        this.time = time;
+        this.offset = offset;
+        this.message = message;
+    }
+
+    /**
+     * Use this method to create a commit of the current time.
+     * @param tree - hash value of the root directory
+     * @param parents - hash values of the parent commits
+     * @param message - from the user
+     * @return - the commit
+     */
+    public static Commit now(String tree, List<String> parents,
+            String message) {
+
+        Instant now = Instant.now();
+        ZoneOffset offset = ZonedDateTime.now().getOffset();
+        return new Commit(tree, parents, AUTHOR, now.getEpochSecond(),
+                offset, message);
+    }
+
+    /**
+     * This method is used to parse the content of a commit object.
+     * @param content - of the commit object
+     * @return - the commit
+     * @throws IOException - if the commit has no tree or a header
+     *         is corrupt
+     */
+    public static Commit parse(byte[] content) throws IOException {
+
+        String text = new String(content, StandardCharsets.UTF_8);
+        int end = text.indexOf("\n\n");
+        String header = end < 0 ? text : text.substring(0, end);
+        String message = end < 0 ? "" : text.substring(end + 2);
+
+        String tree = null;
+        List<String> parents = new ArrayList<String>(1);
+        String author = "";
+        long time = 0;
+        ZoneOffset offset = ZoneOffset.UTC;
+
+        try {
+            for (String line : header.split("\n")) {
+                int blank = line.indexOf(' ');
+                String key = blank < 0 ? line : line.substring(0, blank);
+                String value = blank < 0 ? "" : line.substring(blank + 1);
+
+                switch (key) {
+                case COMMIT_TREE_KEY:
+                    tree = value;
+                    break;
+                case COMMIT_PARENT_KEY:
+                    parents.add(value);
+                    break;
+                case COMMIT_AUTHOR_KEY:
+                    //The name may contain blanks, time and offset do not
+                    int zone = value.lastIndexOf(' ');
+                    int seconds = value.lastIndexOf(' ', zone - 1);
+                    author = value.substring(0, seconds);
+                    time = Long.parseLong(value.substring(seconds + 1, zone));
+                    offset = ZoneOffset.of(value.substring(zone + 1));
+                    break;
+                default:
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt commit header", e);
+        }
+
+        if (tree == null) {
+            throw new IOException("Commit without tree");
+        }
+        return new Commit(tree, parents, author, time, offset, message);
+    }
+
+    /**
+     * Use this method to get the content of the commit object.
+     * @return - the encoded commit
+     */
+    public byte[] toBytes() {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(COMMIT_TREE_KEY).append(' ').append(tree).append('\n');
+        for (String parent : parents) {
+            sb.append(COMMIT_PARENT_KEY).append(' ').append(parent)
+                    .append('\n');
+        }
+        sb.append(COMMIT_AUTHOR_KEY).append(' ').append(author).append(' ')
+                .append(time).append(' ').append(OFFSET_FORMAT.format(offset))
+                .append("\n\n").append(message);
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String getTree() {
+        return tree;
+    }
+
+    public List<String> getParents() {
+        return parents;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public ZoneOffset getOffset() {
+        return offset;
+    }
+
+    /**
+     * Use this method to get the time of the commit in the time zone
+     * of its author.
+     * @return - the date and time
+     */
+    public ZonedDateTime getDate() {
+        return Instant.ofEpochSecond(time).atZone(offset);
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return new String(toBytes(), StandardCharsets.UTF_8);
+    }
+}
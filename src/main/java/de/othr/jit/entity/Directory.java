@@ -1,36 +1,61 @@
 package de.othr.jit.entity;
 
-import java.io.Serializable;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
 
 import de.othr.jit.utility.SecureHashUtil;
 
+import static de.othr.jit.constants.Constants.*;
+
 /**
- * This class represents a directory in the file system
+ * This class represents a directory in the file system.
+ * Two directories are equal, if they have the same path.
  * @author codemonkey500
  *
  */
-public class Directory implements JitObject, Serializable {
-    
-    private static final long serialVersionUID = 1L;
+public class Directory implements JitObject {
     
     private String hash;
+    private byte[] id;
     private String name;
-    private List<JitObject> children;
+    private Map<String, JitObject> children;
     private Directory parent;
+    private boolean dirty;
 
+    /**
+     * A new directory is marked as dirty, until it gets hashed.
+     * @param name - of the directory
+     */
     public Directory(String name) {
         this.hash = "";
-        this.children = new LinkedList<JitObject>();
+        this.id = new byte[0];
+        this.children = new TreeMap<String, JitObject>();
         this.name = name;
+        this.dirty = true;
     }
 
     @Override
     public String setHash(byte[] target) {
         
-        this.hash = SecureHashUtil.computeHash(target);
+        return updateHash(SecureHashUtil.digest(target));
+    }
+
+    /**
+     * Use this method to set the hash code of the directory to an
+     * already computed digest. The directory will not be dirty anymore.
+     * @param digest - the raw SHA-1 digest
+     * @return - the String representation of the digest
+     */
+    public String updateHash(byte[] digest) {
+        
+        this.id = digest;
+        this.hash = SecureHashUtil.encode(digest);
+        this.dirty = false;
         return hash;
     }
 
@@ -39,20 +64,78 @@ public class Directory implements JitObject, Serializable {
         return hash;
     }
 
+    @Override
+    public byte[] getId() {
+        return id;
+    }
+
+    @Override
+    public int getMode() {
+        return DIRECTORY_MODE;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Use this method to mark the directory and all its parents
+     * as dirty, e.g. after a child was added or removed.
+     * The marking stops at the first directory, which is already dirty,
+     * because its parents are dirty aswell.
+     */
+    public void markDirty() {
+        
+        Directory dir = this;
+        while (dir != null && !dir.dirty) {
+            dir.dirty = true;
+            dir = dir.parent;
+        }
+    }
+
 
+    /**
+     * Use this method to get the children sorted by name.
+     * @return - a copy of the children list
+     */
     public List<JitObject> getChildren() {
-        return children;
+        return new ArrayList<JitObject>(children.values());
     }
 
+    /**
+     * Use this method to iterate the children sorted by name
+     * without copying them.
+     * @return - an unmodifiable view of the children
+     */
+    public Collection<JitObject> getChildNodes() {
+        return Collections.unmodifiableCollection(children.values());
+    }
+
+    /**
+     * Use this method to look up a child by its name.
+     * @param name - of the child
+     * @return - the child or null, if there is no such child
+     */
+    public JitObject getChild(String name) {
+        return children.get(name);
+    }
 
     public void addChildren(List<JitObject> child) {
-        this.children.addAll(child);
+        child.forEach(this::addChild);
     }
     
+    /**
+     * Use this method to add a child. A child with the
+     * same name will be replaced.
+     * @param child - to be added
+     */
     public void addChild(JitObject child) {
-        this.children.add(child);
+        this.children.put(child.getName(), child);
     }   
     
+    public JitObject removeChild(String name) {
+        return this.children.remove(name);
+    }
 
     @Override
     public void setName(String name) {
@@ -85,6 +168,8 @@ public class Directory implements JitObject, Serializable {
     @Override
     public void resetHash() {
         this.hash = "";
+        this.id = new byte[0];
+        markDirty();
     }
 
     @Override
@@ -96,7 +181,8 @@ public class Directory implements JitObject, Serializable {
         if (getClass() != obj.getClass())
             return false;
         Directory other = (Directory) obj;
-        return Objects.equals(name, other.name);
+        return Objects.equals(name, other.name)
+                && Objects.equals(parent, other.parent);
     }
 
 
@@ -1,31 +1,38 @@
 package de.othr.jit.entity;
 
-import java.io.Serializable;
-import java.nio.file.Paths;
 import java.util.Objects;
-import de.othr.jit.utility.FileSystemUtil;
 import de.othr.jit.utility.SecureHashUtil;
 
+import static de.othr.jit.constants.Constants.*;
+
 /**
- * This class represents a File in the file system
+ * This class represents a File in the file system.
+ * Two files are equal, if they have the same path.
  * @author codemonkey500
  *
  */
-public class FileContainer implements JitObject, Serializable {
-    
-    private static final long serialVersionUID = 1L;
+public class FileContainer implements JitObject {
     
     private String path;
-    private byte[] data;
     private String hash;
+    private byte[] id;
     private String name;
+    private int mode;
+    private IndexEntry stat;
     private Directory parent;
 
-    public FileContainer(String name, String path) {
+    /**
+     * The content of the file is not held in memory. It is stored
+     * as blob in the object store, when the file is added.
+     * @param name - of the file
+     * @param path - pointing to the file
+     * @param hash - of the files content, naming its blob
+     */
+    public FileContainer(String name, String path, String hash) {
         this.path = path;
-        this.data = FileSystemUtil.convertFileToByte(Paths.get(path));
         this.name = name;
-        this.hash = SecureHashUtil.computeHash(data);
+        this.hash = hash;
+        this.mode = FILE_MODE_REGULAR;
     }
 
     public String getPath() {
@@ -36,18 +43,11 @@ public class FileContainer implements JitObject, Serializable {
         this.path = path;
     }
 
-    public byte[] getData() {
-        return data;
-    }
-
-    public void setData(byte[] data) {
-        this.data = data;
-    }
-
     @Override
     public String setHash(byte[] target) {
         
         this.hash = SecureHashUtil.computeHash(target);
+        this.id = null;
         
         return hash;       
     }
@@ -57,6 +57,37 @@ public class FileContainer implements JitObject, Serializable {
         return hash;
     }
 
+    @Override
+    public byte[] getId() {
+        
+        if (id == null) {
+            id = SecureHashUtil.decode(hash);
+        }
+        return id;
+    }
+
+    @Override
+    public int getMode() {
+        return mode;
+    }
+
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Use this method to get the stat data of the file, taken
+     * when its content was hashed.
+     * @return - the stat data or null, if it is unknown
+     */
+    public IndexEntry getStat() {
+        return stat;
+    }
+
+    public void setStat(IndexEntry stat) {
+        this.stat = stat;
+    }
+
     @Override
     public void setName(String name) {
         this.name = name;    
@@ -79,6 +110,7 @@ public class FileContainer implements JitObject, Serializable {
     @Override
     public void resetHash() {
         this.hash = "";
+        this.id = null;
     }
 
     @Override
@@ -95,7 +127,8 @@ public class FileContainer implements JitObject, Serializable {
         if (getClass() != obj.getClass())
             return false;
         FileContainer other = (FileContainer) obj;
-        return Objects.equals(name, other.name);
+        return Objects.equals(name, other.name)
+                && Objects.equals(parent, other.parent);
     }
 
     @Override
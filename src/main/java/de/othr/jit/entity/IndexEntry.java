@@ -0,0 +1,164 @@
+package de.othr.jit.entity;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class represents one file of the staging index.
+ * The path is relative to the working directory and always
+ * uses "/" as separator.
+ * @author codemonkey500
+ *
+ */
+public class IndexEntry {
+
+    private static final boolean UNIX_ATTRIBUTES = FileSystems.getDefault()
+            .supportedFileAttributeViews().contains("unix");
+
+    private String path;
+    private int mode;
+    private long size;
+    private long modified;
+    private long changed;
+    private long inode;
+    private byte[] id;
+
+    public IndexEntry(String path, int mode, long size, long modified,
+            long changed, long inode, byte[] id) {
+        this.path = path;
+        this.mode = mode;
+        this.size = size;
+        this.modified = modified;
+        this.changed = changed;
+        this.inode = inode;
+        this.id = id;
+    }
+
+    /**
+     * Use this method to create an entry with the current
+     * stat data of a file.
+     * @param path - relative path of the file
+     * @param file - pointing to the file
+     * @param id - raw object id of the files content, may be null
+     *            if only the stat data is needed
+     * @return - the entry
+     * @throws IOException - if the file can not be accessed
+     */
+    public static IndexEntry fromFile(String path, Path file, byte[] id)
+            throws IOException {
+
+        BasicFileAttributes attrs = Files.readAttributes(file,
+                BasicFileAttributes.class);
+        int mode = Files.isExecutable(file) ? FILE_MODE_EXECUTABLE
+                : FILE_MODE_REGULAR;
+
+        //ctime and inode are only available on unix like systems
+        long changed = 0;
+        long inode = 0;
+        if (UNIX_ATTRIBUTES) {
+            Map<String, Object> unix = Files.readAttributes(file,
+                    "unix:ctime,ino");
+            changed = ((FileTime) unix.get("ctime")).toMillis();
+            inode = ((Number) unix.get("ino")).longValue();
+        }
+
+        return new IndexEntry(path, mode, attrs.size(),
+                attrs.lastModifiedTime().toMillis(), changed, inode, id);
+    }
+
+    /**
+     * Use this method to compare the stat data of two entries.
+     * If the stat data matches, the content of the file is
+     * considered unchanged and does not have to be hashed again.
+     * A smudged entry never matches.
+     * @param current - entry with the current stat data of the file
+     * @return - true, if size, mode and all time stamps are equal
+     */
+    public boolean hasSameStat(IndexEntry current) {
+
+        return size != SMUDGED_SIZE && size == current.size
+                && mode == current.mode && modified == current.modified
+                && changed == current.changed && inode == current.inode;
+    }
+
+    /**
+     * This method is used to smudge an entry, whose file was
+     * modified within the time stamp granularity of now.
+     * A later change of the file in the same time slot would not
+     * change the stat data, so the entry has to be hashed again
+     * on the next check (racy clean entry).
+     * @param now - the current time in milliseconds
+     */
+    public void smudgeIfRacy(long now) {
+
+        if (modified >= now - RACY_GRANULARITY_MILLIS) {
+            this.size = SMUDGED_SIZE;
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public long getChanged() {
+        return changed;
+    }
+
+    public long getInode() {
+        return inode;
+    }
+
+    public byte[] getId() {
+        return id;
+    }
+
+    public void setId(byte[] id) {
+        this.id = id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        IndexEntry other = (IndexEntry) obj;
+        return Objects.equals(path, other.path) && mode == other.mode
+                && size == other.size && modified == other.modified
+                && changed == other.changed && inode == other.inode
+                && Arrays.equals(id, other.id);
+    }
+
+    @Override
+    public String toString() {
+        return "IndexEntry " + path;
+    }
+}
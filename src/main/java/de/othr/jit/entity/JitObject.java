@@ -1,13 +1,11 @@
 package de.othr.jit.entity;
 
-import java.io.Serializable;
-
 /**
  * This interface describes a JitObject. 
  * @author codemonkey500
  *
  */
-public interface JitObject extends Serializable {
+public interface JitObject {
 
     /**
      * Use this method to generate a SHA-1 secure hash code.
@@ -26,6 +24,20 @@ public interface JitObject extends Serializable {
      */
     public String getHash();
     
+    /**
+     * Use this method to get the raw digest bytes of the objects
+     * hash code.
+     * @return the 20 bytes of the SHA-1 hash code
+     */
+    public byte[] getId();
+    
+    /**
+     * Use this method to get the mode of the JitObject,
+     * e.g. a regular file or a directory.
+     * @return the mode as used in the staging index
+     */
+    public int getMode();
+    
     /**
      * Use this method to set the name of the JitObject
      * @param name of the JitObject
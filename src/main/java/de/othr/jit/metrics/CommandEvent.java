@@ -0,0 +1,27 @@
+package de.othr.jit.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This class represents a jit command in a flight recording.
+ * The duration of the event is the duration of the command,
+ * its counters are stored as JSON.
+ * @author codemonkey500
+ *
+ */
+@Name("de.othr.jit.Command")
+@Label("Jit Command")
+@Category("Jit")
+@Description("A jit command with its counters")
+class CommandEvent extends Event {
+
+    @Label("Command")
+    String command;
+
+    @Label("Counters")
+    String counters;
+}
@@ -0,0 +1,238 @@
+package de.othr.jit.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class records the metrics of the running jit command.
+ * <p>
+ * A command consists of phases, e.g. walking the directory or writing
+ * the staging index. The duration of every phase and counters, e.g. of
+ * the hashed bytes, are summed up while the command runs. Phases and
+ * counters may be recorded by many threads at once.
+ * Every phase and command is also committed as event of the Java
+ * Flight Recorder, if a recording is running.
+ * <p>
+ * Only one command is recorded at a time. Metrics recorded outside
+ * of a command are collected in an unnamed record.
+ * @author codemonkey500
+ *
+ */
+public final class Metrics {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(Metrics.class.getName());
+
+    private static volatile Metrics current = new Metrics("");
+
+    private final String command;
+    private final long startMillis;
+    private final long startNanos;
+    private final Map<String, LongAdder> durations;
+    private final Map<String, LongAdder> counters;
+    private final CommandEvent event;
+    private long elapsedNanos;
+
+    private Metrics(String command) {
+        this.command = command;
+        this.startMillis = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+        this.durations = new ConcurrentHashMap<String, LongAdder>();
+        this.counters = new ConcurrentHashMap<String, LongAdder>();
+        this.event = new CommandEvent();
+        this.event.begin();
+    }
+
+    /**
+     * This method starts to record a new command.
+     * @param command - name of the command, e.g. "add"
+     * @return - the new record
+     */
+    public static Metrics start(String command) {
+
+        current = new Metrics(command);
+        return current;
+    }
+
+    /**
+     * Use this method to get the record of the running command.
+     * @return - the record
+     */
+    public static Metrics current() {
+        return current;
+    }
+
+    /**
+     * This method starts a phase of the running command. The phase
+     * ends, when it is closed.
+     * @param name - of the phase, e.g. "staging.save"
+     * @return - the phase, to be used in a try-with-resources block
+     */
+    public static Phase phase(String name) {
+
+        return new Phase(current, name);
+    }
+
+    /**
+     * This method adds a value to a counter of the running command.
+     * @param name - of the counter, e.g. "add.bytes.hashed"
+     * @param delta - to be added
+     */
+    public static void count(String name, long delta) {
+
+        current.counters.computeIfAbsent(name, k -> new LongAdder())
+                .add(delta);
+    }
+
+    /**
+     * This method ends the record of the command.
+     * @return - this record
+     */
+    public Metrics finish() {
+
+        elapsedNanos = System.nanoTime() - startNanos;
+
+        if (event.shouldCommit()) {
+            event.command = command;
+            event.counters = toJson(getCounters());
+            event.commit();
+        }
+        return this;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Use this method to get the summed durations of the phases.
+     * @return - the durations in nanoseconds sorted by phase
+     */
+    public Map<String, Long> getDurations() {
+        return snapshot(durations);
+    }
+
+    /**
+     * Use this method to get the counters.
+     * @return - the values sorted by counter
+     */
+    public Map<String, Long> getCounters() {
+        return snapshot(counters);
+    }
+
+    /**
+     * This method prints the record on console.
+     */
+    public void print() {
+
+        LOGGER.info(String.format("%s took %.2f ms", command,
+                elapsedNanos / 1e6));
+        getDurations().forEach((phase, nanos) -> LOGGER.info(String.format(
+                "  %-24s %10.2f ms", phase, nanos / 1e6)));
+        getCounters().forEach((counter, value) -> LOGGER.info(String.format(
+                "  %-24s %10d", counter, value)));
+    }
+
+    /**
+     * This method appends the record as one line of JSON to a trace
+     * file, e.g. {"command":"add","start":1589...,"nanos":123,
+     * "phases":{...},"counters":{...}}.
+     * @param file - the trace file, it is created if necessary
+     */
+    public void appendTo(Path file) {
+
+        String line = "{\"command\":" + quote(command)
+                + ",\"start\":" + startMillis
+                + ",\"nanos\":" + elapsedNanos
+                + ",\"phases\":" + toJson(getDurations())
+                + ",\"counters\":" + toJson(getCounters()) + "}\n";
+
+        try {
+            Files.write(file, line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not write trace " + file, e);
+        }
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> values) {
+
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        values.forEach((name, value) -> snapshot.put(name, value.sum()));
+        return snapshot;
+    }
+
+    private static String toJson(Map<String, Long> values) {
+
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            sb.append(quote(value.getKey())).append(':')
+                    .append(value.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String quote(String value) {
+
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * This class measures one phase of a command.
+     */
+    public static final class Phase implements AutoCloseable {
+
+        private final Metrics metrics;
+        private final String name;
+        private final long start;
+        private final PhaseEvent event;
+
+        private Phase(Metrics metrics, String name) {
+            this.metrics = metrics;
+            this.name = name;
+            this.event = new PhaseEvent();
+            this.event.begin();
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+
+            long nanos = System.nanoTime() - start;
+            metrics.durations.computeIfAbsent(name, k -> new LongAdder())
+                    .add(nanos);
+
+            if (event.shouldCommit()) {
+                event.command = metrics.command;
+                event.phase = name;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package de.othr.jit.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This class represents a phase of a jit command in a flight
+ * recording. The duration of the event is the duration of the phase.
+ * @author codemonkey500
+ *
+ */
+@Name("de.othr.jit.Phase")
+@Label("Jit Phase")
+@Category("Jit")
+@Description("A phase of a jit command, e.g. hashing the files")
+class PhaseEvent extends Event {
+
+    @Label("Command")
+    String command;
+
+    @Label("Phase")
+    String phase;
+}
@@ -0,0 +1,274 @@
+package de.othr.jit.service;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.entity.IndexEntry;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.utility.FileSystemUtil;
+import de.othr.jit.utility.SecureHashUtil;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class is used for the add command.
+ * Directories are walked once by a fork-join pool, so the files
+ * are hashed and stored concurrently.
+ * @author codemonkey500
+ *
+ */
+public class AddService {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(AddService.class.getName());
+
+    //Number of files hashed by one task before the list is split
+    private static final int FILE_BATCH_SIZE = 32;
+
+    private StagingIndex index;
+    private ObjectStore objectStore;
+    private int parallelism;
+
+    private LongAdder filesWalked;
+    private LongAdder filesHashed;
+    private LongAdder bytesHashed;
+
+    public AddService() {
+        this(new StagingIndex(), new ObjectStore(), PARALLELISM);
+    }
+
+    public AddService(StagingIndex index, ObjectStore objectStore,
+            int parallelism) {
+        this.index = index;
+        this.objectStore = objectStore;
+        this.parallelism = parallelism;
+        this.filesWalked = new LongAdder();
+        this.filesHashed = new LongAdder();
+        this.bytesHashed = new LongAdder();
+    }
+
+    /**
+     * This method is used to add a single file to the staging area.
+     * An already staged file is only added again, if it was changed.
+     * @param file - pointing to the file
+     * @return - the staged entry or null, if the file was not changed
+     *         or could not be added
+     */
+    public IndexEntry addFile(Path file) {
+
+        String relativePath = FileSystemUtil.toRelativePath(file.toString());
+        IndexEntry staged = index.get(relativePath);
+        IndexEntry entry = null;
+
+        try {
+            entry = stageFile(file, relativePath);
+
+            if (entry != null) {
+                index.put(entry);
+            }
+            recordCounters();
+
+            if (staged != null && (entry == null
+                    || Arrays.equals(staged.getId(), entry.getId()))) {
+                LOGGER.info(file.getFileName().toString()
+                        + " is already up to date in staging area!");
+            } else {
+                LOGGER.info(file.getFileName().toString()
+                        + " was added to staging area!");
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not add " + file, e);
+        }
+        return entry;
+    }
+
+    /**
+     * This method is used to add all files of a directory and its
+     * sub directories to the staging area.
+     * The directory is walked in parallel and the staging index
+     * is written only once at the end.
+     * @param directory - pointing to the directory
+     * @return - the staged entries of the changed files
+     */
+    @SuppressWarnings("try")
+    public List<IndexEntry> addDirectory(Path directory) {
+
+        long start = System.nanoTime();
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        List<IndexEntry> entries;
+        try (Metrics.Phase phase = Metrics.phase("add.walk")) {
+            entries = pool.invoke(new DirectoryTask(directory));
+        } finally {
+            pool.shutdown();
+        }
+
+        index.putAll(entries);
+
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        double megabytes = bytesHashed.sum() / (1024.0 * 1024.0);
+        LOGGER.info(String.format(
+                "Added %d files (%d hashed, %.1f MB) in %.2f s: "
+                        + "%.0f files/s, %.1f MB/s",
+                filesWalked.sum(), filesHashed.sum(), megabytes, seconds,
+                filesWalked.sum() / seconds, megabytes / seconds));
+        recordCounters();
+        return entries;
+    }
+
+    /**
+     * This private method adds the counters of this service to the
+     * metrics of the running command.
+     */
+    private void recordCounters() {
+
+        Metrics.count("add.files.walked", filesWalked.sumThenReset());
+        Metrics.count("add.files.hashed", filesHashed.sumThenReset());
+        Metrics.count("add.bytes.hashed", bytesHashed.sumThenReset());
+    }
+
+    /**
+     * This private method compares a file with the staging index.
+     * The file is hashed only, if its stat data changed. Its content
+     * is stored as blob, if it is not known yet.
+     * @return - the entry to be stored in the index or null, if the
+     *         staged entry is up to date
+     */
+    private IndexEntry stageFile(Path file, String relativePath)
+            throws IOException {
+
+        filesWalked.increment();
+
+        IndexEntry current = IndexEntry.fromFile(relativePath, file, null);
+        IndexEntry staged = index.get(relativePath);
+
+        if (staged != null && staged.hasSameStat(current)) {
+            return null;
+        }
+
+        filesHashed.increment();
+        bytesHashed.add(current.getSize());
+
+        //Only the stat data has to be refreshed for unchanged content
+        if (staged != null && !StatusService.isModified(staged, current)) {
+            return current;
+        }
+
+        //A file changed since it was hashed gets the id of its blob
+        String hash = objectStore.writeBlob(file, current.getId() == null
+                ? null : SecureHashUtil.encode(current.getId()));
+        current.setId(SecureHashUtil.decode(hash));
+
+        return current;
+    }
+
+    /**
+     * This class walks one directory. Every sub directory is handled
+     * by its own task, the files are hashed in batches.
+     */
+    private class DirectoryTask extends RecursiveTask<List<IndexEntry>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        DirectoryTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected List<IndexEntry> compute() {
+
+            List<RecursiveTask<List<IndexEntry>>> tasks =
+                    new LinkedList<RecursiveTask<List<IndexEntry>>>();
+            List<Path> files = new ArrayList<Path>();
+
+            try (DirectoryStream<Path> stream = Files
+                    .newDirectoryStream(directory)) {
+                for (Path child : stream) {
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        if (!child.getFileName().toString()
+                                .equals(JIT_FOLDER_NAME)) {
+                            tasks.add(new DirectoryTask(child));
+                        }
+                    } else if (Files.isRegularFile(child)) {
+                        files.add(child);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not read " + directory, e);
+            }
+
+            if (!files.isEmpty()) {
+                tasks.add(new FileTask(files));
+            }
+
+            List<IndexEntry> entries = new ArrayList<IndexEntry>();
+            for (RecursiveTask<List<IndexEntry>> task : invokeAll(tasks)) {
+                entries.addAll(task.join());
+            }
+
+            return entries;
+        }
+    }
+
+    /**
+     * This class hashes a list of files. Large lists are split,
+     * so a flat directory is hashed in parallel as well.
+     */
+    private class FileTask extends RecursiveTask<List<IndexEntry>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+
+        FileTask(List<Path> files) {
+            this.files = files;
+        }
+
+        @Override
+        protected List<IndexEntry> compute() {
+
+            if (files.size() > FILE_BATCH_SIZE) {
+                int middle = files.size() / 2;
+                FileTask left = new FileTask(files.subList(0, middle));
+                FileTask right = new FileTask(
+                        files.subList(middle, files.size()));
+                invokeAll(left, right);
+
+                List<IndexEntry> entries = new ArrayList<IndexEntry>(
+                        left.join());
+                entries.addAll(right.join());
+                return entries;
+            }
+
+            List<IndexEntry> entries = new ArrayList<IndexEntry>();
+            for (Path file : files) {
+                try {
+                    IndexEntry entry = stageFile(file,
+                            FileSystemUtil.toRelativePath(file.toString()));
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Could not add " + file, e);
+                }
+            }
+
+            return entries;
+        }
+    }
+}
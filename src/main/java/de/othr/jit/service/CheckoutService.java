@@ -1,149 +1,786 @@
 package de.othr.jit.service;
 
-import java.io.File;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import de.othr.jit.datastructure.MerkleTree;
+import de.othr.jit.datastructure.SparsePatterns;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.datastructure.TreeObject;
+import de.othr.jit.entity.Commit;
+import de.othr.jit.entity.Directory;
+import de.othr.jit.entity.FileContainer;
+import de.othr.jit.entity.IndexEntry;
+import de.othr.jit.entity.JitObject;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.storage.ObjectStream;
+import de.othr.jit.storage.RefStore;
 import de.othr.jit.utility.FileSystemUtil;
+import de.othr.jit.utility.SecureHashUtil;
 import static de.othr.jit.constants.Constants.*;
 
 /**
  * This class is used for the checkout command.
+ * The commit is compared with the tree of the staging index. Equal
+ * hash values mean equal content, so unchanged sub directories are
+ * skipped and only files, which differ, are written or deleted.
+ * <p>
+ * The commit points to the tree object of the root directory. Every
+ * tree object is read once, while the changes of the working directory
+ * are collected. Before anything is changed, the staged files to be
+ * overwritten or deleted are compared with the working directory, a
+ * file with local changes stops the checkout. Afterwards the old files
+ * are deleted, the directories are created and the files are written
+ * by a bounded pool of threads.
+ * <p>
+ * Staged changes are handled like a two-way merge of git: a staged
+ * file, which differs from HEAD, is carried over, if the commit has
+ * the same version as HEAD, e.g. a new file, which was never
+ * committed. Otherwise the checkout is refused, so staged changes are
+ * never lost.
+ * <p>
+ * The checkout can be limited by path prefixes. A partial checkout
+ * ({@code checkout <hash> -- <path>...}) updates only the given paths
+ * and leaves all other files and index entries untouched.
+ * A sparse checkout uses the persisted {@link SparsePatterns}. Files
+ * outside the patterns are staged with the id of the commit, so later
+ * commits stay complete, but their blobs are not read or written.
+ * Sub directories outside the patterns are not created.
  * @author codemonkey500
  *
  */
 public class CheckoutService {
-    
+
     private static final Logger LOGGER = Logger
             .getLogger(CheckoutService.class.getName());
 
+    private ObjectStore objectStore;
+
+    //Staged files after the checkout, keyed by their relative path
+    private Map<String, IndexEntry> entries;
+    //Files to be written, keyed by their relative path
+    private Map<String, String> pendingWrites;
+    //Files and directories to be deleted, children first
+    private List<String> pendingDeletes;
+    //Directories to be created, parents first
+    private List<String> pendingDirectories;
+    //Tree objects of HEAD, keyed by the relative path of the directory
+    private Map<String, TreeObject> headTrees;
+    private SparsePatterns patterns;
+    //True, if files outside the patterns must not be touched at all
+    private boolean partial;
+    private int written;
+    private int deleted;
+    private int skipped;
+    private long bytesWritten;
+
+    public CheckoutService() {
+        this(new ObjectStore());
+    }
+
+    public CheckoutService(ObjectStore objectStore) {
+        this.objectStore = objectStore;
+    }
+
     /**
      * This method is used to checkout a commit.
-     * The current workspace will be deleted and the files from
-     * checkout will be created.
+     * The working directory is updated to the commit and the staging
+     * index is replaced by the files of the commit.
+     * Files, which are not staged, are not touched. If sparse checkout
+     * is enabled, only files of the sparse patterns are written.
      * @param hash - value of a commit
+     * @return - false, if the hash value is not a commit
      */
-    public void checkoutFiles(String hash) {
-        
+    public boolean checkoutFiles(String hash) {
 
-        //Checking if right file was selected
-        if (FileSystemUtil.getFileNamesInDir(PATH_OBJECTS_FOLDER)
-                .contains(hash)) {
-
-            if(getHeader(hash).equals(COMMIT_HEADER_VALUE)) {
-                
-                //Delete working directory
-                FileSystemUtil.deleteAllContentFromWorkingDirectory();
-                
-                List<String> body = getFileBody(hash);
-                
-                for (String line : body) {
-                    List<String> bodyLine = splitBodyLine(line);
-                    createWorkspace(bodyLine.get(0),
-                            bodyLine.get(1), bodyLine.get(2), USER_DIR);
+        return checkoutFiles(hash, SparsePatterns.load(), false);
+    }
+
+    /**
+     * This method is used to checkout some paths of a commit.
+     * Only files below the paths are updated in the working directory
+     * and in the staging index, all other files are not touched.
+     * @param hash - value of a commit
+     * @param paths - files or directories, e.g. "src/main"
+     * @return - false, if the hash value is not a commit
+     */
+    public boolean checkoutFiles(String hash, List<String> paths) {
+
+        List<String> relative = new ArrayList<String>(paths.size());
+        for (String path : paths) {
+            relative.add(FileSystemUtil.toRelativePath(path));
+        }
+
+        return checkoutFiles(hash, new SparsePatterns(relative), true);
+    }
+
+    /**
+     * This method is used to change the sparse checkout patterns.
+     * The patterns are stored and applied to the working directory
+     * right away: staged files, which are included now and missing,
+     * are restored, unchanged files, which are excluded now, are
+     * deleted. An empty list disables sparse checkout.
+     * @param paths - files or directories to be checked out
+     */
+    public void applySparsePatterns(List<String> paths) {
+
+        List<String> relative = new ArrayList<String>(paths.size());
+        for (String path : paths) {
+            relative.add(FileSystemUtil.toRelativePath(path));
+        }
+
+        patterns = new SparsePatterns(relative);
+        patterns.save(Paths.get(PATH_SPARSE_FILE));
+
+        StagingIndex index = new StagingIndex();
+        entries = new TreeMap<String, IndexEntry>();
+        pendingWrites = new TreeMap<String, String>();
+        pendingDeletes = new ArrayList<String>();
+        pendingDirectories = new ArrayList<String>();
+
+        for (IndexEntry staged : index.entries()) {
+
+            entries.put(staged.getPath(), staged);
+            Path file = Paths.get(
+                    FileSystemUtil.toAbsolutePath(staged.getPath()));
+
+            if (patterns.includes(staged.getPath())) {
+                if (!Files.isRegularFile(file)) {
+                    try {
+                        Files.createDirectories(file.getParent());
+                        pendingWrites.put(staged.getPath(),
+                                SecureHashUtil.encode(staged.getId()));
+                    } catch (IOException e) {
+                        LOGGER.log(Level.SEVERE,
+                                "Could not create " + file.getParent(), e);
+                    }
                 }
-                
-                LOGGER.info("Checkout successful!");
+            } else if (Files.isRegularFile(file)) {
+                removeExcluded(staged, file);
             }
-            else {
-                LOGGER.log(Level.SEVERE,
-                        "Wrong hash value selected! Pls select a commit!");
+        }
+
+        try {
+            writeFiles();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Sparse checkout failed, the staging "
+                    + "index is not changed", e);
+            recordCounters();
+            return;
+        }
+        StagingIndex.write(Paths.get(PATH_STAGING_FILE), entries.values());
+        recordCounters();
+
+        LOGGER.info("Sparse checkout " + (patterns.isEmpty() ? "disabled! "
+                : "updated! ") + written + " files written, "
+                + deleted + " deleted");
+    }
+
+    /**
+     * This private method deletes a file, which is excluded by the
+     * sparse patterns. A file with changes is kept.
+     */
+    private void removeExcluded(IndexEntry staged, Path file) {
+
+        try {
+            IndexEntry current = IndexEntry.fromFile(staged.getPath(),
+                    file, null);
+
+            if (StatusService.isModified(staged, current)) {
+                LOGGER.warning("Changes of " + staged.getPath()
+                        + " are kept in the working directory");
+                return;
             }
-            
-        } else {
+
+            Files.delete(file);
+            deleted++;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not delete " + staged.getPath(),
+                    e);
+        }
+    }
+
+    /**
+     * This private method updates the working directory to a commit.
+     * @param patterns - limiting the files to be written
+     * @param partial - true, if files outside the patterns are not
+     *        updated in the staging index either
+     * @return - false, if the hash value is not a commit, files
+     *         with local changes would be overwritten or the checkout
+     *         failed. The staging index is only written on success.
+     */
+    @SuppressWarnings("try")
+    private boolean checkoutFiles(String hash, SparsePatterns patterns,
+            boolean partial) {
+
+        this.patterns = patterns;
+        this.partial = partial;
+
+
+        //Checking if right file was selected
+        if (!objectStore.contains(hash)) {
             LOGGER.log(Level.SEVERE, "Hash value does not exists.");
-        }           
+            return false;
+        }
+
+        Commit commit = readCommit(hash);
+        if (commit == null) {
+            return false;
+        }
+
+        StagingIndex index = new StagingIndex();
+        entries = new TreeMap<String, IndexEntry>();
+        for (IndexEntry entry : index.entries()) {
+            entries.put(entry.getPath(), entry);
+        }
+        Map<String, IndexEntry> staged = new TreeMap<String, IndexEntry>(
+                entries);
+        pendingWrites = new TreeMap<String, String>();
+        pendingDeletes = new ArrayList<String>();
+        pendingDirectories = new ArrayList<String>();
+
+        try (Metrics.Phase phase = Metrics.phase("checkout.diff")) {
+            MerkleTree current = MerkleTree.fromIndex(entries.values());
+            checkoutDirectory(commit.getTree(), current.getRoot(), "");
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read commit " + hash
+                    + ", nothing was checked out", e);
+            return false;
+        }
+
+        if (!partial) {
+            try {
+                List<String> conflicts = keepStagedChanges(staged);
+                if (!conflicts.isEmpty()) {
+                    conflicts.forEach(path -> LOGGER.severe("Staged "
+                            + "changes of " + path
+                            + " would be lost by checkout!"));
+                    LOGGER.severe("Please commit or restore the files "
+                            + "first, nothing was checked out");
+                    return false;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not read HEAD, nothing "
+                        + "was checked out", e);
+                return false;
+            }
+        }
+
+        List<String> changed = findLocalChanges(staged);
+        if (!changed.isEmpty()) {
+            changed.forEach(path -> LOGGER.severe("Local changes of " + path
+                    + " would be overwritten by checkout!"));
+            LOGGER.severe("Please add or restore the files first, "
+                    + "nothing was checked out");
+            return false;
+        }
+
+        try {
+            deleteFiles();
+            createDirectories();
+            writeFiles();
+        } catch (IOException e) {
+            //The index still describes the files before the checkout
+            LOGGER.log(Level.SEVERE, "Checkout of " + hash + " failed, the "
+                    + "working directory is updated partly. The staging "
+                    + "index is not changed.", e);
+            recordCounters();
+            return false;
+        }
+
+        boolean indexWritten = StagingIndex.write(
+                Paths.get(PATH_STAGING_FILE), entries.values());
+        recordCounters();
+        if (!indexWritten) {
+            return false;
+        }
+
+        LOGGER.info("Checkout successful! " + written + " files written, "
+                + deleted + " deleted, " + skipped
+                + " unchanged directories skipped");
+        return true;
+    }
+
+    public int getWritten() {
+        return written;
+    }
+
+    public int getDeleted() {
+        return deleted;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * This private method is used to update a directory of the
+     * working directory recursively. A directory with the same hash
+     * value as the current one is skipped completely, its tree object
+     * is not even read.
+     * Nothing is changed yet, the files and directories are collected
+     * for {@link #deleteFiles()}, {@link #createDirectories()} and
+     * {@link #writeFiles()}.
+     * @param hash - of the directory in the commit
+     * @param current - directory of the staged tree or null
+     * @param path - relative path of the directory
+     * @throws IOException - if a tree object can not be read
+     */
+    private void checkoutDirectory(String hash, Directory current,
+            String path) throws IOException {
+
+        if (current != null && hash.equals(current.getHash())) {
+            skipped++;
+            return;
+        }
+
+        TreeObject tree;
+        try {
+            tree = readTree(hash);
+        } catch (IOException e) {
+            throw new IOException("Could not read directory " + path, e);
+        }
+
+        if (patterns.leadsTo(path)) {
+            pendingDirectories.add(path);
+        }
+
+        //Delete staged files, which are not part of the commit
+        if (current != null) {
+            for (JitObject child : current.getChildren()) {
+                String childPath = join(path, child.getName());
+                if (tree.find(child.getName()) < 0
+                        && (!partial || patterns.leadsTo(childPath))) {
+                    delete(child, childPath);
+                }
+            }
+        }
+
+        for (int i = 0; i < tree.size(); i++) {
+
+            String name = tree.getName(i);
+            String childPath = join(path, name);
+
+            //A partial checkout does not read other sub trees at all
+            if (partial && !patterns.leadsTo(childPath)) {
+                continue;
+            }
+
+            String childHash = tree.getHash(i);
+            JitObject existing = current == null ? null
+                    : current.getChild(name);
+
+            if (tree.isDirectory(i)) {
+
+                if (existing instanceof FileContainer) {
+                    delete(existing, childPath);
+                    existing = null;
+                }
+                checkoutDirectory(childHash, (Directory) existing,
+                        childPath);
+
+            } else {
+
+                if (existing instanceof Directory) {
+                    delete(existing, childPath);
+                    existing = null;
+                }
+                if (existing != null && childHash.equals(existing.getHash())) {
+                    continue;
+                }
+                if (patterns.includes(childPath)) {
+                    pendingWrites.put(childPath, childHash);
+                } else {
+                    stageExcluded(childHash, tree.getMode(i), childPath);
+                }
+            }
+        }
+    }
+
+    /**
+     * This private method stages a file outside the sparse patterns
+     * without reading its blob. The stat data is smudged, so the file
+     * is hashed again, once it is checked out. An outdated staged file
+     * in the working directory will be deleted.
+     */
+    private void stageExcluded(String hash, int mode, String path) {
+
+        IndexEntry previous = entries.put(path, new IndexEntry(path,
+                mode, SMUDGED_SIZE, 0, 0, 0,
+                SecureHashUtil.decode(hash)));
+
+        if (previous != null) {
+            pendingDeletes.add(path);
+        }
+    }
+
+    /**
+     * This private method compares the staged files to be overwritten
+     * or deleted with HEAD. A file, which is staged as in HEAD, is
+     * checked out as usual. A file with staged changes is kept staged
+     * and untouched, if the commit has the same version as HEAD,
+     * otherwise its staged changes would be lost.
+     * @param staged - the staging index before the checkout
+     * @return - the relative paths of the conflicting files
+     * @throws IOException - if a tree object of HEAD can not be read
+     */
+    private List<String> keepStagedChanges(Map<String, IndexEntry> staged)
+            throws IOException {
+
+        Set<String> paths = new TreeSet<String>(pendingWrites.keySet());
+        for (String path : pendingDeletes) {
+            if (staged.containsKey(path)) {
+                paths.add(path);
+            }
+        }
+
+        TreeSet<String> targets = new TreeSet<String>(entries.keySet());
+        targets.addAll(pendingWrites.keySet());
+        headTrees = new HashMap<String, TreeObject>();
+        List<String> conflicts = new ArrayList<String>();
+
+        for (String path : paths) {
+
+            IndexEntry entry = staged.get(path);
+            String indexHash = entry == null ? null
+                    : SecureHashUtil.encode(entry.getId());
+            String head = headHash(path);
+            if (Objects.equals(indexHash, head)) {
+                continue;
+            }
+
+            String target = pendingWrites.get(path);
+            IndexEntry excluded = entries.get(path);
+            if (target == null && excluded != null) {
+                target = SecureHashUtil.encode(excluded.getId());
+            }
+
+            if (!Objects.equals(head, target)
+                    || replacedByDirectory(targets, path)) {
+                conflicts.add(path);
+                continue;
+            }
+
+            //Carrying the staged file over
+            pendingWrites.remove(path);
+            if (pendingDeletes.remove(path) && excluded == null) {
+                deleted--;
+            }
+            if (entry != null) {
+                entries.put(path, entry);
+            }
+        }
+        return conflicts;
     }
-    
+
     /**
-     * This private method is used to
-     * create the worspace recursively.
-     * @param type - of the JitObject
-     * @param hash - hash of the JitObject
-     * @param name - name of the JitObject
-     * @param path - path of the JitObject
+     * This private method checks, if a path or one of its parents
+     * becomes the other kind of object by the checkout, so a kept
+     * file would collide with the files of the commit.
+     * @param targets - the relative paths of the files after checkout
      */
-    private void createWorkspace(String type, String hash, String name,
+    private boolean replacedByDirectory(TreeSet<String> targets,
             String path) {
-        
-        if(type.equals(DIRECTORY_HEADER_VALUE)) {
-            
-            path = path.concat("/").concat(name);
-            File dir = new File(path);
-            dir.mkdir();
-            
-            List<String> body = getFileBody(hash);
-            
-            for (String line : body) {
-                List<String> split = splitBodyLine(line);
-                createWorkspace(split.get(0), split.get(1), split.get(2), path);
-            }
-            
-            
-        } else if(type.equals(FILE_HEADER_VALUE)){
-            
-            String fileData = FileSystemUtil
-                    .readFile(PATH_OBJECTS_FOLDER.concat("/")
-                            .concat(hash).concat(".txt"));
-            
-            FileSystemUtil.writeToFile(path.concat("/").concat(name), fileData);
-        }
-    }
-
-    
-    /**
-     * This private method is used to get the body of
-     * file in the objects dir. 
-     * @param hash - name of the file represented as hash
-     * @return - the body without the header
-     */
-    private List<String> getFileBody(String hash) {
-        
-        String content = FileSystemUtil
-                .readFile(PATH_OBJECTS_FOLDER + "/" + hash + ".txt");
-        
-        List<String> contentList = Arrays
-                .asList(content.split(System.getProperty("line.separator")));
-        
-        ListIterator<String> iterator =  contentList.listIterator(1);
-        List<String> body = new LinkedList<>();
-        
-        while (iterator.hasNext()) {
-            body.add(iterator.next().toString());
-        }
-  
-        return body;
-    }
-    
-    /**
-     * This private method is used to get the header of
-     * a file in the objects dir.
-     * @param hash - name of the file represented as hash.
-     * @return - the header key word -> e.g Directory, Commit
-     */
-    private String getHeader(String hash) {
-        
-        
-        String content = FileSystemUtil
-                .readFile(PATH_OBJECTS_FOLDER + "/" + hash + ".txt");
-        
-        List<String> contentList = Arrays
-                .asList(content.split(System.getProperty("line.separator")));
-        
-        return Arrays.asList(contentList.get(0).split(" ")).get(0);
-    }
-    
-    private List<String> splitBodyLine(String bodyLine) {
-        
-        List<String> split = new LinkedList<>();
-            
-            split = Arrays.asList(bodyLine.split(" "));
-
-        return split;
+
+        String prefix = path + "/";
+        String next = targets.ceiling(prefix);
+        if (next != null && next.startsWith(prefix)) {
+            return true;
+        }
+        for (int i = path.indexOf('/'); i >= 0;
+                i = path.indexOf('/', i + 1)) {
+            if (targets.contains(path.substring(0, i))) {
+                return true;
+            }
+        }
+        return false;
     }
 
+    /**
+     * This private method looks up a file in the commit of HEAD.
+     * @param path - relative path of the file
+     * @return - the hash value of the file or null, if HEAD does not
+     *         contain the file
+     * @throws IOException - if a tree object can not be read
+     */
+    private String headHash(String path) throws IOException {
+
+        int slash = path.lastIndexOf('/');
+        TreeObject tree = headDirectory(slash < 0 ? ""
+                : path.substring(0, slash));
+        if (tree == null) {
+            return null;
+        }
+
+        int i = tree.find(path.substring(slash + 1));
+        return i < 0 || tree.isDirectory(i) ? null : tree.getHash(i);
+    }
+
+    /**
+     * This private method reads a directory of HEAD once.
+     * @param path - relative path of the directory, "" for the root
+     * @return - the tree object or null, if HEAD has no such directory
+     * @throws IOException - if a tree object can not be read
+     */
+    private TreeObject headDirectory(String path) throws IOException {
+
+        if (headTrees.containsKey(path)) {
+            return headTrees.get(path);
+        }
+
+        TreeObject tree = null;
+        if (path.isEmpty()) {
+            String head = new RefStore().resolveHead();
+            Commit commit = head == null ? null : readCommit(head);
+            if (head != null && commit == null) {
+                throw new IOException("Could not read commit " + head);
+            }
+            tree = commit == null ? null : readTree(commit.getTree());
+        } else {
+            int slash = path.lastIndexOf('/');
+            TreeObject parent = headDirectory(slash < 0 ? ""
+                    : path.substring(0, slash));
+            int i = parent == null ? -1
+                    : parent.find(path.substring(slash + 1));
+            if (i >= 0 && parent.isDirectory(i)) {
+                tree = readTree(parent.getHash(i));
+            }
+        }
+
+        headTrees.put(path, tree);
+        return tree;
+    }
+
+    /**
+     * This private method looks for files, whose local changes would
+     * be lost by the checkout. These are staged files to be deleted or
+     * overwritten, which differ from the staging index, and files,
+     * which are not staged, but would be overwritten. A file, which
+     * already has the content of the commit, is not lost.
+     * @param staged - the staging index before the checkout
+     * @return - the relative paths of the changed files
+     */
+    private List<String> findLocalChanges(Map<String, IndexEntry> staged) {
+
+        Set<String> paths = new TreeSet<String>(pendingDeletes);
+        paths.addAll(pendingWrites.keySet());
+        List<String> changed = new ArrayList<String>();
+
+        for (String path : paths) {
+            Path file = Paths.get(FileSystemUtil.toAbsolutePath(path));
+            if (!Files.isRegularFile(file)) {
+                continue;
+            }
+
+            try {
+                IndexEntry entry = staged.get(path);
+                IndexEntry current = IndexEntry.fromFile(path, file, null);
+                if (entry != null
+                        && !StatusService.isModified(entry, current)) {
+                    continue;
+                }
+                if (entry == null) {
+                    current.setId(SecureHashUtil.digest(file));
+                }
+
+                String target = pendingWrites.get(path);
+                if (target == null || !target.equals(
+                        SecureHashUtil.encode(current.getId()))) {
+                    changed.add(path);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not read " + path, e);
+                changed.add(path);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * This private method deletes the collected files and directories.
+     * A directory is deleted only, if it does not contain other files.
+     * @throws IOException - if a file can not be deleted
+     */
+    private void deleteFiles() throws IOException {
+
+        for (String path : pendingDeletes) {
+            try {
+                Files.deleteIfExists(Paths.get(
+                        FileSystemUtil.toAbsolutePath(path)));
+            } catch (DirectoryNotEmptyException e) {
+                LOGGER.info(path + " contains files, which are not staged");
+            }
+        }
+    }
+
+    /**
+     * This private method creates the collected directories.
+     * @throws IOException - if a directory can not be created
+     */
+    private void createDirectories() throws IOException {
+
+        for (String path : pendingDirectories) {
+            Files.createDirectories(Paths.get(
+                    FileSystemUtil.toAbsolutePath(path)));
+        }
+    }
+
+    /**
+     * This private method adds the counters of the checkout to the
+     * metrics of the running command.
+     */
+    private void recordCounters() {
+
+        Metrics.count("checkout.files.written", written);
+        Metrics.count("checkout.bytes.written", bytesWritten);
+        Metrics.count("checkout.files.deleted", deleted);
+        Metrics.count("checkout.trees.skipped", skipped);
+    }
+
+    /**
+     * This private method restores the collected files of the commit
+     * concurrently and stages them. The directories already exist.
+     * All files are tried, even if one of them fails.
+     * @throws IOException - if a file could not be written
+     */
+    @SuppressWarnings("try")
+    private void writeFiles() throws IOException {
+
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(IO_PARALLELISM, pendingWrites.size()));
+        List<Future<IndexEntry>> results = new ArrayList<Future<IndexEntry>>();
+        List<Throwable> failures = new ArrayList<Throwable>();
+
+        try (Metrics.Phase phase = Metrics.phase("checkout.write")) {
+            for (Map.Entry<String, String> file : pendingWrites.entrySet()) {
+                results.add(executor.submit(
+                        () -> writeFile(file.getValue(), file.getKey())));
+            }
+
+            for (Future<IndexEntry> result : results) {
+                try {
+                    IndexEntry entry = result.get();
+                    entries.put(entry.getPath(), entry);
+                    written++;
+                    bytesWritten += entry.getSize();
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Checkout was interrupted");
+        } finally {
+            executor.shutdown();
+        }
+
+        if (!failures.isEmpty()) {
+            IOException failure = new IOException(failures.size()
+                    + " files could not be written", failures.get(0));
+            failures.stream().skip(1).forEach(failure::addSuppressed);
+            throw failure;
+        }
+    }
+
+    /**
+     * This private method restores a file of the commit.
+     * @return - the index entry of the file
+     * @throws IOException - if the file could not be written
+     */
+    private IndexEntry writeFile(String hash, String path)
+            throws IOException {
+
+        Path file = Paths.get(FileSystemUtil.toAbsolutePath(path));
+
+        if (!objectStore.copyBlob(hash, file)) {
+            throw new IOException("Could not restore " + path);
+        }
+        return IndexEntry.fromFile(path, file, SecureHashUtil.decode(hash));
+    }
+
+    /**
+     * This private method removes a staged file or all staged files
+     * of a directory from the index. The files and the directory are
+     * collected for {@link #deleteFiles()}.
+     */
+    private void delete(JitObject object, String path) {
+
+        if (object instanceof Directory) {
+            for (JitObject child : ((Directory) object).getChildren()) {
+                delete(child, join(path, child.getName()));
+            }
+        } else if (partial && !patterns.includes(path)) {
+            return;
+        } else {
+            entries.remove(path);
+            pendingWrites.remove(path);
+            deleted++;
+        }
+        pendingDeletes.add(path);
+    }
+
+    private static String join(String path, String name) {
+
+        return path.isEmpty() ? name : path + "/" + name;
+    }
+
+
+    /**
+     * This private method reads a commit object.
+     * @return - the commit or null, if the object is not a commit
+     */
+    private Commit readCommit(String hash) {
+
+        try (ObjectStream in = objectStore.openObject(hash)) {
+            if (!OBJECT_TYPE_COMMIT.equals(in.getType())) {
+                LOGGER.log(Level.SEVERE,
+                        "Wrong hash value selected! Pls select a commit!");
+                return null;
+            }
+            return Commit.parse(in.readAllBytes());
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read commit " + hash, e);
+            return null;
+        }
+    }
+
+    /**
+     * This private method reads a tree object once.
+     * @param hash - of the directory
+     * @return - the parsed tree object
+     * @throws IOException - if the object is missing or not a tree
+     */
+    private TreeObject readTree(String hash) throws IOException {
+
+        try (ObjectStream in = objectStore.openObject(hash)) {
+            if (!OBJECT_TYPE_TREE.equals(in.getType())) {
+                throw new IOException(hash + " is not a tree");
+            }
+            return new TreeObject(ByteBuffer.wrap(in.readAllBytes()));
+        }
+    }
 }
@@ -1,12 +1,21 @@
 package de.othr.jit.service;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.logging.Logger;
 import de.othr.jit.datastructure.MerkleTree;
+import de.othr.jit.datastructure.TreeObject;
+import de.othr.jit.entity.Commit;
 import de.othr.jit.entity.Directory;
 import de.othr.jit.entity.FileContainer;
 import de.othr.jit.entity.JitObject;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.storage.ObjectWriter;
+import de.othr.jit.storage.RefStore;
 import de.othr.jit.utility.FileSystemUtil;
+import de.othr.jit.utility.SecureHashUtil;
 
 import static de.othr.jit.constants.Constants.*;
 
@@ -17,84 +26,94 @@ import static de.othr.jit.constants.Constants.*;
  */
 public class CommitService {
     
+    private static final Logger LOGGER = Logger
+            .getLogger(CommitService.class.getName());
+
     private String message;
     private MerkleTree tree;
+    private ObjectStore objectStore;
+    private RefStore refs;
+    //Hash value of the written commit, null before the commit
+    private String commitHash;
     
     
     public CommitService(String message) {
-        this.message = COMMIT_HEADER_VALUE.concat(" ").concat(message);
-        this.tree = FileSystemUtil.deserializeStagingFile();
+        this(message, FileSystemUtil.deserializeStagingFile(),
+                new ObjectStore(), new RefStore());
+    }
+
+    public CommitService(String message, MerkleTree tree,
+            ObjectStore objectStore, RefStore refs) {
+        this.message = message;
+        this.tree = tree;
+        this.objectStore = objectStore;
+        this.refs = refs;
     }
     
     
     /**
      * This method is used to commit all the files stored in
-     * the staging area.
+     * the staging area. The blobs of the files were already
+     * stored by the add command, so only the directories
+     * and the commit object will be written. They are written
+     * concurrently and synced to disk together at the end, the
+     * blobs of the new directories join the same sync barrier.
+     * HEAD is moved to the new commit only after the barrier, so
+     * it never refers to objects, which may be lost by a crash.
+     * The moved reference is synced as well.
      */
+    @SuppressWarnings("try")
     public void commitFiles() {
-        
-        List<Directory> directories = new LinkedList<Directory>();
-        List<FileContainer> allFiles = new LinkedList<FileContainer>();
-        allFiles.addAll(tree.getAllFiles());
-        directories.addAll(tree.getDirectories());
-        
-        //Write all directory files
-        for (Directory dir : directories) {
-
-            if (dir.getName().equals(ROOT_NAME)) {
-                StringBuilder sb = new StringBuilder();
-                sb.append(this.getMessage());
-                sb.append(System.getProperty("line.separator"));
-                for (JitObject o : dir.getChildren()) {
-                    sb.append(o.toString());
-                    sb.append(System.getProperty("line.separator"));
-                }
 
-                FileSystemUtil
-                        .writeToFile(buildFileName(dir.getHash()),
-                                sb.toString());
-            } else {
-                StringBuilder sb = new StringBuilder();
-                sb.append("Directory");
-                sb.append(System.getProperty("line.separator"));
-                for (JitObject o : dir.getChildren()) {
-                    sb.append(o.toString());
-                    sb.append(System.getProperty("line.separator"));
+        if (tree.getRoot() == null) {
+            LOGGER.severe("Staging area is empty!");
+            return;
+        }
+
+        try (Metrics.Phase phase = Metrics.phase("commit.write")) {
+            ObjectWriter writer = new ObjectWriter(objectStore,
+                    IO_PARALLELISM);
+
+            //Write the new directory files. A stored directory was
+            //synced together with its blobs and sub directories by an
+            //earlier commit, so its subtree is skipped.
+            Deque<Directory> directories = new ArrayDeque<Directory>();
+            directories.push(tree.getRoot());
+            while (!directories.isEmpty()) {
+                Directory dir = directories.pop();
+                if (objectStore.contains(dir.getHash())) {
+                    continue;
                 }
+                for (JitObject child : dir.getChildren()) {
+                    if (child instanceof FileContainer) {
+                        writer.sync(child.getHash());
+                    } else {
+                        directories.push((Directory) child);
+                    }
+                }
+                writer.submit(dir.getHash(), OBJECT_TYPE_TREE,
+                        TreeObject.encode(dir));
+            }
 
-                FileSystemUtil
-                        .writeToFile(buildFileName(dir.getHash()),
-                                sb.toString());
+            String head = refs.resolveHead();
+            byte[] content = Commit.now(tree.getRoot().getHash(),
+                    head == null ? Collections.emptyList()
+                            : Collections.singletonList(head),
+                    message).toBytes();
+            String hash = SecureHashUtil.computeHash(content);
+            writer.submit(hash, OBJECT_TYPE_COMMIT, content);
+
+            if (!writer.finish()) {
+                LOGGER.severe("Commit could not be written completely!");
+                return;
             }
-        }
-        
-        //Write files
-        for (FileContainer file : allFiles) {
-            
-            String data = FileSystemUtil.readFile(file.getPath());
-            
-            FileSystemUtil.writeToFile(buildFileName(file.getHash()), data);
-            
 
+            if (!refs.updateHead(hash)) {
+                LOGGER.severe("HEAD could not be moved to " + hash);
+                return;
+            }
+            commitHash = hash;
         }
-        
-    }
-    
-    /**
-     * This method is used to connect the file name and 
-     * the correct path to the objects folder.
-     * @param hash - of the JitObject
-     * @return - Path and file name as String to create the file
-     */
-    private String buildFileName(String hash) {
-        
-        StringBuilder sb = new StringBuilder();
-        sb.append(PATH_OBJECTS_FOLDER);
-        sb.append("/");
-        sb.append(hash);
-        sb.append(".txt");
-        
-        return sb.toString();
     }
     
 
@@ -108,6 +127,11 @@ public class CommitService {
     }
 
 
+    public String getCommitHash() {
+        return commitHash;
+    }
+
+
     public MerkleTree getTree() {
         return tree;
     }
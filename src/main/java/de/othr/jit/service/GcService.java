@@ -0,0 +1,131 @@
+package de.othr.jit.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import de.othr.jit.datastructure.TreeObject;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.storage.ObjectStream;
+import de.othr.jit.storage.PackFile;
+import de.othr.jit.storage.PackWriter;
+import de.othr.jit.utility.SecureHashUtil;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class is used for the gc command.
+ * @author codemonkey500
+ *
+ */
+public class GcService {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(GcService.class.getName());
+
+    private ObjectStore objectStore;
+
+    public GcService() {
+        this(new ObjectStore());
+    }
+
+    public GcService(ObjectStore objectStore) {
+        this.objectStore = objectStore;
+    }
+
+    /**
+     * This method is used to move all objects into a new pack.
+     * Loose objects and the objects of existing packs are written
+     * into one pack, so similar blobs can be stored as deltas.
+     * The old objects are deleted after the pack was written
+     * completely.
+     * @return - the number of packed objects
+     */
+    @SuppressWarnings("try")
+    public int repack() {
+
+        List<String> loose = objectStore.listLooseObjects();
+        List<PackFile> packs = objectStore.getPacks();
+
+        if (loose.isEmpty() && packs.size() <= 1) {
+            LOGGER.info("No loose objects to pack!");
+            return 0;
+        }
+
+        Set<String> hashes = new LinkedHashSet<String>(loose);
+        for (PackFile pack : packs) {
+            hashes.addAll(pack.listObjects());
+        }
+
+        PackWriter writer = new PackWriter(objectStore);
+        try (Metrics.Phase phase = Metrics.phase("gc.pack")) {
+            writer.write(new ArrayList<String>(hashes), collectNames(hashes));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not write pack!", e);
+            return 0;
+        }
+
+        //Objects too large for a pack are kept where they are stored
+        List<String> skipped = writer.getSkipped();
+        if (!skipped.isEmpty()) {
+            LOGGER.warning(skipped.size() + " objects are too large to be "
+                    + "packed and are kept");
+            loose.removeAll(skipped);
+            hashes.removeAll(skipped);
+            packs = new ArrayList<PackFile>(packs);
+            packs.removeIf(pack -> skipped.stream().anyMatch(
+                    hash -> pack.contains(SecureHashUtil.decode(hash))));
+        }
+
+        objectStore.deleteLooseObjects(loose);
+        objectStore.deletePacks(packs);
+        Metrics.count("gc.objects.packed", hashes.size());
+        LOGGER.info("Packed " + hashes.size() + " objects");
+        return hashes.size();
+    }
+
+    /**
+     * This private method reads the file names of the blobs from
+     * the tree objects. Versions of the same file get the
+     * same name, so they are compared when the pack is written.
+     * Only the header is read to find the trees.
+     */
+    private Map<String, String> collectNames(Collection<String> hashes)
+            throws IOException {
+
+        Map<String, String> names = new HashMap<String, String>();
+
+        for (String hash : hashes) {
+            if (!OBJECT_TYPE_TREE.equals(
+                    objectStore.readHeader(hash).getType())) {
+                continue;
+            }
+
+            try (ObjectStream in = objectStore.openObject(hash)) {
+                TreeObject tree;
+                try {
+                    tree = new TreeObject(ByteBuffer.wrap(in.readAllBytes()));
+                } catch (IOException e) {
+                    //The names only improve the deltas, the tree is packed
+                    LOGGER.fine("No names read from tree " + hash);
+                    continue;
+                }
+
+                for (int i = 0; i < tree.size(); i++) {
+                    if (!tree.isDirectory(i)) {
+                        names.put(tree.getHash(i), tree.getName(i));
+                    }
+                }
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,397 @@
+package de.othr.jit.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import de.othr.jit.entity.Commit;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.storage.CommitCache;
+import de.othr.jit.storage.CommitGraph;
+
+/**
+ * This class is used for the log and the merge-base command.
+ * <p>
+ * The history is walked lazily from a commit to its parents. The
+ * walk keeps the commits, whose parents were not visited yet, in a
+ * queue ordered by time, so the newest commit is always printed next
+ * and every commit is printed once, even if it is reached by several
+ * merges. Only commits of the queue are read ahead, so printing the
+ * latest commits of a long history is as fast as of a short one.
+ * <p>
+ * Parents, time and generation number of a commit are taken from the
+ * {@link CommitGraph}, if it contains the commit. Only newer commits
+ * are read from the object store. The generation numbers stop
+ * ancestry checks as soon as they can not reach the ancestor anymore.
+ * @author codemonkey500
+ *
+ */
+public class LogService {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(LogService.class.getName());
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM d HH:mm:ss yyyy xx", Locale.ROOT);
+
+    //Flags of the commits painted by the merge base search
+    private static final int PARENT1 = 1;
+    private static final int PARENT2 = 2;
+    private static final int BOTH = PARENT1 | PARENT2;
+    private static final int STALE = 4;
+    private static final int RESULT = 8;
+
+    //Highest generation number first, commits outside of the graph
+    //have the highest one, and the newest commit of a generation
+    private static final Comparator<Node> GENERATION_ORDER = Comparator
+            .comparingInt((Node n) -> -n.generation)
+            .thenComparingLong(n -> -n.time);
+
+    private CommitCache commits;
+    private CommitGraph graph;
+    private long graphHits;
+    private long objectsRead;
+
+    public LogService(CommitCache commits) {
+        this(commits, null);
+    }
+
+    /**
+     * @param commits - reading the commit objects
+     * @param graph - the commit-graph or null, if there is none
+     */
+    public LogService(CommitCache commits, CommitGraph graph) {
+        this.commits = commits;
+        this.graph = graph;
+    }
+
+    /**
+     * This method is used to walk the history of a commit.
+     * The commits are read while the iterator advances.
+     * @param start - hash value of the newest commit
+     * @return - the hash values of the commit and all its ancestors,
+     *         the newest first. The iterator throws an
+     *         {@link UncheckedIOException}, if a commit can not be read.
+     */
+    public Iterator<String> walk(String start) {
+
+        return new Walk(start);
+    }
+
+    /**
+     * This method is used to print the history of a commit.
+     * Every commit is written, as soon as it is read.
+     * @param start - hash value of the newest commit
+     * @param maxCount - number of commits to be printed, a negative
+     *        value prints all commits
+     * @param out - receiving the log
+     * @return - the number of printed commits
+     */
+    @SuppressWarnings("try")
+    public int printLog(String start, int maxCount, OutputStream out) {
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+                StandardCharsets.UTF_8));
+        int printed = 0;
+
+        try (Metrics.Phase phase = Metrics.phase("log.walk")) {
+            Iterator<String> walk = walk(start);
+
+            while (walk.hasNext() && printed != maxCount) {
+                String hash = walk.next();
+                print(hash, commits.get(hash), writer);
+                printed++;
+            }
+            writer.flush();
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read the history", e);
+        }
+
+        Metrics.count("log.commits", printed);
+        recordCounters();
+        return printed;
+    }
+
+    /**
+     * Use this method to check wether a commit is an ancestor of
+     * another one. A commit is an ancestor of itself.
+     * Commits with a lower generation number than the ancestor
+     * are not visited.
+     * @param ancestor - hash value of the possible ancestor
+     * @param commit - hash value of the descendant
+     * @return - true, if the ancestor can be reached from the commit
+     * @throws IOException - if a commit can not be read
+     */
+    public boolean isAncestor(String ancestor, String commit)
+            throws IOException {
+
+        int minGeneration = node(ancestor).generation;
+        Set<String> seen = new HashSet<String>();
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.push(commit);
+
+        while (!pending.isEmpty()) {
+            String hash = pending.pop();
+            if (hash.equals(ancestor)) {
+                return true;
+            }
+            if (!seen.add(hash)) {
+                continue;
+            }
+
+            Node node = node(hash);
+            //Its ancestors have even lower generation numbers
+            if (node.generation <= minGeneration
+                    && node.generation != CommitGraph.GENERATION_INFINITY) {
+                continue;
+            }
+            for (String parent : node.parents) {
+                pending.push(parent);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method is used to find the best common ancestors of two
+     * commits. A common ancestor is best, if it is no ancestor of
+     * another common ancestor.
+     * <p>
+     * Both commits paint their ancestors, the commits are visited
+     * with the highest generation number first. A commit painted by
+     * both is a candidate and its ancestors are stale. The search
+     * stops, when only stale commits are left. A commit is queued at
+     * most once at a time and the commits in the queue, which are not
+     * stale, are counted, so every step costs a logarithmic time.
+     * @param first - hash value of a commit
+     * @param second - hash value of another commit
+     * @return - the best common ancestors, the highest generation
+     *         first, or an empty list, if the histories are unrelated
+     * @throws IOException - if a commit can not be read
+     */
+    @SuppressWarnings("try")
+    public List<String> mergeBases(String first, String second)
+            throws IOException {
+
+        if (first.equals(second)) {
+            return Collections.singletonList(first);
+        }
+
+        Map<String, Integer> flags = new HashMap<String, Integer>();
+        PriorityQueue<Node> queue = new PriorityQueue<Node>(
+                GENERATION_ORDER);
+        //Commits in the queue, their paint is read, when they are polled
+        Set<String> queued = new HashSet<String>();
+        List<String> candidates = new ArrayList<String>();
+
+        try (Metrics.Phase phase = Metrics.phase("merge-base.paint")) {
+            flags.put(first, PARENT1);
+            queue.add(node(first));
+            queued.add(first);
+            flags.put(second, PARENT2);
+            queue.add(node(second));
+            queued.add(second);
+            int nonStale = 2;
+
+            while (nonStale > 0) {
+
+                Node node = queue.poll();
+                queued.remove(node.hash);
+                int paint = flags.get(node.hash) & ~RESULT;
+                if ((paint & STALE) == 0) {
+                    nonStale--;
+                }
+
+                if (paint == BOTH) {
+                    candidates.add(node.hash);
+                    flags.put(node.hash, BOTH | STALE | RESULT);
+                    paint |= STALE;
+                }
+
+                for (String parent : node.parents) {
+                    int painted = flags.getOrDefault(parent, 0);
+                    if ((painted & paint) == paint) {
+                        continue;
+                    }
+                    int repainted = painted | paint;
+                    flags.put(parent, repainted);
+
+                    if (queued.add(parent)) {
+                        queue.add(node(parent));
+                        if ((repainted & STALE) == 0) {
+                            nonStale++;
+                        }
+                    } else if ((painted & STALE) == 0
+                            && (repainted & STALE) != 0) {
+                        nonStale--;
+                    }
+                }
+            }
+
+            //A candidate reached before its descendant got stale
+            List<String> bases = new ArrayList<String>();
+            for (String candidate : candidates) {
+                boolean redundant = false;
+                for (String other : candidates) {
+                    if (!other.equals(candidate)
+                            && isAncestor(candidate, other)) {
+                        redundant = true;
+                        break;
+                    }
+                }
+                if (!redundant) {
+                    bases.add(candidate);
+                }
+            }
+            return bases;
+        } finally {
+            recordCounters();
+        }
+    }
+
+    /**
+     * This private method reads the data of a commit needed to walk
+     * the history. The commit-graph is consulted first.
+     */
+    private Node node(String hash) throws IOException {
+
+        int position = graph == null ? -1 : graph.find(hash);
+
+        if (position >= 0) {
+            graphHits++;
+            int[] parentPositions = graph.getParents(position);
+            String[] parents = new String[parentPositions.length];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = graph.getHash(parentPositions[i]);
+            }
+            return new Node(hash, graph.getTime(position),
+                    graph.getGeneration(position), parents);
+        }
+
+        objectsRead++;
+        Commit commit = commits.get(hash);
+        return new Node(hash, commit.getTime(),
+                CommitGraph.GENERATION_INFINITY,
+                commit.getParents().toArray(new String[0]));
+    }
+
+    /**
+     * This private method adds the counters of the lookups to the
+     * metrics of the running command.
+     */
+    private void recordCounters() {
+
+        Metrics.count("history.graph.hits", graphHits);
+        Metrics.count("history.objects.read", objectsRead);
+        graphHits = 0;
+        objectsRead = 0;
+    }
+
+    private static void print(String hash, Commit commit, Writer writer)
+            throws IOException {
+
+        writer.write("commit " + hash + "\n");
+        if (commit.getParents().size() > 1) {
+            writer.write("Merge: " + String.join(" ", commit.getParents())
+                    + "\n");
+        }
+        writer.write("Author: " + commit.getAuthor() + "\n");
+        writer.write("Date:   " + DATE_FORMAT.format(commit.getDate())
+                + "\n\n");
+        for (String line : commit.getMessage().split("\n")) {
+            writer.write("    " + line + "\n");
+        }
+        writer.write("\n");
+    }
+
+    /**
+     * This class walks the history. A commit is read, when its child
+     * is returned by the iterator.
+     */
+    private final class Walk implements Iterator<String> {
+
+        private final PriorityQueue<Node> queue;
+        private final Set<String> seen;
+        private long sequence;
+
+        Walk(String start) {
+            //Newest first, commits of the same time in the order found
+            this.queue = new PriorityQueue<Node>(Comparator
+                    .comparingLong((Node n) -> -n.time)
+                    .thenComparingLong(n -> n.sequence));
+            this.seen = new HashSet<String>();
+            push(start);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public String next() {
+
+            Node next = queue.poll();
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            for (String parent : next.parents) {
+                push(parent);
+            }
+            return next.hash;
+        }
+
+        private void push(String hash) {
+
+            if (!seen.add(hash)) {
+                return;
+            }
+            try {
+                Node node = node(hash);
+                node.sequence = sequence++;
+                queue.add(node);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * This class holds the data of a commit needed to walk the history.
+     */
+    private static final class Node {
+
+        final String hash;
+        final long time;
+        final int generation;
+        final String[] parents;
+        long sequence;
+
+        Node(String hash, long time, int generation, String[] parents) {
+            this.hash = hash;
+            this.time = time;
+            this.generation = generation;
+            this.parents = parents;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package de.othr.jit.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import de.othr.jit.datastructure.SparsePatterns;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.entity.IndexEntry;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.utility.FileSystemUtil;
+import de.othr.jit.utility.SecureHashUtil;
+
+/**
+ * This class is used for the status command.
+ * It compares the staged files with the working directory.
+ * @author codemonkey500
+ *
+ */
+public class StatusService {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(StatusService.class.getName());
+
+    private StagingIndex index;
+    private List<String> modified;
+    private List<String> deleted;
+
+    public StatusService() {
+        this(new StagingIndex());
+    }
+
+    public StatusService(StagingIndex index) {
+        this.index = index;
+        this.modified = new LinkedList<String>();
+        this.deleted = new LinkedList<String>();
+    }
+
+    /**
+     * This method is used to find all staged files, which were
+     * changed or deleted in the working directory.
+     * Only the stat data of the files is read. A file is hashed
+     * again only, if its stat data differs from the staging index.
+     * Unchanged files with outdated stat data are refreshed in
+     * the index with a single write at the end, so they will not be
+     * hashed on the next check.
+     * Files outside the sparse checkout patterns are not checked.
+     */
+    @SuppressWarnings("try")
+    public void checkStatus() {
+
+        modified.clear();
+        deleted.clear();
+        SparsePatterns patterns = SparsePatterns.load();
+        List<IndexEntry> refreshed = new ArrayList<IndexEntry>();
+
+        try (Metrics.Phase phase = Metrics.phase("status.check")) {
+            for (IndexEntry staged : index.entries()) {
+
+                if (!patterns.includes(staged.getPath())) {
+                    continue;
+                }
+
+                Path file = Paths.get(
+                        FileSystemUtil.toAbsolutePath(staged.getPath()));
+
+                if (!Files.isRegularFile(file)) {
+                    deleted.add(staged.getPath());
+                    continue;
+                }
+
+                try {
+                    IndexEntry current = IndexEntry.fromFile(staged.getPath(),
+                            file, null);
+
+                    if (isModified(staged, current)) {
+                        modified.add(staged.getPath());
+                    } else if (!staged.hasSameStat(current)) {
+                        refreshed.add(current);
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE,
+                            "Could not read " + staged.getPath(), e);
+                }
+            }
+        }
+
+        if (!refreshed.isEmpty()) {
+            index.putAll(refreshed);
+            Metrics.count("status.refreshed", refreshed.size());
+        }
+    }
+
+    /**
+     * Use this method to check, wether a file differs from its
+     * staged version. If the stat data matches, the file is not read.
+     * Otherwise the content is hashed and the new id is stored in
+     * the current entry.
+     * @param staged - entry of the staging index
+     * @param current - entry with the current stat data of the file
+     * @return - true, if the content of the file changed
+     * @throws IOException - if the file can not be hashed
+     */
+    public static boolean isModified(IndexEntry staged, IndexEntry current)
+            throws IOException {
+
+        if (staged.hasSameStat(current)) {
+            current.setId(staged.getId());
+            return false;
+        }
+
+        current.setId(SecureHashUtil.digest(Paths.get(
+                FileSystemUtil.toAbsolutePath(current.getPath()))));
+        Metrics.count("status.files.hashed", 1);
+
+        return !Arrays.equals(staged.getId(), current.getId());
+    }
+
+    /**
+     * This method is used to print the result of the
+     * last check on console.
+     */
+    public void printStatus() {
+
+        if (modified.isEmpty() && deleted.isEmpty()) {
+            LOGGER.info("Staging area is up to date with working directory");
+            return;
+        }
+
+        modified.forEach(path -> LOGGER.info("modified: " + path));
+        deleted.forEach(path -> LOGGER.info("deleted: " + path));
+    }
+
+    public List<String> getModified() {
+        return modified;
+    }
+
+    public List<String> getDeleted() {
+        return deleted;
+    }
+}
@@ -0,0 +1,128 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * This class splits data into content-defined chunks.
+ * <p>
+ * A gear hash is rolled over the data and a chunk ends where the
+ * highest bits of the hash are zero (FastCDC). The hash only depends
+ * on the last 64 bytes, so an insertion into a file changes only the
+ * chunks around it and all other chunks are found again.
+ * Before the average size a stricter mask is used than after it, so
+ * most chunks are close to the average size.
+ * @see <a href="https://www.usenix.org/conference/atc16/technical-sessions/presentation/xia">FastCDC</a>
+ * @author codemonkey500
+ *
+ */
+public final class Chunker {
+
+    public static final int MIN_SIZE = 256 * 1024;
+    public static final int AVERAGE_SIZE = 1024 * 1024;
+    public static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    //22 and 18 high bits, around the 20 bits of the average size
+    private static final long MASK_SMALL = 0xFFFFFC0000000000L;
+    private static final long MASK_LARGE = 0xFFFFC00000000000L;
+
+    //Fixed seed, every jit version has to find the same chunks
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x4A4954L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private Chunker() {
+    }
+
+    /**
+     * This interface receives the chunks of the data. The buffer
+     * is reused for the next chunk.
+     */
+    public interface ChunkConsumer {
+
+        void accept(byte[] buffer, int offset, int length)
+                throws IOException;
+    }
+
+    /**
+     * This method splits a stream into chunks.
+     * @param in - data to be split, it is not closed
+     * @param consumer - receiving the chunks in order
+     * @throws IOException - if the stream can not be read
+     */
+    public static void split(InputStream in, ChunkConsumer consumer)
+            throws IOException {
+
+        byte[] buffer = new byte[2 * MAX_SIZE];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+
+        while (true) {
+            //Keep at least one maximum chunk in the buffer
+            if (!eof && end - start < MAX_SIZE) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+
+                while (end < buffer.length) {
+                    int n = in.read(buffer, end, buffer.length - end);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    end += n;
+                }
+            }
+
+            if (start == end) {
+                return;
+            }
+
+            int length = cut(buffer, start, end - start);
+            consumer.accept(buffer, start, length);
+            start += length;
+        }
+    }
+
+    /**
+     * This method finds the end of the next chunk.
+     * @param data - buffer holding the data
+     * @param offset - start of the chunk
+     * @param length - number of bytes available
+     * @return - the length of the chunk
+     */
+    static int cut(byte[] data, int offset, int length) {
+
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+
+        int end = Math.min(length, MAX_SIZE);
+        int normal = Math.min(AVERAGE_SIZE, end);
+        long hash = 0;
+        int i = MIN_SIZE;
+
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+
+        return end;
+    }
+}
@@ -0,0 +1,82 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import de.othr.jit.entity.Commit;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class reads commits and caches the parsed commits.
+ * Walking the history reads every commit once, but following walks,
+ * e.g. of the daemon, start at the same commits again. The least
+ * recently used commits are removed, when the cache holds more
+ * commits than allowed, so the memory does not grow with the history.
+ * @author codemonkey500
+ *
+ */
+public class CommitCache {
+
+    private final ObjectStore objectStore;
+    private final int maxCommits;
+    private final Map<String, Commit> entries;
+
+    public CommitCache(ObjectStore objectStore) {
+        this(objectStore, COMMIT_CACHE_SIZE);
+    }
+
+    /**
+     * @param objectStore - storing the commits
+     * @param maxCommits - number of commits kept in memory
+     */
+    public CommitCache(ObjectStore objectStore, int maxCommits) {
+        this.objectStore = objectStore;
+        this.maxCommits = maxCommits;
+        this.entries = new LinkedHashMap<String, Commit>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Commit> eldest) {
+                return size() > CommitCache.this.maxCommits;
+            }
+        };
+    }
+
+    /**
+     * This method is used to get a commit. A commit, which is not
+     * cached, is read from the object store.
+     * @param hash - of the commit
+     * @return - the parsed commit
+     * @throws IOException - if the commit is missing or the object
+     *         is not a commit
+     */
+    public Commit get(String hash) throws IOException {
+
+        synchronized (this) {
+            Commit commit = entries.get(hash);
+            if (commit != null) {
+                return commit;
+            }
+        }
+
+        Commit commit;
+        try (ObjectStream in = objectStore.openObject(hash)) {
+            if (!OBJECT_TYPE_COMMIT.equals(in.getType())) {
+                throw new IOException(hash + " is not a commit");
+            }
+            commit = Commit.parse(in.readAllBytes());
+        }
+
+        synchronized (this) {
+            entries.put(hash, commit);
+        }
+        return commit;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,231 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import de.othr.jit.utility.SecureHashUtil;
+
+/**
+ * This class reads the commit-graph file.
+ * <p>
+ * The commit-graph holds the data of commits, which is needed to walk
+ * the history, so the commit objects do not have to be read. It starts
+ * with a header (magic, version, number of commits, number of extra
+ * edges) and a fan-out table of 256 entries like the index of a pack,
+ * followed by the sorted raw ids of the commits. For every commit
+ * follow the raw id of its tree, the positions of the first two
+ * parents, the generation number and the commit time. Parents of a
+ * commit with more than two parents are stored as extra edges at the
+ * end of the file.
+ * <p>
+ * The generation number of a commit without parents is 1, any other
+ * commit has a generation number one larger than the largest one of its
+ * parents. So a commit is never an ancestor of a commit with a lower
+ * generation number. The graph contains all ancestors of its commits.
+ * <p>
+ * The file is memory-mapped, a commit is found by a binary search in
+ * the fan-out range of its first byte.
+ * @author codemonkey500
+ *
+ */
+public class CommitGraph {
+
+    static final int MAGIC = 0x4A434752;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int FAN_OUT_SIZE = 256;
+    static final int ID_LENGTH = 20;
+    //Tree id, two parents, generation number and time
+    static final int DATA_SIZE = ID_LENGTH + 3 * Integer.BYTES + Long.BYTES;
+    static final int NO_PARENT = 0x7FFFFFFF;
+    //Marks the second parent as index of the extra edges
+    static final int EXTRA_EDGES = 0x80000000;
+    //Marks the last parent in the extra edges
+    static final int LAST_EDGE = 0x80000000;
+
+    /**
+     * Generation number of commits, which are not part of the graph.
+     */
+    public static final int GENERATION_INFINITY = Integer.MAX_VALUE;
+
+    private final Path file;
+    private final ByteBuffer graph;
+    private final int count;
+    private final int idsStart;
+    private final int dataStart;
+    private final int edgesStart;
+
+    /**
+     * This constructor maps a commit-graph file.
+     * @param file - pointing to the commit-graph
+     * @throws IOException - if the file is missing or corrupt
+     */
+    public CommitGraph(Path file) throws IOException {
+
+        this.file = file;
+        this.graph = map(file);
+
+        if (graph.limit() < HEADER_SIZE || graph.getInt(0) != MAGIC
+                || graph.getInt(4) != VERSION) {
+            throw new IOException("Unsupported commit-graph " + file);
+        }
+
+        this.count = graph.getInt(8);
+        this.idsStart = HEADER_SIZE + FAN_OUT_SIZE * Integer.BYTES;
+        this.dataStart = idsStart + count * ID_LENGTH;
+        this.edgesStart = dataStart + count * DATA_SIZE;
+
+        if (graph.limit() != edgesStart + graph.getInt(12) * Integer.BYTES) {
+            throw new IOException("Corrupt commit-graph " + file);
+        }
+    }
+
+    /**
+     * This method searches a commit in the fan-out range of the first
+     * byte of its id.
+     * @param id - raw id of the commit
+     * @return - position of the commit or a negative value, if the
+     *         commit is not part of the graph
+     */
+    public int find(byte[] id) {
+
+        int first = id[0] & 0xff;
+        int low = first == 0 ? 0
+                : graph.getInt(HEADER_SIZE + (first - 1) * Integer.BYTES);
+        int high = graph.getInt(HEADER_SIZE + first * Integer.BYTES) - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = compare(middle, id);
+
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param hash - of the commit
+     * @return - position of the commit or a negative value, if the
+     *         commit is not part of the graph
+     */
+    public int find(String hash) {
+
+        byte[] id;
+        try {
+            id = SecureHashUtil.decode(hash);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+        return id.length == ID_LENGTH ? find(id) : -1;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public byte[] getId(int position) {
+
+        byte[] id = new byte[ID_LENGTH];
+        graph.get(idsStart + position * ID_LENGTH, id);
+        return id;
+    }
+
+    public String getHash(int position) {
+        return SecureHashUtil.encode(getId(position));
+    }
+
+    public String getTree(int position) {
+
+        byte[] id = new byte[ID_LENGTH];
+        graph.get(dataStart + position * DATA_SIZE, id);
+        return SecureHashUtil.encode(id);
+    }
+
+    /**
+     * Use this method to get the parents of a commit.
+     * @param position - of the commit
+     * @return - the positions of the parents in the graph
+     */
+    public int[] getParents(int position) {
+
+        int start = dataStart + position * DATA_SIZE + ID_LENGTH;
+        int first = graph.getInt(start);
+        int second = graph.getInt(start + Integer.BYTES);
+
+        if (first == NO_PARENT) {
+            return new int[0];
+        }
+        if (second == NO_PARENT) {
+            return new int[] { first };
+        }
+        if ((second & EXTRA_EDGES) == 0) {
+            return new int[] { first, second };
+        }
+
+        //The first parent is followed by the extra edges
+        int edge = edgesStart + (second & ~EXTRA_EDGES) * Integer.BYTES;
+        int length = 1;
+        while ((graph.getInt(edge + (length - 1) * Integer.BYTES)
+                & LAST_EDGE) == 0) {
+            length++;
+        }
+
+        int[] parents = new int[length + 1];
+        parents[0] = first;
+        for (int i = 0; i < length; i++) {
+            parents[i + 1] = graph.getInt(edge + i * Integer.BYTES)
+                    & ~LAST_EDGE;
+        }
+        return parents;
+    }
+
+    public int getGeneration(int position) {
+        return graph.getInt(dataStart + position * DATA_SIZE + ID_LENGTH
+                + 2 * Integer.BYTES);
+    }
+
+    /**
+     * @param position - of the commit
+     * @return - the time of the commit in seconds since the epoch
+     */
+    public long getTime(int position) {
+        return graph.getLong(dataStart + position * DATA_SIZE + ID_LENGTH
+                + 3 * Integer.BYTES);
+    }
+
+    private int compare(int position, byte[] id) {
+
+        int start = idsStart + position * ID_LENGTH;
+
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int cmp = Integer.compare(graph.get(start + i) & 0xff,
+                    id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+    }
+}
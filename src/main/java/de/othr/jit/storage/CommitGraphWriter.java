@@ -0,0 +1,255 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import de.othr.jit.entity.Commit;
+import de.othr.jit.utility.SecureHashUtil;
+
+import static de.othr.jit.storage.CommitGraph.*;
+
+/**
+ * This class writes the commit-graph file, see {@link CommitGraph}.
+ * <p>
+ * The graph contains the given commits and all their ancestors.
+ * Commits of the previous graph are copied from it, so only the
+ * commits written since then are read from the object store.
+ * The file is written to a temporary file, which replaces the old
+ * graph afterwards.
+ * @author codemonkey500
+ *
+ */
+public class CommitGraphWriter {
+
+    private final CommitCache commits;
+    private final CommitGraph previous;
+
+    /**
+     * @param commits - reading the commit objects
+     * @param previous - the current graph or null
+     */
+    public CommitGraphWriter(CommitCache commits, CommitGraph previous) {
+        this.commits = commits;
+        this.previous = previous;
+    }
+
+    /**
+     * This method writes the commit-graph.
+     * @param file - the commit-graph file
+     * @param tips - hash values of the newest commits, e.g. of all
+     *        branches
+     * @return - the number of commits in the graph
+     * @throws IOException - if a commit can not be read or the file
+     *         can not be written
+     */
+    public int write(Path file, Collection<String> tips) throws IOException {
+
+        List<Node> nodes = collect(tips);
+        nodes.sort(Comparator.comparing(n -> n.id, Arrays::compareUnsigned));
+
+        Map<String, Node> byHash = new HashMap<String, Node>();
+        for (int i = 0; i < nodes.size(); i++) {
+            nodes.get(i).position = i;
+            byHash.put(nodes.get(i).hash, nodes.get(i));
+        }
+        for (Node node : nodes) {
+            node.parentNodes = new Node[node.parents.length];
+            for (int i = 0; i < node.parents.length; i++) {
+                node.parentNodes[i] = byHash.get(node.parents[i]);
+            }
+        }
+        for (Node node : nodes) {
+            computeGeneration(node);
+        }
+
+        writeFile(file, nodes);
+        return nodes.size();
+    }
+
+    /**
+     * This private method reads the given commits and all their
+     * ancestors.
+     */
+    private List<Node> collect(Collection<String> tips) throws IOException {
+
+        Map<String, Node> nodes = new HashMap<String, Node>();
+        Deque<String> pending = new ArrayDeque<String>(tips);
+
+        while (!pending.isEmpty()) {
+            String hash = pending.pop();
+            if (nodes.containsKey(hash)) {
+                continue;
+            }
+
+            Node node = read(hash);
+            nodes.put(hash, node);
+            for (String parent : node.parents) {
+                if (!nodes.containsKey(parent)) {
+                    pending.push(parent);
+                }
+            }
+        }
+        return new ArrayList<Node>(nodes.values());
+    }
+
+    private Node read(String hash) throws IOException {
+
+        int position = previous == null ? -1 : previous.find(hash);
+
+        if (position >= 0) {
+            int[] parentPositions = previous.getParents(position);
+            String[] parents = new String[parentPositions.length];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = previous.getHash(parentPositions[i]);
+            }
+            return new Node(hash, previous.getTree(position), parents,
+                    previous.getTime(position));
+        }
+
+        Commit commit = commits.get(hash);
+        return new Node(hash, commit.getTree(),
+                commit.getParents().toArray(new String[0]),
+                commit.getTime());
+    }
+
+    /**
+     * This private method computes the generation numbers of a commit
+     * and its ancestors without recursion, a history may be longer
+     * than the stack allows.
+     */
+    private static void computeGeneration(Node start) {
+
+        Deque<Node> stack = new ArrayDeque<Node>();
+        stack.push(start);
+
+        while (!stack.isEmpty()) {
+            Node node = stack.peek();
+            if (node.generation > 0) {
+                stack.pop();
+                continue;
+            }
+
+            int generation = 1;
+            boolean ready = true;
+            for (Node parent : node.parentNodes) {
+                if (parent.generation == 0) {
+                    stack.push(parent);
+                    ready = false;
+                } else {
+                    generation = Math.max(generation, parent.generation + 1);
+                }
+            }
+
+            if (ready) {
+                node.generation = generation;
+                stack.pop();
+            }
+        }
+    }
+
+    private static void writeFile(Path file, List<Node> nodes)
+            throws IOException {
+
+        ByteBuffer fanOut = ByteBuffer.allocate(FAN_OUT_SIZE * Integer.BYTES);
+        ByteBuffer ids = ByteBuffer.allocate(nodes.size() * ID_LENGTH);
+        ByteBuffer data = ByteBuffer.allocate(nodes.size() * DATA_SIZE);
+        List<Integer> edges = new ArrayList<Integer>();
+
+        int position = 0;
+        for (int first = 0; first < FAN_OUT_SIZE; first++) {
+            while (position < nodes.size()
+                    && (nodes.get(position).id[0] & 0xff) <= first) {
+                position++;
+            }
+            fanOut.putInt(position);
+        }
+
+        for (Node node : nodes) {
+            ids.put(node.id);
+            data.put(SecureHashUtil.decode(node.tree));
+
+            Node[] parents = node.parentNodes;
+            data.putInt(parents.length > 0 ? parents[0].position : NO_PARENT);
+            if (parents.length <= 2) {
+                data.putInt(parents.length == 2 ? parents[1].position
+                        : NO_PARENT);
+            } else {
+                data.putInt(EXTRA_EDGES | edges.size());
+                for (int i = 1; i < parents.length; i++) {
+                    edges.add(i == parents.length - 1
+                            ? parents[i].position | LAST_EDGE
+                            : parents[i].position);
+                }
+            }
+            data.putInt(node.generation);
+            data.putLong(node.time);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(nodes.size())
+                .putInt(edges.size());
+        ByteBuffer extra = ByteBuffer.allocate(edges.size() * Integer.BYTES);
+        edges.forEach(extra::putInt);
+
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), "tmp_", ".graph");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.WRITE)) {
+            for (ByteBuffer buffer : Arrays.asList(header, fanOut, ids, data,
+                    extra)) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * This class is a commit of the graph to be written.
+     */
+    private static final class Node {
+
+        final String hash;
+        final byte[] id;
+        final String tree;
+        final String[] parents;
+        final long time;
+        Node[] parentNodes;
+        int position;
+        int generation;
+
+        Node(String hash, String tree, String[] parents, long time) {
+            this.hash = hash;
+            this.id = SecureHashUtil.decode(hash);
+            this.tree = tree;
+            this.parents = parents;
+            this.time = time;
+        }
+    }
+}
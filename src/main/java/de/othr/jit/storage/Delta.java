@@ -0,0 +1,277 @@
+package de.othr.jit.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class computes and applies deltas between two versions of
+ * an object.
+ * <p>
+ * A delta starts with the length of the base and the length of the
+ * result. It is followed by instructions, which either copy a range
+ * of the base (op 1, offset, length) or insert new bytes (op 2,
+ * length, bytes). All numbers are stored as variable length integers
+ * with seven bits per byte.
+ * <p>
+ * The base is indexed by the hash of every aligned block of 16 bytes.
+ * The target is scanned with a rolling hash, so a match is found
+ * at any position of the target.
+ * @author codemonkey500
+ *
+ */
+public final class Delta {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int MULTIPLIER = 31;
+    private static final byte OP_COPY = 1;
+    private static final byte OP_INSERT = 2;
+    //Longer inserts are split, so a reader needs no large buffer
+    private static final int MAX_INSERT = 64 * 1024;
+
+    //MULTIPLIER^BLOCK_SIZE, used to remove a byte from the rolling hash
+    private static final int REMOVE_FACTOR;
+
+    static {
+        int factor = 1;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            factor *= MULTIPLIER;
+        }
+        REMOVE_FACTOR = factor;
+    }
+
+    private Delta() {
+    }
+
+    /**
+     * This method computes the delta, which turns the base
+     * into the target.
+     * @param base - content of the base object
+     * @param target - content of the new object
+     * @return - the delta
+     */
+    public static byte[] create(byte[] base, byte[] target) {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                target.length / 4 + 16);
+        writeVarInt(out, base.length);
+        writeVarInt(out, target.length);
+
+        BlockIndex index = new BlockIndex(base);
+        int insertStart = 0;
+        int position = 0;
+        int hash = target.length >= BLOCK_SIZE
+                ? hash(target, 0) : 0;
+
+        while (position + BLOCK_SIZE <= target.length) {
+
+            int match = index.find(hash, base, target, position);
+
+            if (match >= 0) {
+                int length = BLOCK_SIZE;
+                while (position + length < target.length
+                        && match + length < base.length
+                        && base[match + length]
+                                == target[position + length]) {
+                    length++;
+                }
+
+                //Extend the match backwards into the pending insert
+                while (position > insertStart && match > 0
+                        && base[match - 1] == target[position - 1]) {
+                    position--;
+                    match--;
+                    length++;
+                }
+
+                writeInsert(out, target, insertStart, position);
+                out.write(OP_COPY);
+                writeVarInt(out, match);
+                writeVarInt(out, length);
+
+                position += length;
+                insertStart = position;
+                if (position + BLOCK_SIZE <= target.length) {
+                    hash = hash(target, position);
+                }
+                continue;
+            }
+
+            //Roll the hash one byte further
+            if (position + BLOCK_SIZE < target.length) {
+                hash = hash * MULTIPLIER
+                        + (target[position + BLOCK_SIZE] & 0xff)
+                        - REMOVE_FACTOR * (target[position] & 0xff);
+            }
+            position++;
+        }
+
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * This method applies a delta to its base.
+     * @param base - content of the base object
+     * @param delta - computed by {@link #create(byte[], byte[])}
+     * @return - content of the new object
+     * @throws IOException - if the delta does not match the base
+     */
+    public static byte[] apply(byte[] base, byte[] delta) throws IOException {
+
+        ByteBuffer in = ByteBuffer.wrap(delta);
+
+        try {
+            if (readVarInt(in) != base.length) {
+                throw new IOException("Delta does not match its base");
+            }
+
+            byte[] result = new byte[readVarInt(in)];
+            int position = 0;
+
+            while (in.hasRemaining()) {
+                byte op = in.get();
+                if (op == OP_COPY) {
+                    int offset = readVarInt(in);
+                    int length = readVarInt(in);
+                    System.arraycopy(base, offset, result, position, length);
+                    position += length;
+                } else if (op == OP_INSERT) {
+                    int length = readVarInt(in);
+                    in.get(result, position, length);
+                    position += length;
+                } else {
+                    throw new IOException("Unknown delta instruction " + op);
+                }
+            }
+
+            if (position != result.length) {
+                throw new IOException("Delta is incomplete");
+            }
+            return result;
+
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt delta", e);
+        }
+    }
+
+    /**
+     * This method reads the length of the new object from the start
+     * of a delta, so the delta does not have to be applied.
+     * @param delta - the start of a delta, at least its two lengths
+     * @return - length of the new object
+     * @throws IOException - if the lengths are incomplete
+     */
+    static int resultLength(byte[] delta) throws IOException {
+
+        ByteBuffer in = ByteBuffer.wrap(delta);
+
+        try {
+            readVarInt(in);
+            return readVarInt(in);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt delta", e);
+        }
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data,
+            int start, int end) {
+
+        for (int from = start; from < end; from += MAX_INSERT) {
+            int length = Math.min(MAX_INSERT, end - from);
+            out.write(OP_INSERT);
+            writeVarInt(out, length);
+            out.write(data, from, length);
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+
+        int value = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = in.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    private static int hash(byte[] data, int start) {
+
+        int hash = 0;
+        for (int i = start; i < start + BLOCK_SIZE; i++) {
+            hash = hash * MULTIPLIER + (data[i] & 0xff);
+        }
+        return hash;
+    }
+
+    /**
+     * This class is a hash table of the aligned blocks of the base.
+     * Blocks with the same hash are chained through an array, so no
+     * object is allocated per block.
+     */
+    private static class BlockIndex {
+
+        //Blocks compared per lookup, limits the cost of repeated data
+        private static final int MAX_CHAIN = 64;
+
+        private final int[] heads;
+        private final int[] next;
+        private final int mask;
+
+        BlockIndex(byte[] base) {
+
+            int blocks = base.length / BLOCK_SIZE;
+            int size = Integer.highestOneBit(Math.max(blocks, 1) * 2);
+
+            this.heads = new int[size];
+            this.next = new int[Math.max(blocks, 1)];
+            this.mask = size - 1;
+            Arrays.fill(heads, -1);
+
+            //Later blocks are inserted first, so the chain is ascending
+            for (int block = blocks - 1; block >= 0; block--) {
+                int slot = spread(hash(base, block * BLOCK_SIZE)) & mask;
+                next[block] = heads[slot];
+                heads[slot] = block;
+            }
+        }
+
+        /**
+         * @return - offset of a base block equal to the target block
+         *         or -1, if there is none
+         */
+        int find(int hash, byte[] base, byte[] target, int position) {
+
+            int block = heads[spread(hash) & mask];
+
+            for (int i = 0; block >= 0 && i < MAX_CHAIN; i++) {
+                int offset = block * BLOCK_SIZE;
+                if (Arrays.equals(base, offset, offset + BLOCK_SIZE,
+                        target, position, position + BLOCK_SIZE)) {
+                    return offset;
+                }
+                block = next[block];
+            }
+            return -1;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
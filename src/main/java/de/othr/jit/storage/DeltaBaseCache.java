@@ -0,0 +1,70 @@
+package de.othr.jit.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caches the content of objects, which were read to
+ * resolve a delta. Objects of a delta chain are often bases of
+ * other deltas, so they do not have to be inflated again.
+ * The least recently used objects are removed, when the cache
+ * holds more bytes than allowed.
+ * @author codemonkey500
+ *
+ */
+class DeltaBaseCache {
+
+    private final long maxBytes;
+    private final Map<Long, Content> entries;
+    private long bytes;
+
+    DeltaBaseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<Long, Content>(16, 0.75f, true);
+    }
+
+    /**
+     * @param offset - of the object in the pack
+     * @return - the cached content or null
+     */
+    synchronized Content get(long offset) {
+        return entries.get(offset);
+    }
+
+    /**
+     * This method adds the content of an object. Objects larger than
+     * the cache are not stored.
+     * @param offset - of the object in the pack
+     * @param content - of the object
+     */
+    synchronized void put(long offset, Content content) {
+
+        if (content.data.length > maxBytes) {
+            return;
+        }
+
+        Content old = entries.put(offset, content);
+        bytes += content.data.length - (old == null ? 0 : old.data.length);
+
+        Iterator<Content> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().data.length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * This class holds the type and the inflated data of an object.
+     */
+    static class Content {
+
+        final String type;
+        final byte[] data;
+
+        Content(String type, byte[] data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,771 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.utility.SecureHashUtil;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class represents the object store in the .jit directory.
+ * Every object is stored compressed in a file named after its
+ * hash value, inside a directory named after the first two
+ * characters of the hash. Objects can be moved into packs, which are
+ * read through memory mappings, see {@link PackFile}.
+ * The compressed data starts with a header of the object type and
+ * the length of the content, e.g. "blob 42\0".
+ * Large files are stored as "chunked" object, a list of the hash
+ * value and length of their chunks, one per line.
+ * @author codemonkey500
+ *
+ */
+public class ObjectStore {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(ObjectStore.class.getName());
+
+    private static final String TEMP_PREFIX = "tmp_";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int FAN_OUT_LENGTH = 2;
+    private static final String PACK_FOLDER_NAME = "pack";
+    //An encoded SHA-1 value
+    private static final Pattern HASH_PATTERN = Pattern
+            .compile("[A-Za-z0-9_-]{27}=");
+
+    //Packs mapped by any store, keyed by their index file
+    private static final Map<Path, PackFile> OPEN_PACKS =
+            new ConcurrentHashMap<Path, PackFile>();
+
+    private final String folder;
+    private final long chunkThreshold;
+    private volatile List<PackFile> packs;
+    private volatile FileTime packsModified;
+
+    public ObjectStore() {
+        this(PATH_OBJECTS_FOLDER);
+    }
+
+    public ObjectStore(String folder) {
+        this(folder, CHUNK_THRESHOLD);
+    }
+
+    /**
+     * @param folder - of the objects
+     * @param chunkThreshold - files larger than this are stored in
+     *        chunks, a value of 0 or less disables chunking
+     */
+    public ObjectStore(String folder, long chunkThreshold) {
+        this.folder = folder;
+        this.chunkThreshold = chunkThreshold;
+    }
+
+    /**
+     * This method is used to store the content of a file as blob.
+     * The file is read only once, it is hashed while it is compressed
+     * into a temporary file. If the store already contains a blob with
+     * this hash, the temporary file is dropped.
+     * @param file - pointing to the file in the working directory
+     * @return - the hash value of the blob
+     * @throws IOException - if the file can not be read or the blob
+     *         can not be written
+     */
+    public String writeBlob(Path file) throws IOException {
+
+        return writeBlob(file, null);
+    }
+
+    /**
+     * This method is used to store the content of an already
+     * hashed file as blob.
+     * If the store already contains the blob, the file is not read.
+     * Otherwise the file is streamed through the compressor and hashed
+     * again, so the stored blob always matches the returned hash value,
+     * even if the file was changed since it was hashed.
+     * @param file - pointing to the file in the working directory
+     * @param hash - of the files content or null, if it is not known
+     * @return - the hash value of the stored blob
+     * @throws IOException - if the file can not be read or the blob
+     *         can not be written
+     */
+    public String writeBlob(Path file, String hash) throws IOException {
+
+        if (hash != null && contains(hash)) {
+            Metrics.count("objects.skipped", 1);
+            return hash;
+        }
+
+        if (isChunked(file)) {
+            return writeChunkedBlob(file);
+        }
+
+        MessageDigest md = SecureHashUtil.getDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        Path temp = createTemporary();
+
+        try {
+            try (InputStream in = Files.newInputStream(file);
+                    OutputStream out = openCompressed(temp)) {
+                long size = Files.size(file);
+                ObjectStream.writeHeader(out, OBJECT_TYPE_BLOB, size);
+
+                long copied = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    copied += read;
+                    if (copied > size) {
+                        break;
+                    }
+                    md.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                }
+                //The header has to match the content
+                if (copied != size) {
+                    throw new IOException(file
+                            + " was changed while it was stored");
+                }
+            }
+
+            String written = SecureHashUtil.encode(md.digest());
+            if (contains(written)) {
+                Files.delete(temp);
+                Metrics.count("objects.skipped", 1);
+            } else {
+                moveToObject(temp, written);
+            }
+            return written;
+        } catch (IOException e) {
+            md.reset();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * This method stores a large file in content-defined chunks.
+     * Every chunk is stored as blob, which already exists only once.
+     * The file itself is stored as list of its chunks under the hash
+     * of its whole content, so the MerkleTree does not see a
+     * difference to a single blob.
+     * The file is read only once, it is hashed while it is split.
+     * @param file - pointing to the file in the working directory
+     * @return - the hash value of the whole content
+     * @throws IOException - if the file can not be read or an object
+     *         can not be written
+     */
+    private String writeChunkedBlob(Path file) throws IOException {
+
+        MessageDigest md = SecureHashUtil.newDigest();
+        StringBuilder chunks = new StringBuilder();
+
+        try (InputStream in = Files.newInputStream(file)) {
+            Chunker.split(in, (buffer, offset, length) -> {
+                md.update(buffer, offset, length);
+                byte[] chunk = Arrays.copyOfRange(buffer, offset,
+                        offset + length);
+                String chunkHash = SecureHashUtil.computeHash(chunk);
+
+                if (!contains(chunkHash)) {
+                    moveToObject(writeTemporary(OBJECT_TYPE_BLOB, chunk),
+                            chunkHash);
+                }
+                chunks.append(chunkHash).append(' ').append(length)
+                        .append('\n');
+            });
+        }
+
+        String hash = SecureHashUtil.encode(md.digest());
+        if (!contains(hash)) {
+            moveToObject(writeTemporary(OBJECT_TYPE_CHUNKED, chunks
+                    .toString().getBytes(StandardCharsets.UTF_8)), hash);
+        }
+        return hash;
+    }
+
+    private boolean isChunked(Path file) {
+
+        try {
+            return chunkThreshold > 0 && Files.size(file) > chunkThreshold;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This method is used to restore a blob in the working directory.
+     * The blob is inflated while it is written, an existing file
+     * will be overwritten. A blob stored in chunks is reassembled.
+     * @param hash - of the blob
+     * @param target - pointing to the file in the working directory
+     * @return - true, if the file was written
+     */
+    public boolean copyBlob(String hash, Path target) {
+
+        try (ObjectStream in = openContent(hash)) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not restore blob " + hash, e);
+            return false;
+        }
+    }
+
+    /**
+     * This method is used to open the content of an object.
+     * Unlike {@link #openObject(String)} a blob stored in chunks is
+     * returned as a single blob, its chunks are read one after another.
+     * @param hash - of the object
+     * @return - a stream of the content, the caller has to close it
+     * @throws IOException - if the object can not be read
+     */
+    public ObjectStream openContent(String hash) throws IOException {
+
+        ObjectStream in = openObject(hash);
+
+        if (!OBJECT_TYPE_CHUNKED.equals(in.getType())) {
+            return in;
+        }
+
+        List<String> hashes = new ArrayList<String>();
+        long size = readChunks(in, hashes);
+
+        return new ObjectStream(OBJECT_TYPE_BLOB, size,
+                new ChunkInputStream(hashes));
+    }
+
+    /**
+     * This method is used to get the chunks of a blob.
+     * @param hash - of the blob
+     * @return - the hash values of its chunks or an empty list, if the
+     *         blob is not stored in chunks
+     * @throws IOException - if the object can not be read
+     */
+    List<String> listChunks(String hash) throws IOException {
+
+        List<String> hashes = new ArrayList<String>();
+        try (ObjectStream in = openObject(hash)) {
+            if (OBJECT_TYPE_CHUNKED.equals(in.getType())) {
+                readChunks(in, hashes);
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * This private method reads the list of a chunked object.
+     * @param list - the opened chunked object, it will be closed
+     * @param hashes - receiving the hash values of the chunks
+     * @return - the length of the whole content
+     */
+    private static long readChunks(ObjectStream list, List<String> hashes)
+            throws IOException {
+
+        String chunks;
+        try (ObjectStream in = list) {
+            chunks = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        long size = 0;
+        for (String line : chunks.split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int blank = line.indexOf(' ');
+            hashes.add(line.substring(0, blank));
+            size += Long.parseLong(line.substring(blank + 1));
+        }
+        return size;
+    }
+
+    /**
+     * This method is used to store an object.
+     * An already existing object will not be overwritten.
+     * @param hash - of the object
+     * @param type - e.g. "tree"
+     * @param data - content of the object
+     */
+    public void writeObject(String hash, String type, String data) {
+
+        writeObject(hash, type, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * This method is used to store an object.
+     * The compressed data is written to a temporary file first, which
+     * is moved to its final name afterwards. So a reader never sees a
+     * half written object. An already existing object will not be
+     * overwritten.
+     * @param hash - of the object
+     * @param type - e.g. "tree"
+     * @param data - content of the object
+     */
+    public void writeObject(String hash, String type, byte[] data) {
+
+        if (contains(hash)) {
+            Metrics.count("objects.skipped", 1);
+            return;
+        }
+
+        try {
+            Path temp = writeTemporary(type, data);
+            moveToObject(temp, hash);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not write object " + hash, e);
+        }
+    }
+
+    /**
+     * This method writes a compressed object to a new temporary
+     * file in the objects folder. The file is not synced to disk.
+     * @param type - e.g. "tree"
+     * @param data - content of the object
+     * @return - path of the temporary file
+     * @throws IOException - if the file can not be written
+     */
+    Path writeTemporary(String type, byte[] data) throws IOException {
+
+        Path temp = createTemporary();
+        try (OutputStream out = openCompressed(temp)) {
+            ObjectStream.writeHeader(out, type, data.length);
+            out.write(data);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    private Path createTemporary() throws IOException {
+
+        return Files.createTempFile(Paths.get(folder), TEMP_PREFIX,
+                TEMP_SUFFIX);
+    }
+
+    /**
+     * This private method opens a stream, which compresses everything
+     * written to the file with the configured compression level.
+     */
+    private static OutputStream openCompressed(Path file)
+            throws IOException {
+
+        return compress(Files.newOutputStream(file));
+    }
+
+    /**
+     * This method wraps a stream, so everything written to it is
+     * compressed with the configured compression level.
+     * @param out - stream receiving the compressed data
+     * @return - the compressing stream, closing it closes out aswell
+     */
+    static OutputStream compress(OutputStream out) {
+
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    //A deflater passed to the stream is not freed by it
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * This method moves a temporary file atomically to the final
+     * name of an object.
+     * @param temp - path of the temporary file
+     * @param hash - of the object
+     * @throws IOException - if the file can not be moved
+     */
+    void moveToObject(Path temp, String hash) throws IOException {
+
+        try {
+            Path object = Paths.get(buildFileName(hash));
+            Files.createDirectories(object.getParent());
+            Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+            Metrics.count("objects.written", 1);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * This method is used to open an object for reading. The content
+     * is inflated while it is read.
+     * @param hash - of the object
+     * @return - a stream of the content, the caller has to close it
+     * @throws IOException - if the object can not be read
+     */
+    public ObjectStream openObject(String hash) throws IOException {
+
+        if (!isValidHash(hash)) {
+            throw new NoSuchFileException(hash);
+        }
+
+        try {
+            return new ObjectStream(Paths.get(buildFileName(hash)));
+        } catch (NoSuchFileException e) {
+            byte[] id = SecureHashUtil.decode(hash);
+            PackFile pack = findPack(id);
+            if (pack == null) {
+                throw e;
+            }
+            return pack.open(id);
+        }
+    }
+
+    /**
+     * This method is used to read the type and the length of an
+     * object. Only the header is inflated, a packed delta is not
+     * applied.
+     * @param hash - of the object
+     * @return - the header of the object
+     * @throws IOException - if the object can not be read
+     */
+    public ObjectStream.Header readHeader(String hash) throws IOException {
+
+        if (!isValidHash(hash)) {
+            throw new NoSuchFileException(hash);
+        }
+
+        Path file = Paths.get(buildFileName(hash));
+
+        //Unbuffered, only the first block of the file is read
+        try (ObjectStream in = new ObjectStream(Files.newInputStream(file),
+                file.toString())) {
+            return new ObjectStream.Header(in.getType(), in.getSize());
+        } catch (NoSuchFileException e) {
+            byte[] id = SecureHashUtil.decode(hash);
+            PackFile pack = findPack(id);
+            if (pack == null) {
+                throw e;
+            }
+            return pack.readHeader(id);
+        }
+    }
+
+    /**
+     * This method is used to read an object.
+     * @param hash - of the object
+     * @return - content of the object or an empty String, if the
+     *         object can not be read
+     */
+    public String readObject(String hash) {
+
+        try (ObjectStream in = openObject(hash)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read object " + hash, e);
+            return "";
+        }
+    }
+
+    /**
+     * Use this method to check wether an object exists.
+     * Only the file of the object and the indexes of the packs are
+     * looked up, so the check does not depend on the number of
+     * stored objects.
+     * @param hash - of the object
+     * @return - true, if the object is stored
+     */
+    public boolean contains(String hash) {
+
+        return isValidHash(hash)
+                && (Files.exists(Paths.get(buildFileName(hash)))
+                        || findPack(SecureHashUtil.decode(hash)) != null);
+    }
+
+    /**
+     * Use this method to get the hash values of all loose objects,
+     * objects stored in packs are not listed.
+     * Every fan-out directory is listed, so this is expensive on
+     * large stores.
+     * @return - a list of the hash values
+     */
+    public List<String> listLooseObjects() {
+
+        List<String> hashes = new ArrayList<String>();
+
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(
+                Paths.get(folder), dir -> Files.isDirectory(dir)
+                        && dir.getFileName().toString()
+                                .length() == FAN_OUT_LENGTH)) {
+            for (Path dir : dirs) {
+                String prefix = dir.getFileName().toString();
+                try (DirectoryStream<Path> objects = Files
+                        .newDirectoryStream(dir)) {
+                    for (Path object : objects) {
+                        String hash = prefix + object.getFileName();
+                        if (isValidHash(hash)) {
+                            hashes.add(hash);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not list objects", e);
+        }
+
+        return hashes;
+    }
+
+    /**
+     * This method deletes loose objects, e.g. after they were packed.
+     * Fan-out directories, which are empty afterwards, are deleted
+     * aswell.
+     * @param hashes - of the loose objects
+     */
+    public void deleteLooseObjects(Collection<String> hashes) {
+
+        Set<Path> dirs = new HashSet<Path>();
+
+        for (String hash : hashes) {
+            Path object = Paths.get(buildFileName(hash));
+            try {
+                Files.deleteIfExists(object);
+                dirs.add(object.getParent());
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not delete object " + hash, e);
+            }
+        }
+
+        for (Path dir : dirs) {
+            try {
+                Files.deleteIfExists(dir);
+            } catch (DirectoryNotEmptyException e) {
+                //Still contains objects, which were not deleted
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not delete " + dir, e);
+            }
+        }
+    }
+
+    /**
+     * Use this method to get all packs of the store.
+     * @return - the packs, which are currently mapped
+     */
+    public List<PackFile> getPacks() {
+
+        return loadPacks();
+    }
+
+    /**
+     * This method deletes packs, e.g. after their objects were
+     * written into a new pack. The index is deleted first, so a
+     * reader never finds an index without its pack.
+     * @param oldPacks - to be deleted
+     */
+    public void deletePacks(Collection<PackFile> oldPacks) {
+
+        for (PackFile pack : oldPacks) {
+            try {
+                OPEN_PACKS.remove(pack.getIndexFile());
+                Files.deleteIfExists(pack.getIndexFile());
+                Files.deleteIfExists(pack.getPackFile());
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not delete "
+                        + pack.getPackFile(), e);
+            }
+        }
+    }
+
+    /**
+     * This private method looks up an object in the packs. If it is
+     * not found, the packs are loaded again in case a new pack was
+     * written meanwhile.
+     * @return - the pack containing the object or null
+     */
+    private PackFile findPack(byte[] id) {
+
+        List<PackFile> current = packs;
+        if (current == null) {
+            current = loadPacks();
+        }
+
+        for (PackFile pack : current) {
+            if (pack.contains(id)) {
+                return pack;
+            }
+        }
+
+        List<PackFile> reloaded = loadPacks();
+        if (reloaded != current) {
+            for (PackFile pack : reloaded) {
+                if (pack.contains(id)) {
+                    return pack;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This private method maps all packs of the pack folder. The
+     * folder is listed again only, if it was changed. A pack is mapped
+     * only once, even if several stores are used.
+     * @return - the current packs
+     */
+    private synchronized List<PackFile> loadPacks() {
+
+        Path dir = Paths.get(getPackFolder());
+        FileTime modified;
+
+        try {
+            modified = Files.getLastModifiedTime(dir);
+        } catch (IOException e) {
+            //No packs were written yet
+            packs = Collections.emptyList();
+            packsModified = null;
+            return packs;
+        }
+
+        if (packs != null && modified.equals(packsModified)) {
+            return packs;
+        }
+
+        List<PackFile> loaded = new ArrayList<PackFile>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                "*" + PackWriter.INDEX_SUFFIX)) {
+            for (Path indexFile : files) {
+                PackFile pack = OPEN_PACKS.get(indexFile);
+                if (pack == null) {
+                    pack = new PackFile(indexFile);
+                    OPEN_PACKS.put(indexFile, pack);
+                }
+                loaded.add(pack);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read packs", e);
+        }
+
+        packs = loaded;
+        packsModified = modified;
+        return loaded;
+    }
+
+    /**
+     * This method is used to connect the file name and
+     * the correct path to the objects folder.
+     * The first two characters of the hash name a fan-out directory,
+     * so no directory holds too many objects,
+     * e.g. "objects/ab/cdef...". Like git, the file name has no
+     * suffix, the content is a deflated object.
+     * @param hash - of the JitObject
+     * @return - Path and file name as String to create the file
+     */
+    public String buildFileName(String hash) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(folder);
+        sb.append("/");
+        sb.append(hash, 0, FAN_OUT_LENGTH);
+        sb.append("/");
+        sb.append(hash, FAN_OUT_LENGTH, hash.length());
+
+        return sb.toString();
+    }
+
+    /**
+     * This private method checks, if a String can be a hash value.
+     * Hash values from the command line are checked before they are
+     * used as file name.
+     */
+    private static boolean isValidHash(String hash) {
+
+        return hash != null && HASH_PATTERN.matcher(hash).matches();
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    /**
+     * Use this method to get the folder of the packs.
+     * @return - e.g. ".jit/objects/pack"
+     */
+    public String getPackFolder() {
+        return folder + "/" + PACK_FOLDER_NAME;
+    }
+
+    /**
+     * This class reads the chunks of a blob in order. Only one chunk
+     * is open at a time.
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private final Iterator<String> hashes;
+        private ObjectStream chunk;
+
+        ChunkInputStream(List<String> hashes) {
+            this.hashes = hashes.iterator();
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            while (true) {
+                if (chunk == null) {
+                    if (!hashes.hasNext()) {
+                        return -1;
+                    }
+                    chunk = openObject(hashes.next());
+                }
+
+                int n = chunk.read(b, off, len);
+                if (n >= 0) {
+                    return n;
+                }
+                chunk.close();
+                chunk = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (chunk != null) {
+                chunk.close();
+                chunk = null;
+            }
+        }
+    }
+}
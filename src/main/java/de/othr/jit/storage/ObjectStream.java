@@ -0,0 +1,174 @@
+package de.othr.jit.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class reads a compressed object of the object store.
+ * The header is read when the stream is opened, afterwards the
+ * stream returns the inflated content of the object.
+ * @author codemonkey500
+ *
+ */
+public class ObjectStream extends FilterInputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    //Longest header is the type, a space and a long value
+    private static final int MAX_HEADER_LENGTH = 32;
+
+    private final String type;
+    private final long size;
+
+    /**
+     * This constructor opens an object file and reads its header.
+     * @param file - pointing to the object
+     * @throws IOException - if the file can not be read or its
+     *         header is corrupt
+     */
+    public ObjectStream(Path file) throws IOException {
+
+        this(new BufferedInputStream(Files.newInputStream(file),
+                BUFFER_SIZE), file.toString());
+    }
+
+    /**
+     * This constructor reads the header of a compressed object
+     * from a stream, e.g. an object stored in a pack.
+     * @param compressed - stream of the compressed object
+     * @param name - of the object, used for error messages
+     * @throws IOException - if the header is corrupt
+     */
+    public ObjectStream(InputStream compressed, String name)
+            throws IOException {
+
+        super(new InflaterInputStream(compressed));
+
+        try {
+            String[] header = readHeader().split(" ");
+            if (header.length != 2) {
+                throw new IOException("Corrupt object header in " + name);
+            }
+            this.type = header[0];
+            this.size = Long.parseLong(header[1]);
+        } catch (IOException | NumberFormatException e) {
+            close();
+            throw e instanceof IOException ? (IOException) e
+                    : new IOException("Corrupt object header in " + name, e);
+        }
+    }
+
+    /**
+     * This constructor creates a stream of an object, which is
+     * already inflated, e.g. an object resolved from a delta.
+     * @param type - e.g. "blob"
+     * @param content - of the object
+     */
+    ObjectStream(String type, byte[] content) {
+
+        super(new ByteArrayInputStream(content));
+        this.type = type;
+        this.size = content.length;
+    }
+
+    /**
+     * This constructor creates a stream of an object, which is
+     * read from another stream, e.g. the chunks of a blob.
+     * @param type - e.g. "blob"
+     * @param size - length of the content in bytes
+     * @param content - stream of the inflated content
+     */
+    ObjectStream(String type, long size, InputStream content) {
+
+        super(content);
+        this.type = type;
+        this.size = size;
+    }
+
+    /**
+     * This method writes the header of an object.
+     * @param out - stream of the object
+     * @param type - e.g. "blob"
+     * @param size - length of the content in bytes
+     * @throws IOException - if the header can not be written
+     */
+    static void writeHeader(OutputStream out, String type, long size)
+            throws IOException {
+
+        out.write((type + " " + size + "\0")
+                .getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Use this method to get the type of the object.
+     * @return - e.g. "blob", "tree" or "commit"
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Use this method to get the length of the content.
+     * @return - the length in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * This class holds the header of an object, which is read
+     * without reading its content.
+     */
+    public static class Header {
+
+        private final String type;
+        private final long size;
+
+        Header(String type, long size) {
+            this.type = type;
+            this.size = size;
+        }
+
+        /**
+         * Use this method to get the type of the object.
+         * @return - e.g. "blob", "tree" or "commit"
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Use this method to get the length of the content.
+         * @return - the length in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+
+    private String readHeader() throws IOException {
+
+        StringBuilder sb = new StringBuilder();
+        int b;
+
+        while ((b = in.read()) > 0) {
+            if (sb.length() == MAX_HEADER_LENGTH) {
+                throw new IOException("Object header too long");
+            }
+            sb.append((char) b);
+        }
+
+        if (b < 0) {
+            throw new IOException("Object header not terminated");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,251 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import de.othr.jit.metrics.Metrics;
+
+/**
+ * This class writes a batch of objects through a bounded pool
+ * of worker threads.
+ * <p>
+ * Every object is written to a temporary file first. When the batch
+ * is finished, all temporary files are synced to disk at once and
+ * then renamed to their final names, so a commit costs one sync
+ * barrier instead of one per object. Objects stored earlier without
+ * a sync, e.g. the blobs written by the add command, can join the
+ * barrier with {@link #sync(String)}. If a write or a sync fails,
+ * nothing is renamed and all temporary files are deleted.
+ * @author codemonkey500
+ *
+ */
+public class ObjectWriter {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(ObjectWriter.class.getName());
+
+    private final ObjectStore objectStore;
+    private final ExecutorService executor;
+    private final Set<String> submitted;
+    private final List<Future<?>> writes;
+    private final Map<String, Path> written;
+    //Stored objects to be synced by the barrier
+    private final Set<String> synced;
+    private final AtomicInteger skipped;
+    //Set, once the temporary files of a failed batch are deleted
+    private volatile boolean discarded;
+
+    public ObjectWriter(ObjectStore objectStore, int threads) {
+        this.objectStore = objectStore;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        this.submitted = ConcurrentHashMap.newKeySet();
+        this.writes = new ArrayList<Future<?>>();
+        this.written = new ConcurrentHashMap<String, Path>();
+        this.synced = new HashSet<String>();
+        this.skipped = new AtomicInteger();
+    }
+
+    /**
+     * This method is used to add an object to the batch.
+     * Objects, which already exist in the store or were already
+     * submitted, are skipped.
+     * @param hash - of the object
+     * @param type - e.g. "tree"
+     * @param data - content of the object
+     */
+    public void submit(String hash, String type, byte[] data) {
+
+        if (!submitted.add(hash) || objectStore.contains(hash)) {
+            skipped.incrementAndGet();
+            Metrics.count("objects.skipped", 1);
+            return;
+        }
+
+        writes.add(executor.submit(() -> {
+            written.put(hash, objectStore.writeTemporary(type, data));
+            //A write finishing after a failed batch is deleted aswell
+            if (discarded) {
+                discard(hash);
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * This method is used to add an already stored object to the sync
+     * barrier of the batch. A loose object and its chunks are synced
+     * to disk, packed objects are synced when the pack is written.
+     * @param hash - of the object
+     */
+    public void sync(String hash) {
+
+        if (submitted.add(hash)) {
+            synced.add(hash);
+        }
+    }
+
+    /**
+     * This method is used to wait for all writes of the batch.
+     * The temporary files and the objects to be synced are synced to
+     * disk in parallel, the temporary files are moved to their final
+     * names and every touched folder is synced once.
+     * If a write or a sync failed, no object is renamed and the
+     * temporary files are deleted.
+     * Afterwards the writer can not be used anymore.
+     * @return - true, if all objects were written
+     */
+    public boolean finish() {
+
+        boolean success = await(writes);
+        Set<Path> dirs = ConcurrentHashMap.newKeySet();
+
+        try {
+            //Sync barrier for all objects of the batch
+            List<Callable<Object>> syncs = new ArrayList<Callable<Object>>();
+            for (Path temp : written.values()) {
+                syncs.add(() -> {
+                    force(temp);
+                    return null;
+                });
+            }
+            for (String hash : synced) {
+                syncs.add(() -> {
+                    List<String> hashes = new ArrayList<String>(
+                            objectStore.listChunks(hash));
+                    hashes.add(hash);
+                    for (String object : hashes) {
+                        Path file = Paths.get(objectStore
+                                .buildFileName(object));
+                        if (Files.exists(file)) {
+                            force(file);
+                            dirs.add(file.getParent());
+                        }
+                    }
+                    return null;
+                });
+            }
+            success &= await(executor.invokeAll(syncs));
+            if (!success) {
+                LOGGER.severe("The objects of the batch are not stored");
+                return false;
+            }
+
+            for (Map.Entry<String, Path> object : written.entrySet()) {
+                try {
+                    objectStore.moveToObject(object.getValue(),
+                            object.getKey());
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE,
+                            "Could not write object " + object.getKey(), e);
+                    success = false;
+                }
+            }
+
+            //Sync the renames in every touched fan-out directory
+            for (String hash : written.keySet()) {
+                dirs.add(Paths.get(objectStore.buildFileName(hash))
+                        .getParent());
+            }
+            dirs.add(Paths.get(objectStore.getFolder()));
+            for (Path dir : dirs) {
+                syncDirectory(dir);
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            success = false;
+        } finally {
+            executor.shutdown();
+            if (!success) {
+                discarded = true;
+                written.keySet().forEach(this::discard);
+            }
+        }
+
+        return success;
+    }
+
+    /**
+     * This private method deletes the temporary file of an object,
+     * which was not moved to its final name.
+     */
+    private void discard(String hash) {
+
+        Path temp = written.remove(hash);
+        if (temp == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not delete " + temp, e);
+        }
+    }
+
+    public int getWrittenCount() {
+        return written.size();
+    }
+
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+
+    private static boolean await(List<? extends Future<?>> futures) {
+
+        boolean success = true;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.SEVERE, "Could not write object",
+                        e.getCause());
+                success = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return success;
+    }
+
+    private static void force(Path file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * This method syncs the renames in a directory.
+     * Not every platform supports to sync a directory, in this
+     * case nothing will be done.
+     * @param dir - to be synced
+     */
+    static void syncDirectory(Path dir) {
+
+        try (FileChannel channel = FileChannel.open(dir,
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not sync " + dir, e);
+        }
+    }
+}
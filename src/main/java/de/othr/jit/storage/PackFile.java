@@ -0,0 +1,386 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+import de.othr.jit.utility.SecureHashUtil;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class reads a pack of the object store.
+ * <p>
+ * A pack consists of two files. The ".pack" file starts with a header
+ * (magic, version, number of objects) followed by the objects. Every
+ * object starts with a byte for its kind. A whole object is followed by
+ * the compressed object, exactly as it is stored as loose object.
+ * A delta is followed by the raw id of its base, which is stored in
+ * the same pack, and the compressed {@link Delta}.
+ * The ".idx" file starts with a header (magic, version, number of
+ * objects) and a fan-out table of 256 entries, which counts the ids
+ * up to every first byte. It is followed by the sorted raw ids, the
+ * offsets and the lengths of the objects in the pack.
+ * <p>
+ * Both files are memory-mapped, an object is found by a binary search
+ * in the fan-out range of its first byte and read from the mapping.
+ * Objects read to resolve a delta chain are kept in a
+ * {@link DeltaBaseCache}.
+ * @author codemonkey500
+ *
+ */
+public class PackFile {
+
+    static final int PACK_MAGIC = 0x4A50434B;
+    static final int INDEX_MAGIC = 0x4A504958;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 12;
+    static final int FAN_OUT_SIZE = 256;
+    static final int ID_LENGTH = 20;
+    static final byte KIND_OBJECT = 1;
+    static final byte KIND_DELTA = 2;
+    //Both lengths at the start of a delta take at most five bytes
+    private static final int DELTA_LENGTHS_SIZE = 10;
+
+    private final Path indexFile;
+    private final Path packFile;
+    private final ByteBuffer pack;
+    private final ByteBuffer index;
+    private final int count;
+    private final int idsStart;
+    private final int offsetsStart;
+    private final int lengthsStart;
+    private final DeltaBaseCache cache;
+
+    /**
+     * This constructor maps a pack and its index.
+     * @param indexFile - pointing to the ".idx" file
+     * @throws IOException - if one of the files is missing or corrupt
+     */
+    public PackFile(Path indexFile) throws IOException {
+
+        String name = indexFile.getFileName().toString();
+        this.indexFile = indexFile;
+        this.packFile = indexFile.resolveSibling(
+                name.substring(0, name.length() - PackWriter.INDEX_SUFFIX
+                        .length()) + PackWriter.PACK_SUFFIX);
+        this.index = map(indexFile);
+        this.pack = map(packFile);
+
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION
+                || pack.getInt(0) != PACK_MAGIC || pack.getInt(4) != VERSION) {
+            throw new IOException("Unsupported pack " + packFile);
+        }
+
+        this.count = index.getInt(8);
+        this.idsStart = HEADER_SIZE + FAN_OUT_SIZE * Integer.BYTES;
+        this.offsetsStart = idsStart + count * ID_LENGTH;
+        this.lengthsStart = offsetsStart + count * Long.BYTES;
+        this.cache = new DeltaBaseCache(DELTA_BASE_CACHE_SIZE);
+
+        if (pack.getInt(8) != count
+                || index.limit() != lengthsStart + count * Integer.BYTES) {
+            throw new IOException("Corrupt pack " + packFile);
+        }
+        //Every entry has to lie inside of the mapped pack
+        for (int i = 0; i < count; i++) {
+            long offset = offset(i);
+            int length = index.getInt(lengthsStart + i * Integer.BYTES);
+            if (offset < 0 || length < 0
+                    || offset + length > pack.limit()) {
+                throw new IOException("Corrupt pack " + packFile);
+            }
+        }
+    }
+
+    /**
+     * Use this method to check wether the pack contains an object.
+     * @param id - raw id of the object
+     * @return - true, if the object is part of the pack
+     */
+    public boolean contains(byte[] id) {
+
+        return search(id) >= 0;
+    }
+
+    /**
+     * This method is used to open an object of the pack.
+     * The object is read from the mapped pack file.
+     * @param id - raw id of the object
+     * @return - a stream of the content or null, if the object
+     *         is not part of the pack
+     * @throws IOException - if the object is corrupt
+     */
+    public ObjectStream open(byte[] id) throws IOException {
+
+        int position = search(id);
+
+        if (position < 0) {
+            return null;
+        }
+
+        ByteBuffer entry = entry(position);
+        byte kind = entry.get();
+
+        if (kind == KIND_OBJECT) {
+            return new ObjectStream(new BufferInputStream(entry.slice()),
+                    packFile.toString());
+        }
+
+        DeltaBaseCache.Content content = resolve(position, 0);
+        return new ObjectStream(content.type, content.data);
+    }
+
+    /**
+     * This method is used to read the type and the length of an
+     * object. A delta is not applied, its type is the one of its
+     * base and its length is read from the start of the delta.
+     * @param id - raw id of the object
+     * @return - the header or null, if the object is not part
+     *         of the pack
+     * @throws IOException - if the object is corrupt
+     */
+    public ObjectStream.Header readHeader(byte[] id) throws IOException {
+
+        int position = search(id);
+        return position < 0 ? null : readHeader(position, 0);
+    }
+
+    private ObjectStream.Header readHeader(int position, int depth)
+            throws IOException {
+
+        DeltaBaseCache.Content content = cache.get(offset(position));
+
+        if (content != null) {
+            return new ObjectStream.Header(content.type, content.data.length);
+        }
+
+        ByteBuffer entry = entry(position);
+        byte kind = entry.get();
+
+        if (kind == KIND_OBJECT) {
+            try (ObjectStream in = new ObjectStream(
+                    new BufferInputStream(entry.slice()),
+                    packFile.toString())) {
+                return new ObjectStream.Header(in.getType(), in.getSize());
+            }
+        } else if (kind != KIND_DELTA) {
+            throw new IOException("Unknown object kind in " + packFile);
+        }
+
+        byte[] baseId = new byte[ID_LENGTH];
+        entry.get(baseId);
+        int basePosition = search(baseId);
+
+        if (basePosition < 0 || depth > MAX_DELTA_DEPTH * 2) {
+            throw new IOException("Broken delta chain in " + packFile);
+        }
+
+        String type = readHeader(basePosition, depth + 1).getType();
+        try (InflaterInputStream in = new InflaterInputStream(
+                new BufferInputStream(entry.slice()))) {
+            return new ObjectStream.Header(type, Delta.resultLength(
+                    in.readNBytes(DELTA_LENGTHS_SIZE)));
+        }
+    }
+
+    /**
+     * Use this method to check wether an object is stored as delta.
+     * @param id - raw id of the object
+     * @return - true, if the object is a delta of another object
+     */
+    public boolean isDelta(byte[] id) {
+
+        int position = search(id);
+        return position >= 0 && entry(position).get() == KIND_DELTA;
+    }
+
+    /**
+     * This private method reads the content of an object. A delta is
+     * applied to its base, which is resolved the same way.
+     * @param position - of the object in the index
+     * @param depth - number of deltas resolved so far
+     */
+    private DeltaBaseCache.Content resolve(int position, int depth)
+            throws IOException {
+
+        long offset = offset(position);
+        DeltaBaseCache.Content content = cache.get(offset);
+
+        if (content != null) {
+            return content;
+        }
+
+        ByteBuffer entry = entry(position);
+        byte kind = entry.get();
+
+        if (kind == KIND_OBJECT) {
+            try (ObjectStream in = new ObjectStream(
+                    new BufferInputStream(entry.slice()),
+                    packFile.toString())) {
+                content = new DeltaBaseCache.Content(in.getType(),
+                        in.readAllBytes());
+            }
+        } else if (kind == KIND_DELTA) {
+            byte[] baseId = new byte[ID_LENGTH];
+            entry.get(baseId);
+            int basePosition = search(baseId);
+
+            //A chain longer than any written one is a corrupt pack
+            if (basePosition < 0 || depth > MAX_DELTA_DEPTH * 2) {
+                throw new IOException("Broken delta chain in " + packFile);
+            }
+
+            DeltaBaseCache.Content base = resolve(basePosition, depth + 1);
+            byte[] delta;
+            try (InflaterInputStream in = new InflaterInputStream(
+                    new BufferInputStream(entry.slice()))) {
+                delta = in.readAllBytes();
+            }
+            content = new DeltaBaseCache.Content(base.type,
+                    Delta.apply(base.data, delta));
+        } else {
+            throw new IOException("Unknown object kind in " + packFile);
+        }
+
+        cache.put(offset, content);
+        return content;
+    }
+
+    private long offset(int position) {
+        return index.getLong(offsetsStart + position * Long.BYTES);
+    }
+
+    private ByteBuffer entry(int position) {
+
+        long offset = offset(position);
+        int length = index.getInt(lengthsStart + position * Integer.BYTES);
+
+        ByteBuffer entry = pack.duplicate();
+        entry.position((int) offset).limit((int) offset + length);
+        return entry;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public Path getIndexFile() {
+        return indexFile;
+    }
+
+    public Path getPackFile() {
+        return packFile;
+    }
+
+    /**
+     * Use this method to get the hash values of all objects
+     * of the pack.
+     * @return - the hash values in the order of their ids
+     */
+    public List<String> listObjects() {
+
+        List<String> hashes = new ArrayList<String>(count);
+        byte[] id = new byte[ID_LENGTH];
+
+        for (int position = 0; position < count; position++) {
+            index.get(idsStart + position * ID_LENGTH, id);
+            hashes.add(SecureHashUtil.encode(id));
+        }
+        return hashes;
+    }
+
+    /**
+     * This private method searches an id in the fan-out range
+     * of its first byte.
+     * @return - position of the id or a negative value, if the id
+     *         is not part of the pack
+     */
+    private int search(byte[] id) {
+
+        int first = id[0] & 0xff;
+        int low = first == 0 ? 0
+                : index.getInt(HEADER_SIZE + (first - 1) * Integer.BYTES);
+        int high = index.getInt(HEADER_SIZE + first * Integer.BYTES) - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int cmp = compare(middle, id);
+
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    private int compare(int position, byte[] id) {
+
+        int start = idsStart + position * ID_LENGTH;
+
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int cmp = Integer.compare(index.get(start + i) & 0xff,
+                    id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be mapped");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+    }
+
+    /**
+     * This class reads the remaining bytes of a buffer.
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package de.othr.jit.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import de.othr.jit.utility.SecureHashUtil;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class writes objects into packs.
+ * The format of a pack is described at {@link PackFile}.
+ * <p>
+ * Blobs are stored as {@link Delta} against a similar blob, if the
+ * delta is smaller than the compressed blob. Blobs are sorted by
+ * their file name and size, every blob is compared with the blobs
+ * in a window of its predecessors. The length of a delta chain is
+ * limited, so a reader does not have to apply too many deltas.
+ * <p>
+ * Objects larger than half a pack are not packed at all, they stay
+ * loose, so every offset and length of a pack fits into an int.
+ * @author codemonkey500
+ *
+ */
+public class PackWriter {
+
+    static final String PACK_PREFIX = "pack-";
+    static final String PACK_SUFFIX = ".pack";
+    static final String INDEX_SUFFIX = ".idx";
+
+    //A pack has to fit into a single memory mapping
+    private static final long MAX_PACK_SIZE = 1L << 30;
+    //Larger blobs are not loaded into memory to compute deltas
+    private static final long MAX_DELTA_SIZE = 32L * 1024 * 1024;
+    //Larger objects stay loose, even compressed they could exceed a pack
+    private static final long MAX_OBJECT_SIZE = MAX_PACK_SIZE / 2;
+
+    private final ObjectStore objectStore;
+    private final List<String> skipped = new ArrayList<String>();
+
+    public PackWriter(ObjectStore objectStore) {
+        this.objectStore = objectStore;
+    }
+
+    /**
+     * This method writes objects into new packs without knowing
+     * the file names of the blobs.
+     * @param hashes - of the objects
+     * @return - the index files of the written packs
+     * @throws IOException - if a pack can not be written
+     * @see #write(List, Map)
+     */
+    public List<Path> write(List<String> hashes) throws IOException {
+
+        return write(hashes, Collections.emptyMap());
+    }
+
+    /**
+     * This method writes objects into new packs. Loose objects are
+     * copied unchanged, unless they are stored as delta. A new pack
+     * is started whenever a pack would get too large for a memory
+     * mapping. The objects are not deleted. Objects, which are too
+     * large for a pack, are skipped, see {@link #getSkipped()}.
+     * @param hashes - of the objects, loose or packed
+     * @param names - file names of the blobs, used to find similar
+     *        blobs
+     * @return - the index files of the written packs
+     * @throws IOException - if a pack can not be written
+     */
+    public List<Path> write(List<String> hashes, Map<String, String> names)
+            throws IOException {
+
+        Path folder = Paths.get(objectStore.getPackFolder());
+        Files.createDirectories(folder);
+
+        List<Path> indexFiles = new ArrayList<Path>();
+        List<Entry> entries = new ArrayList<Entry>();
+        LinkedList<Base> window = new LinkedList<Base>();
+        Path temp = Files.createTempFile(folder, "tmp_", PACK_SUFFIX);
+        FileChannel pack = openPack(temp);
+
+        try {
+            for (Candidate object : order(hashes, names)) {
+
+                if (object.size > MAX_OBJECT_SIZE) {
+                    skipped.add(object.hash);
+                    continue;
+                }
+                if (!entries.isEmpty()
+                        && pack.position() + object.size > MAX_PACK_SIZE) {
+                    indexFiles.add(finish(pack, temp, entries));
+                    entries.clear();
+                    //Bases have to be stored in the same pack
+                    window.clear();
+                    temp = Files.createTempFile(folder, "tmp_", PACK_SUFFIX);
+                    pack = openPack(temp);
+                }
+
+                long offset = pack.position();
+
+                if (OBJECT_TYPE_BLOB.equals(object.type)
+                        && object.size <= MAX_DELTA_SIZE) {
+                    writeBlob(pack, object, window);
+                } else {
+                    writeWhole(pack, object.hash);
+                }
+
+                entries.add(new Entry(SecureHashUtil.decode(object.hash),
+                        offset, Math.toIntExact(pack.position() - offset)));
+            }
+
+            if (!entries.isEmpty()) {
+                indexFiles.add(finish(pack, temp, entries));
+            }
+        } finally {
+            pack.close();
+            Files.deleteIfExists(temp);
+        }
+
+        return indexFiles;
+    }
+
+    /**
+     * Use this method to get the objects, which were too large to be
+     * packed by {@link #write(List, Map)}. They have to be kept.
+     * @return - the hash values of the skipped objects
+     */
+    public List<String> getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * This private method reads the header of every object and sorts
+     * the blobs, so similar blobs are next to each other. Larger blobs
+     * come first, they are usually the better bases.
+     * Packed deltas are not applied to read their header.
+     */
+    private List<Candidate> order(List<String> hashes,
+            Map<String, String> names) throws IOException {
+
+        List<Candidate> others = new ArrayList<Candidate>();
+        List<Candidate> blobs = new ArrayList<Candidate>();
+
+        for (String hash : hashes) {
+            ObjectStream.Header header = objectStore.readHeader(hash);
+            Candidate object = new Candidate(hash, header.getType(),
+                    header.getSize(), names.getOrDefault(hash, ""));
+            if (OBJECT_TYPE_BLOB.equals(object.type)) {
+                blobs.add(object);
+            } else {
+                others.add(object);
+            }
+        }
+
+        blobs.sort(Comparator.comparing((Candidate c) -> c.name)
+                .thenComparing(c -> c.size, Comparator.reverseOrder()));
+        others.addAll(blobs);
+        return others;
+    }
+
+    /**
+     * This private method writes a blob as delta against the best
+     * base of the window or as whole object, if no delta is small
+     * enough. The blob is added to the window afterwards.
+     */
+    private void writeBlob(FileChannel pack, Candidate object,
+            LinkedList<Base> window) throws IOException {
+
+        byte[] data;
+        try (ObjectStream in = objectStore.openObject(object.hash)) {
+            data = in.readAllBytes();
+        }
+
+        Base best = null;
+        byte[] bestDelta = null;
+        long limit = compressedSize(object.hash);
+
+        for (Base base : window) {
+            //Bases of a very different size give large deltas
+            if (base.depth >= MAX_DELTA_DEPTH
+                    || base.data.length < data.length / 2
+                    || base.data.length / 2 > data.length) {
+                continue;
+            }
+
+            byte[] delta = deflate(Delta.create(base.data, data));
+            if (delta.length + PackFile.ID_LENGTH < limit) {
+                best = base;
+                bestDelta = delta;
+                limit = delta.length + PackFile.ID_LENGTH;
+            }
+        }
+
+        if (best == null) {
+            writeWhole(pack, object.hash);
+        } else {
+            pack.write(ByteBuffer.wrap(new byte[] { PackFile.KIND_DELTA }));
+            pack.write(ByteBuffer.wrap(SecureHashUtil.decode(best.hash)));
+            pack.write(ByteBuffer.wrap(bestDelta));
+        }
+
+        window.addLast(new Base(object.hash, data,
+                best == null ? 0 : best.depth + 1));
+        if (window.size() > DELTA_WINDOW) {
+            window.removeFirst();
+        }
+    }
+
+    /**
+     * This private method writes an object as whole. A loose object
+     * is transferred unchanged, a packed object is compressed again.
+     */
+    private void writeWhole(FileChannel pack, String hash)
+            throws IOException {
+
+        pack.write(ByteBuffer.wrap(new byte[] { PackFile.KIND_OBJECT }));
+
+        Path loose = Paths.get(objectStore.buildFileName(hash));
+        if (Files.exists(loose)) {
+            transfer(loose, pack);
+            return;
+        }
+
+        try (ObjectStream in = objectStore.openObject(hash);
+                OutputStream out = ObjectStore.compress(
+                        new FilterOutputStream(Channels.newOutputStream(pack)) {
+                            @Override
+                            public void close() throws IOException {
+                                //The pack stays open
+                                flush();
+                            }
+                        })) {
+            ObjectStream.writeHeader(out, in.getType(), in.getSize());
+            in.transferTo(out);
+        }
+    }
+
+    /**
+     * This private method returns the size of an object stored as
+     * whole, a packed object is compressed to measure it.
+     */
+    private long compressedSize(String hash) throws IOException {
+
+        Path loose = Paths.get(objectStore.buildFileName(hash));
+        if (Files.exists(loose)) {
+            return Files.size(loose);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = objectStore.openObject(hash);
+                OutputStream out = ObjectStore.compress(bytes)) {
+            in.transferTo(out);
+        }
+        return bytes.size();
+    }
+
+    private static byte[] deflate(byte[] data) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = ObjectStore.compress(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static FileChannel openPack(Path file) throws IOException {
+
+        FileChannel pack = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        pack.write(header(PackFile.PACK_MAGIC, 0));
+        return pack;
+    }
+
+    /**
+     * This private method completes a pack, writes its index and moves
+     * both files to their final names. The index is moved last, so
+     * a reader never finds an index without its pack.
+     * @return - the index file
+     */
+    private Path finish(FileChannel pack, Path temp, List<Entry> entries)
+            throws IOException {
+
+        pack.write(header(PackFile.PACK_MAGIC, entries.size()), 0);
+        pack.force(true);
+        pack.close();
+
+        entries.sort(Comparator.comparing(e -> e.id, Arrays::compareUnsigned));
+
+        //The pack is named after the ids it contains
+        byte[] ids = new byte[entries.size() * PackFile.ID_LENGTH];
+        for (int i = 0; i < entries.size(); i++) {
+            System.arraycopy(entries.get(i).id, 0, ids,
+                    i * PackFile.ID_LENGTH, PackFile.ID_LENGTH);
+        }
+        String name = PACK_PREFIX + SecureHashUtil.computeHash(ids);
+
+        Path folder = temp.getParent();
+        Path indexTemp = Files.createTempFile(folder, "tmp_", INDEX_SUFFIX);
+        try (FileChannel index = FileChannel.open(indexTemp,
+                StandardOpenOption.WRITE)) {
+
+            index.write(header(PackFile.INDEX_MAGIC, entries.size()));
+            index.write(fanOut(entries));
+            index.write(ByteBuffer.wrap(ids));
+
+            ByteBuffer offsets = ByteBuffer
+                    .allocate(entries.size() * Long.BYTES);
+            ByteBuffer lengths = ByteBuffer
+                    .allocate(entries.size() * Integer.BYTES);
+            for (Entry entry : entries) {
+                offsets.putLong(entry.offset);
+                lengths.putInt(entry.length);
+            }
+            index.write(offsets.flip());
+            index.write(lengths.flip());
+            index.force(true);
+        } catch (IOException e) {
+            Files.deleteIfExists(indexTemp);
+            throw e;
+        }
+
+        Path indexFile = folder.resolve(name + INDEX_SUFFIX);
+        Files.move(temp, folder.resolve(name + PACK_SUFFIX),
+                StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexTemp, indexFile, StandardCopyOption.ATOMIC_MOVE);
+
+        return indexFile;
+    }
+
+    private static ByteBuffer header(int magic, int count) {
+
+        ByteBuffer header = ByteBuffer.allocate(PackFile.HEADER_SIZE);
+        header.putInt(magic).putInt(PackFile.VERSION).putInt(count);
+        return header.flip();
+    }
+
+    /**
+     * This private method counts the sorted ids up to every first byte.
+     */
+    private static ByteBuffer fanOut(List<Entry> entries) {
+
+        ByteBuffer fanOut = ByteBuffer
+                .allocate(PackFile.FAN_OUT_SIZE * Integer.BYTES);
+        int position = 0;
+
+        for (int first = 0; first < PackFile.FAN_OUT_SIZE; first++) {
+            while (position < entries.size()
+                    && (entries.get(position).id[0] & 0xff) <= first) {
+                position++;
+            }
+            fanOut.putInt(position);
+        }
+        return fanOut.flip();
+    }
+
+    private static void transfer(Path source, FileChannel target)
+            throws IOException {
+
+        try (FileChannel in = FileChannel.open(source,
+                StandardOpenOption.READ)) {
+            long size = in.size();
+            long position = 0;
+
+            while (position < size) {
+                position += in.transferTo(position, size - position, target);
+            }
+        }
+    }
+
+    /**
+     * This class holds the position of an object in the pack.
+     */
+    private static class Entry {
+
+        private final byte[] id;
+        private final long offset;
+        private final int length;
+
+        Entry(byte[] id, long offset, int length) {
+            this.id = id;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * This class describes an object, which will be written.
+     */
+    private static class Candidate {
+
+        private final String hash;
+        private final String type;
+        private final long size;
+        private final String name;
+
+        Candidate(String hash, String type, long size, String name) {
+            this.hash = hash;
+            this.type = type;
+            this.size = size;
+            this.name = name;
+        }
+    }
+
+    /**
+     * This class holds a blob of the window, which can be used
+     * as base of a delta.
+     */
+    private static class Base {
+
+        private final String hash;
+        private final byte[] data;
+        private final int depth;
+
+        Base(String hash, byte[] data, int depth) {
+            this.hash = hash;
+            this.data = data;
+            this.depth = depth;
+        }
+    }
+}
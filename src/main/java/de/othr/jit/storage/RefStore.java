@@ -0,0 +1,275 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * This class stores the references of the repository.
+ * <p>
+ * A branch is a file below .jit/refs/heads, which holds the hash value
+ * of its latest commit. The file .jit/HEAD either names the current
+ * branch ("ref: refs/heads/master") or holds the hash value of a
+ * commit, if a commit was checked out directly. A repository without
+ * HEAD is on the branch master.
+ * <p>
+ * A reference is written to a temporary file, which is synced and
+ * moved to its final name afterwards, so a reader never sees a half
+ * written reference and a moved reference survives a crash.
+ * @author codemonkey500
+ *
+ */
+public class RefStore {
+
+    private static final Logger LOGGER = Logger
+            .getLogger(RefStore.class.getName());
+
+    private final Path folder;
+
+    public RefStore() {
+        this(Paths.get(PATH_JIT_FOLDER));
+    }
+
+    /**
+     * @param folder - the .jit folder
+     */
+    public RefStore(Path folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Use this method to get the current branch.
+     * @return - the name of the branch, e.g. "master", or null, if
+     *         HEAD points to a commit directly
+     */
+    public String getBranch() {
+
+        String head = readHead();
+        if (head.startsWith(SYMBOLIC_REF_PREFIX + REFS_HEADS_PREFIX)) {
+            return head.substring(SYMBOLIC_REF_PREFIX.length()
+                    + REFS_HEADS_PREFIX.length());
+        }
+        return null;
+    }
+
+    /**
+     * Use this method to get the commit of HEAD.
+     * @return - the hash value of the commit or null, if the current
+     *         branch has no commit yet
+     */
+    public String resolveHead() {
+
+        String branch = getBranch();
+        return branch == null ? readHead() : readRef(branch);
+    }
+
+    /**
+     * This method resolves a name given by the user.
+     * @param name - "HEAD", the name of a branch or a hash value
+     * @return - the hash value of the commit or null, if HEAD or
+     *         the branch has no commit yet
+     */
+    public String resolve(String name) {
+
+        if (name.equals(HEAD)) {
+            return resolveHead();
+        }
+        if (isBranch(name)) {
+            return readRef(name);
+        }
+        return name;
+    }
+
+    /**
+     * Use this method to check wether a branch exists.
+     * @param name - of the branch
+     * @return - true, if the branch has a commit
+     */
+    public boolean isBranch(String name) {
+
+        return isValidName(name) && Files.isRegularFile(refFile(name));
+    }
+
+    /**
+     * This method reads a branch.
+     * @param name - of the branch
+     * @return - the hash value of its commit or null, if the branch
+     *         does not exist
+     */
+    public String readRef(String name) {
+
+        if (!isValidName(name)) {
+            return null;
+        }
+
+        try {
+            return new String(Files.readAllBytes(refFile(name)),
+                    StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read branch " + name, e);
+            return null;
+        }
+    }
+
+    /**
+     * Use this method to get the commits of all branches and of HEAD.
+     * @return - the hash values, every commit once
+     */
+    public Set<String> listTips() {
+
+        Set<String> tips = new LinkedHashSet<String>();
+        Path refs = folder.resolve(REFS_HEADS_PREFIX);
+
+        if (Files.isDirectory(refs)) {
+            try (DirectoryStream<Path> branches = Files
+                    .newDirectoryStream(refs)) {
+                for (Path branch : branches) {
+                    String name = branch.getFileName().toString();
+                    //Skips references, which are just written
+                    String hash = name.endsWith(".tmp") ? null
+                            : readRef(name);
+                    if (hash != null) {
+                        tips.add(hash);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not list the branches", e);
+            }
+        }
+
+        String head = resolveHead();
+        if (head != null) {
+            tips.add(head);
+        }
+        return tips;
+    }
+
+    /**
+     * This method moves HEAD to a new commit. If HEAD names a branch,
+     * the branch is moved.
+     * @param hash - of the commit
+     * @return - false, if the reference could not be written
+     */
+    public boolean updateHead(String hash) {
+
+        String branch = getBranch();
+        return branch == null ? detachHead(hash) : writeRef(branch, hash);
+    }
+
+    /**
+     * This method makes a branch the current branch.
+     * @param name - of the branch
+     * @return - false, if HEAD could not be written
+     */
+    public boolean attachHead(String name) {
+
+        if (!isValidName(name)) {
+            LOGGER.log(Level.SEVERE, "Invalid branch name " + name);
+            return false;
+        }
+        return write(folder.resolve(HEAD),
+                SYMBOLIC_REF_PREFIX + REFS_HEADS_PREFIX + name);
+    }
+
+    /**
+     * This method points HEAD to a commit directly, no branch is
+     * moved by following commits.
+     * @param hash - of the commit
+     * @return - false, if HEAD could not be written
+     */
+    public boolean detachHead(String hash) {
+
+        return write(folder.resolve(HEAD), hash);
+    }
+
+    /**
+     * This method sets a branch to a commit.
+     * @param name - of the branch, it is created if necessary
+     * @param hash - of the commit
+     * @return - false, if the branch could not be written
+     */
+    public boolean writeRef(String name, String hash) {
+
+        if (!isValidName(name)) {
+            LOGGER.log(Level.SEVERE, "Invalid branch name " + name);
+            return false;
+        }
+        return write(refFile(name), hash);
+    }
+
+    private String readHead() {
+
+        try {
+            return new String(Files.readAllBytes(folder.resolve(HEAD)),
+                    StandardCharsets.UTF_8).trim();
+        } catch (NoSuchFileException e) {
+            return SYMBOLIC_REF_PREFIX + REFS_HEADS_PREFIX + DEFAULT_BRANCH;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not read " + HEAD, e);
+            return SYMBOLIC_REF_PREFIX + REFS_HEADS_PREFIX + DEFAULT_BRANCH;
+        }
+    }
+
+    private Path refFile(String name) {
+        return folder.resolve(REFS_HEADS_PREFIX + name);
+    }
+
+    /**
+     * This private method checks a branch name, so a branch never
+     * points outside the refs folder.
+     */
+    private static boolean isValidName(String name) {
+
+        return !name.isEmpty() && !name.startsWith(".")
+                && name.matches("[A-Za-z0-9._-]+");
+    }
+
+    /**
+     * This private method replaces a reference file atomically.
+     * The content and the rename are synced to disk.
+     */
+    private boolean write(Path file, String content) {
+
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), "ref", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer data = ByteBuffer.wrap((content + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            ObjectWriter.syncDirectory(file.getParent());
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not write " + file, e);
+            return false;
+        }
+    }
+}
@@ -1,20 +1,14 @@
 package de.othr.jit.utility;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
@@ -23,6 +17,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import de.othr.jit.datastructure.MerkleTree;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.entity.FileContainer;
+import de.othr.jit.entity.IndexEntry;
 import org.apache.commons.io.FilenameUtils;
 import org.springframework.util.FileSystemUtils;
 
@@ -56,6 +53,17 @@ public class FileSystemUtil {
 
             new File(PATH_OBJECTS_FOLDER).mkdirs();
             new File(PATH_STAGING_FOLDER).mkdirs();
+            new File(PATH_REFS_FOLDER).mkdirs();
+
+            //HEAD names the branch master, which has no commit yet
+            try {
+                Files.write(Paths.get(PATH_JIT_FOLDER, HEAD),
+                        (SYMBOLIC_REF_PREFIX + REFS_HEADS_PREFIX
+                                + DEFAULT_BRANCH + "\n").getBytes(
+                                        StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not write " + HEAD, e);
+            }
             LOGGER.info("Jit init complete");
         }
     }
@@ -100,53 +108,44 @@ public class FileSystemUtil {
     }
 
     /**
-     * This method is used to serialize the MerkleTree.
-     * The data structure will be stored in the folder .jit/staging
-     * as a file called "staging.ser".
+     * This method is used to store the MerkleTree in the staging index.
+     * Every file of the tree will be written as one entry of the binary
+     * index in the folder .jit/staging. The stat data is the one
+     * taken when the file was hashed, not the current one.
      * 
      * @param tree
-     *            - to be serialized
+     *            - to be stored
      */
     public static void serializeStagingFile(MerkleTree tree) {
 
-        try(ObjectOutputStream out = new ObjectOutputStream(
-                new FileOutputStream(new File(PATH_STAGING_FILE)))) {
-            out.writeObject(tree);
-        } catch (FileNotFoundException e) {
-            LOGGER.log(Level.SEVERE, "staging.ser does not exist!");
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Serialization of staging.ser failed!", e);
+        List<IndexEntry> entries = new ArrayList<IndexEntry>();
+
+        //Files without stat data are smudged to be hashed again
+        for (FileContainer file : tree.getAllFiles()) {
+            IndexEntry stat = file.getStat();
+            entries.add(stat != null ? stat
+                    : new IndexEntry(toRelativePath(file.getPath()),
+                            file.getMode(), SMUDGED_SIZE, 0, 0, 0,
+                            file.getId()));
         }
 
+        StagingIndex.write(Paths.get(PATH_STAGING_FILE), entries);
     }
 
     /**
-     * This method is used to deserialize the stagingFile.
+     * This method is used to load the MerkleTree from the staging index.
      * In case an error occurs, the user will get a message on console.
      * 
      * @return - a MerkleTree object representing the current data structure
      */
     public static MerkleTree deserializeStagingFile() {
 
-        MerkleTree tree = new MerkleTree();
-
-        try (ObjectInputStream in = new ObjectInputStream(
-                new BufferedInputStream(
-                        new FileInputStream(PATH_STAGING_FILE)))) {
-
-            tree = (MerkleTree) in.readObject();
-
-        } catch (FileNotFoundException e) {
-            LOGGER.log(Level.SEVERE, "staging.ser does not exist!", e);
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE,
-                    "Deserialization of staging.ser failed!", e);
-        } catch (ClassNotFoundException e) {
-            LOGGER.log(Level.SEVERE,
-                    "Could not find the class for serialized object", e);
+        if (!new File(PATH_STAGING_FILE).exists()) {
+            LOGGER.log(Level.SEVERE, "staging index does not exist!");
+            return new MerkleTree();
         }
 
-        return tree;
+        return MerkleTree.fromIndex(new StagingIndex().entries());
     }
 
     /**
@@ -159,37 +158,59 @@ public class FileSystemUtil {
         }
     }
 
+    /**
+     * This method is used to convert a path into a path relative
+     * to the working directory. The separator will always be "/".
+     * 
+     * @param path - absolute or relative to the working directory
+     * @return - e.g. "src/main/C.java"
+     */
+    public static String toRelativePath(String path) {
+
+        Path relative = Paths.get(USER_DIR)
+                .relativize(Paths.get(path).toAbsolutePath().normalize());
+
+        return FilenameUtils.separatorsToUnix(relative.toString());
+    }
+
+    /**
+     * This method is used to convert a path relative to the
+     * working directory into an absolute path.
+     * 
+     * @param relativePath - e.g. "src/main/C.java"
+     * @return - the absolute path as String
+     */
+    public static String toAbsolutePath(String relativePath) {
+
+        return Paths.get(USER_DIR, relativePath).toString();
+    }
+
     /**
      * This method can be used to read from a file.
+     * The content is returned exactly as stored, line
+     * separators are kept.
      * 
      * @param path - pointing to the file
      * @return the files content stored as a String
      */
     public static String readFile(String path) {
 
-        StringBuilder sb = new StringBuilder();
-        File file = new File(path);
-
-        try (BufferedReader input = new BufferedReader(new FileReader(file))) {
-            String line = null;
-
-            while ((line = input.readLine()) != null) {
-                sb.append(line);
-            }
-
-        } catch (FileNotFoundException e) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(path)),
+                    StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
             LOGGER.log(Level.SEVERE,
                     "File with the path : " + path + "does not exist");
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Could not read file");
         }
 
-        return sb.toString();
-
+        return "";
     }
 
     /**
      * This method can be used to create a file and fill it with data.
+     * An already existing file will not be changed.
      * 
      * @param path
      *            - with the file name included
@@ -198,15 +219,11 @@ public class FileSystemUtil {
      */
     public static void writeToFile(String path, String data) {
 
-        File file = new File(path);
         try {
-            if (file.createNewFile()) {
-
-                try (BufferedWriter writer = new BufferedWriter(
-                        new FileWriter(file, false))) {
-                    writer.write(data);
-                }
-            }
+            Files.write(Paths.get(path), data.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE_NEW);
+        } catch (FileAlreadyExistsException e) {
+            LOGGER.log(Level.FINE, "File already exists: " + path);
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Could not write to file");
         }
@@ -1,5 +1,11 @@
 package de.othr.jit.utility;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
@@ -9,39 +15,179 @@ import java.util.logging.Logger;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 /**
- * This class provides a method for SHA-1 hashing.
+ * This class provides methods for SHA-1 hashing.
+ * Digests are computed with one pooled MessageDigest per thread and
+ * files are read in fixed-size buffers, so hashing a file never
+ * needs the whole file in memory.
  * @author codemonkey500
  *
  */
 public class SecureHashUtil {
-    
+
     private static final Logger LOGGER = Logger
             .getLogger(SecureHashUtil.class.getName());
-    
+
+    private static final String ALGORITHM = "SHA-1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal
+            .withInitial(SecureHashUtil::createDigest);
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal
+            .withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
     private SecureHashUtil() {
     }
-    
-    
+
+
     /**
      * Use this method to generate a SHA-1 hash code
-     * 
+     *
      * @param target - is the byte[] to be hashed
      * @return - a String representation of the computed hash code
      */
     public static String computeHash(byte[] target) {
 
-        String result = "";
+        return encode(digest(target));
+    }
+
+    /**
+     * Use this method to generate a SHA-1 hash code of a files content.
+     * The file is read in fixed-size blocks.
+     *
+     * @param path - pointing to the file to be hashed
+     * @return - a String representation of the computed hash code
+     * @throws IOException - if the file can not be read
+     */
+    public static String computeHash(Path path) throws IOException {
+
+        return encode(digest(path));
+    }
+
+    /**
+     * Use this method to get the raw SHA-1 digest of a byte[].
+     *
+     * @param target - is the byte[] to be hashed
+     * @return - the 20 digest bytes
+     */
+    public static byte[] digest(byte[] target) {
+
+        return getDigest().digest(target);
+    }
+
+    /**
+     * Use this method to get the raw SHA-1 digest of a files content.
+     * The content is streamed through a FileChannel, so the memory
+     * needed does not depend on the file size.
+     *
+     * @param path - pointing to the file to be hashed
+     * @return - the 20 digest bytes
+     * @throws IOException - if the file can not be read
+     */
+    public static byte[] digest(Path path) throws IOException {
+
+        MessageDigest md = getDigest();
+        ByteBuffer buffer = BUFFER.get();
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+            return md.digest();
+
+        } catch (IOException e) {
+            md.reset();
+            throw e;
+        }
+    }
+
+    /**
+     * Use this method to get the raw SHA-1 digest of a stream.
+     * The stream is read in fixed-size blocks and will not be closed.
+     *
+     * @param in - the stream to be hashed
+     * @return - the 20 digest bytes
+     * @throws IOException - if reading from the stream fails
+     */
+    public static byte[] digest(InputStream in) throws IOException {
+
+        MessageDigest md = getDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
 
         try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            md.reset();
+            throw e;
+        }
+
+        return md.digest();
+    }
+
+    /**
+     * Use this method to get the MessageDigest of the current thread.
+     * The instance is reset and can be fed incrementally, e.g. with
+     * the hashes of a directories children.
+     * It must not be shared with other threads.
+     *
+     * @return - a reset SHA-1 MessageDigest
+     */
+    public static MessageDigest getDigest() {
+
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        return md;
+    }
+
+    /**
+     * Use this method to get a new MessageDigest, e.g. to hash
+     * a file while its parts are hashed with {@link #getDigest()}.
+     *
+     * @return - a new SHA-1 MessageDigest
+     */
+    public static MessageDigest newDigest() {
 
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            byte[] hash = md.digest(target);
-            result = Base64.getUrlEncoder().encodeToString(hash);
+        return createDigest();
+    }
+
+    /**
+     * Use this method to convert raw digest bytes into the
+     * String representation used for object names.
+     *
+     * @param digest - the raw digest bytes
+     * @return - the url safe Base64 representation
+     */
+    public static String encode(byte[] digest) {
+
+        return Base64.getUrlEncoder().encodeToString(digest);
+    }
+
+    /**
+     * Use this method to convert an object name back into
+     * the raw digest bytes.
+     *
+     * @param hash - the url safe Base64 representation
+     * @return - the raw digest bytes
+     */
+    public static byte[] decode(String hash) {
+
+        return Base64.getUrlDecoder().decode(hash);
+    }
 
+    private static MessageDigest createDigest() {
+
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
         } catch (NoSuchAlgorithmException e) {
             LOGGER.log(Level.SEVERE, ExceptionUtils.getStackTrace(e));
+            throw new IllegalStateException(e);
         }
-
-        return result;
     }
 }
@@ -0,0 +1,207 @@
+package de.othr.jit.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.utility.SecureHashUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class JitDaemonTest {
+
+    private static final Path SOCKET = Paths.get(PATH_DAEMON_SOCKET);
+
+    private Thread thread;
+
+    @Before
+    public void startDaemon() {
+
+        Jit.initializeDirectory();
+
+        JitDaemon daemon = new JitDaemon(SOCKET);
+        thread = new Thread(() -> {
+            try {
+                daemon.run();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+    }
+
+    @After
+    public void deleteJitDir() throws InterruptedException {
+
+        thread.join(10000);
+        FileSystemUtils.deleteRecursively(
+                Paths.get(".jit").toFile().getAbsoluteFile());
+    }
+
+    @Test
+    public void daemonTest() throws IOException {
+
+        try (SocketChannel channel = connect()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel),
+                    StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(Channels.newWriter(channel,
+                    StandardCharsets.UTF_8), true);
+
+            assertEquals(JitDaemon.OK, last(request(in, out,
+                    ADD + "\t" + A_JAVA_PATH)));
+            assertEquals(JitDaemon.OK, last(request(in, out,
+                    ADD + "\t" + B_JAVA_PATH)));
+            assertEquals(JitDaemon.OK, last(request(in, out,
+                    REMOVE + "\t" + B_JAVA_PATH)));
+
+            //Every answered command is already stored in the index
+            StagingIndex index = new StagingIndex();
+            assertEquals(1, index.size());
+            assertTrue(index.contains(A_JAVA_PATH));
+
+            List<String> commit = request(in, out,
+                    COMMIT + "\tmessage with blanks");
+            assertEquals(JitDaemon.OK, last(commit));
+            assertTrue(commit.stream().anyMatch(
+                    line -> line.startsWith("INFO Commit successful: ")));
+
+            assertEquals(JitDaemon.ERROR, last(request(in, out,
+                    ADD + "\tdoes/not/exist")));
+            assertEquals(JitDaemon.ERROR, last(request(in, out, "unknown")));
+
+            assertEquals(JitDaemon.OK, last(request(in, out,
+                    JitDaemon.STOP)));
+        }
+
+        try {
+            thread.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        assertFalse(Files.exists(SOCKET));
+    }
+
+    @Test
+    public void externalChangeTest() throws IOException {
+
+        try (SocketChannel channel = connect()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel),
+                    StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(Channels.newWriter(channel,
+                    StandardCharsets.UTF_8), true);
+
+            assertEquals(JitDaemon.OK, last(request(in, out,
+                    ADD + "\t" + A_JAVA_PATH)));
+
+            //Another process unstages the file while the daemon runs
+            assertTrue(new StagingIndex().remove(A_JAVA_PATH));
+
+            //The daemon sees the empty index instead of its own copy
+            List<String> commit = request(in, out, COMMIT + "\tmessage");
+            assertEquals(JitDaemon.ERROR, last(commit));
+            assertTrue(commit.stream().anyMatch(
+                    line -> line.contains("Staging area is empty!")));
+
+            assertEquals(JitDaemon.OK, last(request(in, out,
+                    JitDaemon.STOP)));
+        }
+    }
+
+    @Test
+    public void exceptionMessageTest() throws IOException {
+
+        //A corrupt loose object can not be inflated
+        String hash = SecureHashUtil.computeHash("corrupt".getBytes());
+        Path object = Paths.get(new ObjectStore().buildFileName(hash));
+        Files.createDirectories(object.getParent());
+        Files.write(object, "corrupt".getBytes());
+
+        try (SocketChannel channel = connect()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(channel),
+                    StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(Channels.newWriter(channel,
+                    StandardCharsets.UTF_8), true);
+
+            //The message of the exception is sent with the log message
+            List<String> answer = request(in, out,
+                    CAT_OBJECT + "\t" + hash);
+            assertTrue(answer.stream().anyMatch(line -> line.startsWith(
+                    "SEVERE Could not read object " + hash + ": ")));
+
+            assertEquals(JitDaemon.OK, last(request(in, out,
+                    JitDaemon.STOP)));
+        }
+    }
+
+    /**
+     * The socket file is created before the daemon listens, so the
+     * connection is retried for a while.
+     */
+    private static SocketChannel connect() throws IOException {
+
+        for (int attempt = 0;; attempt++) {
+            SocketChannel channel = SocketChannel.open(
+                    StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(SOCKET));
+                return channel;
+            } catch (IOException e) {
+                channel.close();
+                if (attempt == 500) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static List<String> request(BufferedReader in, PrintWriter out,
+            String line) throws IOException {
+
+        out.println(line);
+
+        List<String> answer = new ArrayList<String>();
+        String next;
+        do {
+            next = in.readLine();
+            answer.add(next);
+        } while (!JitDaemon.OK.equals(next) && !JitDaemon.ERROR.equals(next));
+
+        return answer;
+    }
+
+    private static String last(List<String> answer) {
+        return answer.get(answer.size() - 1);
+    }
+}
@@ -1,15 +1,32 @@
 package de.othr.jit.core;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
 import de.othr.jit.datastructure.MerkleTree;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.entity.Commit;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.storage.RefStore;
 import de.othr.jit.utility.FileSystemUtil;
+import de.othr.jit.utility.SecureHashUtil;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.springframework.util.FileSystemUtils;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static de.othr.jit.constants.Constants.*;
 
 /**
@@ -52,6 +69,24 @@ public class JitTest {
 
     }
 
+    @Test
+    public void addDirectoryTest() {
+
+        Jit.addFile("src/test/java/firsttestdir");
+
+        MerkleTree tree = FileSystemUtil.deserializeStagingFile();
+
+        //All four files of the directory have to be staged at once
+        assertEquals(4, tree.getAllFiles().size());
+        assertEquals(7, tree.getDirectories().size());
+
+        //Adding the directory again does not change the staging area
+        Jit.addFile("src/test/java/firsttestdir");
+
+        assertEquals(4, FileSystemUtil.deserializeStagingFile()
+                .getAllFiles().size());
+    }
+
     @Test
     public void removeFileTest() {
 
@@ -87,4 +122,112 @@ public class JitTest {
                                         .equals("thirdtestdir")))
                         .get());
     }
+
+    @Test
+    public void batchTest() throws IOException {
+
+        String hash = SecureHashUtil.computeHash(Paths.get(A_JAVA_PATH));
+        String commands = ADD + "\t" + A_JAVA_PATH + "\n"
+                + ADD + "\t" + B_JAVA_PATH + "\n"
+                + REMOVE + "\t" + B_JAVA_PATH + "\n"
+                + CAT_OBJECT + "\t" + hash + "\n"
+                + ADD + "\tdoes/not/exist\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int failed = Jit.batch(new ByteArrayInputStream(
+                commands.getBytes(StandardCharsets.UTF_8)), out);
+
+        assertEquals(1, failed);
+        assertEquals(1, FileSystemUtil.deserializeStagingFile()
+                .getAllFiles().size());
+
+        byte[] content = Files.readAllBytes(Paths.get(A_JAVA_PATH));
+        String expected = hash + " blob " + content.length + "\n"
+                + new String(content, StandardCharsets.UTF_8) + "\n";
+        assertEquals(expected, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void deferredTest() throws IOException {
+
+        Path indexFile = Paths.get(PATH_STAGING_FILE);
+        Session session = new Session(new ByteArrayOutputStream(), true);
+        assertTrue(session.execute(Arrays.asList(ADD, C_JAVA_PATH)));
+        BasicFileAttributes before = Files.readAttributes(indexFile,
+                BasicFileAttributes.class);
+
+        session.setDeferred(true);
+        assertTrue(session.execute(Arrays.asList(ADD, A_JAVA_PATH)));
+        assertTrue(session.execute(Arrays.asList(ADD, B_JAVA_PATH)));
+        assertTrue(session.execute(Arrays.asList(REMOVE, C_JAVA_PATH)));
+
+        //Staging files does not write the index file
+        BasicFileAttributes during = Files.readAttributes(indexFile,
+                BasicFileAttributes.class);
+        assertEquals(before.size(), during.size());
+        assertEquals(before.lastModifiedTime(), during.lastModifiedTime());
+        assertEquals(before.fileKey(), during.fileKey());
+
+        //Ending the batch writes all changes at once
+        session.setDeferred(false);
+        StagingIndex index = new StagingIndex();
+        assertEquals(2, index.size());
+        assertTrue(index.contains(FileSystemUtil.toRelativePath(A_JAVA_PATH)));
+        assertFalse(index.contains(
+                FileSystemUtil.toRelativePath(C_JAVA_PATH)));
+        assertFalse(Files.exists(Paths.get(PATH_STAGING_FILE + ".lock")));
+    }
+
+    @Test
+    public void incrementalTreeTest() throws IOException {
+
+        Session session = new Session();
+        assertTrue(session.execute(Arrays.asList(ADD, A_JAVA_PATH)));
+        assertTrue(session.execute(Arrays.asList(ADD, B_JAVA_PATH)));
+        assertTrue(session.execute(Arrays.asList(COMMIT, "first")));
+        assertTrue(Metrics.current().getDurations()
+                .containsKey("tree.build"));
+
+        //The kept tree is updated, not built again
+        assertTrue(session.execute(Arrays.asList(ADD, C_JAVA_PATH)));
+        assertTrue(session.execute(Arrays.asList(REMOVE, B_JAVA_PATH)));
+        assertTrue(session.execute(Arrays.asList(COMMIT, "second")));
+        assertFalse(Metrics.current().getDurations()
+                .containsKey("tree.build"));
+        assertTrue(Metrics.current().getDurations()
+                .containsKey("tree.rehash"));
+
+        //It has the same hash values as a tree built from the index
+        ObjectStore store = new ObjectStore();
+        Commit commit = Commit.parse(store.readObject(
+                new RefStore().resolveHead())
+                .getBytes(StandardCharsets.UTF_8));
+        assertEquals(MerkleTree.fromIndex(new StagingIndex().entries())
+                .getRoot().getHash(), commit.getTree());
+    }
+
+    @Test
+    public void traceTest() throws IOException {
+
+        String trace = PATH_JIT_FOLDER + "/trace.json";
+        Session session = new Session();
+
+        assertTrue(session.execute(Arrays.asList("--stats",
+                TRACE_OPTION + trace, ADD, "src/test/java/firsttestdir")));
+
+        Metrics metrics = Metrics.current();
+        assertEquals(ADD, metrics.getCommand());
+        assertEquals(4, metrics.getCounters().get("add.files.walked"));
+        assertTrue(metrics.getDurations().containsKey("add.walk"));
+        assertTrue(metrics.getDurations().containsKey("staging.load"));
+
+        session.execute(Arrays.asList(TRACE_OPTION + trace, STATUS));
+
+        //Every command appends one line
+        List<String> lines = Files.readAllLines(Paths.get(trace));
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"command\":\"add\""));
+        assertTrue(lines.get(0).contains("\"add.files.walked\":4"));
+        assertTrue(lines.get(1).startsWith("{\"command\":\"status\""));
+    }
 }
@@ -0,0 +1,168 @@
+package de.othr.jit.datastructure;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import de.othr.jit.entity.IndexEntry;
+import de.othr.jit.utility.SecureHashUtil;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class StagingIndexTest {
+
+    private static final Path INDEX_FILE = Paths.get("testindex");
+
+    @After
+    public void deleteIndex() throws IOException {
+
+        Files.deleteIfExists(INDEX_FILE);
+    }
+
+    @Test
+    public void appendAndReloadTest() {
+
+        StagingIndex index = new StagingIndex(INDEX_FILE);
+        index.put(entry("b/B.java"));
+        index.put(entry("a/A.java"));
+        index.put(entry("c/C.java"));
+        index.remove("b/B.java");
+
+        //A new instance has to see all appended records
+        StagingIndex reloaded = new StagingIndex(INDEX_FILE);
+
+        assertEquals(2, reloaded.size());
+        assertNull(reloaded.get("b/B.java"));
+        assertArrayEquals(entry("a/A.java").getId(),
+                reloaded.get("a/A.java").getId());
+
+        List<IndexEntry> entries = reloaded.entries();
+        assertEquals("a/A.java", entries.get(0).getPath());
+        assertEquals("c/C.java", entries.get(1).getPath());
+    }
+
+    @Test
+    public void compactionTest() {
+
+        StagingIndex index = new StagingIndex(INDEX_FILE);
+        for (int i = 0; i < 500; i++) {
+            index.put(entry("dir/file" + i));
+        }
+        for (int i = 0; i < 500; i += 2) {
+            index.remove("dir/file" + i);
+        }
+
+        StagingIndex reloaded = new StagingIndex(INDEX_FILE);
+
+        assertEquals(250, reloaded.size());
+        assertEquals(250, reloaded.entries().size());
+        assertTrue(reloaded.contains("dir/file1"));
+        assertNull(reloaded.get("dir/file0"));
+    }
+
+    @Test
+    public void tornRecordTest() throws IOException {
+
+        StagingIndex index = new StagingIndex(INDEX_FILE);
+        index.put(entry("a"));
+        index.put(entry("b"));
+
+        //A crash in the middle of an append leaves half a record
+        byte[] complete = Files.readAllBytes(INDEX_FILE);
+        Files.write(INDEX_FILE, new byte[] { 1, 0, 9, 'c' },
+                StandardOpenOption.APPEND);
+
+        StagingIndex reloaded = new StagingIndex(INDEX_FILE);
+        assertEquals(2, reloaded.size());
+        assertTrue(reloaded.contains("b"));
+
+        //The next append cuts off the torn record
+        reloaded.put(entry("d"));
+        assertEquals(complete.length + 1 + 2 + 1 + 4 + 4 * 8 + 20,
+                Files.size(INDEX_FILE));
+        assertEquals(3, new StagingIndex(INDEX_FILE).size());
+        assertFalse(Files.exists(Paths.get("testindex.lock")));
+    }
+
+    @Test
+    public void concurrentAppendTest() {
+
+        StagingIndex first = new StagingIndex(INDEX_FILE);
+        first.put(entry("a"));
+        StagingIndex second = new StagingIndex(INDEX_FILE);
+
+        //Both instances append, none of the records gets lost
+        second.put(entry("b"));
+        first.put(entry("c"));
+        for (int i = 0; i < 100; i++) {
+            second.put(entry("dir/file" + i));
+        }
+        first.remove("a");
+
+        StagingIndex reloaded = new StagingIndex(INDEX_FILE);
+        assertEquals(102, reloaded.size());
+        assertTrue(reloaded.contains("b"));
+        assertTrue(reloaded.contains("c"));
+        assertNull(reloaded.get("a"));
+    }
+
+    @Test
+    public void writeTest() {
+
+        StagingIndex.write(INDEX_FILE,
+                List.of(entry("z"), entry("y/x"), entry("a")));
+
+        StagingIndex index = new StagingIndex(INDEX_FILE);
+
+        assertEquals(3, index.size());
+        assertEquals("a", index.entries().get(0).getPath());
+        assertEquals("y/x", index.entries().get(1).getPath());
+        assertEquals("z", index.entries().get(2).getPath());
+        assertEquals(FILE_MODE_REGULAR, index.get("z").getMode());
+    }
+
+    @Test
+    public void longPathTest() {
+
+        //Longer than a signed short, but still stored
+        String path = "a/" + "x".repeat(40000);
+        StagingIndex index = new StagingIndex(INDEX_FILE);
+        index.put(entry("b"));
+        index.put(entry(path));
+        index.remove("b");
+
+        StagingIndex reloaded = new StagingIndex(INDEX_FILE);
+        assertEquals(1, reloaded.size());
+        assertEquals(path, reloaded.entries().get(0).getPath());
+
+        //More than 65535 bytes in UTF-8 are rejected
+        String tooLong = "\u00e4".repeat(33000);
+        index.put(entry(tooLong));
+        assertFalse(index.contains(tooLong));
+        assertFalse(StagingIndex.write(INDEX_FILE,
+                List.of(entry("a"), entry(tooLong))));
+
+        reloaded = new StagingIndex(INDEX_FILE);
+        assertEquals(1, reloaded.size());
+        assertTrue(reloaded.contains(path));
+    }
+
+    private static IndexEntry entry(String path) {
+
+        return new IndexEntry(path, FILE_MODE_REGULAR, path.length(), 1L,
+                1L, 1L, SecureHashUtil.digest(path.getBytes()));
+    }
+}
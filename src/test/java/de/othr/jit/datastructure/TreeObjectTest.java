@@ -0,0 +1,108 @@
+package de.othr.jit.datastructure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import de.othr.jit.entity.Directory;
+import de.othr.jit.entity.FileContainer;
+import de.othr.jit.utility.SecureHashUtil;
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class TreeObjectTest {
+
+    //Sorted like the children of a directory
+    private static final List<String> NAMES = Arrays.asList("B.java",
+            "a.txt", "dir", "dir.txt", "zz.txt", "z\u00e4.txt",
+            "\ud83d\ude00.txt");
+
+    @Test
+    public void encodeAndParseTest() throws IOException {
+
+        MerkleTree merkle = tree();
+        Directory root = merkle.getRoot();
+        byte[] content = TreeObject.encode(root);
+
+        //The hash value of a directory is the digest of its tree object
+        assertEquals(root.getHash(), SecureHashUtil.computeHash(content));
+
+        TreeObject tree = new TreeObject(ByteBuffer.wrap(content));
+        assertEquals(root.getChildNodes().size(), tree.size());
+
+        int i = 0;
+        for (String name : NAMES) {
+            assertEquals(name, tree.getName(i));
+            assertArrayEquals(root.getChild(name).getId(), tree.getId(i));
+            assertEquals(root.getChild(name).getMode(), tree.getMode(i));
+            i++;
+        }
+        assertTrue(tree.isDirectory(2));
+        assertEquals(DIRECTORY_MODE, tree.getMode(2));
+        assertFalse(tree.isDirectory(3));
+    }
+
+    @Test
+    public void findTest() throws IOException {
+
+        TreeObject tree = new TreeObject(ByteBuffer.wrap(
+                TreeObject.encode(tree().getRoot())));
+
+        for (int i = 0; i < tree.size(); i++) {
+            assertEquals(i, tree.find(tree.getName(i)));
+        }
+
+        assertTrue(tree.find("A.java") < 0);
+        assertTrue(tree.find("di") < 0);
+        assertTrue(tree.find("dir/c.txt") < 0);
+        assertTrue(tree.find("z\u00e4") < 0);
+        assertTrue(tree.find("\uffff") < 0);
+    }
+
+    @Test
+    public void corruptTreeTest() {
+
+        byte[] content = TreeObject.encode(tree().getRoot());
+
+        assertThrows(IOException.class, () -> new TreeObject(
+                ByteBuffer.wrap(content, 0, content.length - 1)));
+    }
+
+    /**
+     * The tree is built directly, the index would need file system
+     * paths for the non ASCII names.
+     */
+    private static MerkleTree tree() {
+
+        Directory root = new Directory(ROOT_NAME);
+        Directory dir = new Directory("dir");
+        dir.addChild(file("c.txt"));
+        dir.updateHash(MerkleTree.digestChildren(dir));
+
+        for (String name : NAMES) {
+            root.addChild(name.equals("dir") ? dir : file(name));
+        }
+        root.updateHash(MerkleTree.digestChildren(root));
+
+        MerkleTree tree = new MerkleTree();
+        tree.setRoot(root);
+        return tree;
+    }
+
+    private static FileContainer file(String name) {
+
+        return new FileContainer(name, name, SecureHashUtil.computeHash(
+                name.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -1,10 +1,19 @@
 package de.othr.jit.entity;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Optional;
 
 import de.othr.jit.core.Jit;
 import de.othr.jit.datastructure.MerkleTree;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.utility.FileSystemUtil;
+import de.othr.jit.utility.SecureHashUtil;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -12,7 +21,10 @@ import org.springframework.util.FileSystemUtils;
 
 import static de.othr.jit.constants.Constants.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * @author codemonkey500
@@ -21,9 +33,12 @@ import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 public class MerkleTreeTest {
 
+    private static ObjectStore store;
+
     @BeforeClass
     public static void initJit() {
         Jit.initializeDirectory();
+        store = new ObjectStore();
     }
 
     @AfterClass
@@ -31,16 +46,139 @@ public class MerkleTreeTest {
 
         FileSystemUtils.deleteRecursively(
                 Paths.get(".jit").toFile().getAbsoluteFile());
+        FileSystemUtils.deleteRecursively(
+                Paths.get("treeTestDir").toFile().getAbsoluteFile());
+    }
+
+    @Test
+    public void incrementalHashTest() throws IOException {
+
+        MerkleTree tree = new MerkleTree();
+        tree.addInitialFile(A_JAVA_PATH, store);
+        tree.addFileToExistingTree(C_JAVA_PATH, store);
+        tree.addFileToExistingTree(D_JAVA_PATH, store);
+        tree.addFileToExistingTree(B_JAVA_PATH, store);
+
+        //Building the same tree at once has to result in the same hashes
+        List<IndexEntry> entries = new LinkedList<IndexEntry>();
+        for (FileContainer file : tree.getAllFiles()) {
+            entries.add(new IndexEntry(
+                    FileSystemUtil.toRelativePath(file.getPath()),
+                    file.getMode(), 0, 0, 0, 0, file.getId()));
+        }
+        MerkleTree fullTree = MerkleTree.fromIndex(entries);
+
+        assertEquals(fullTree.getRoot().getHash(), tree.getRoot().getHash());
+        assertFalse(tree.getDirectories().stream()
+                .anyMatch(Directory::isDirty));
+
+        //Removing the file again restores the former hash values
+        String rootHash = tree.getRoot().getHash();
+        tree.addFileToExistingTree("src/test/java/de/othr/jit/entity/"
+                + "MerkleTreeTest.java", store);
+        assertNotEquals(rootHash, tree.getRoot().getHash());
+        tree.removeFile("src/test/java/de/othr/jit/entity/"
+                + "MerkleTreeTest.java");
+        assertEquals(rootHash, tree.getRoot().getHash());
+    }
+
+    @Test
+    public void parallelHashTest() {
+
+        List<IndexEntry> entries = new LinkedList<IndexEntry>();
+        for (int i = 0; i < 3000; i++) {
+            String path = "d" + (i % 7) + "/e" + (i % 13) + "/f" + (i % 5)
+                    + "/file" + i;
+            entries.add(new IndexEntry(path, FILE_MODE_REGULAR, 0, 0, 0, 0,
+                    SecureHashUtil.digest(path.getBytes())));
+        }
+
+        MerkleTree sequential = MerkleTree.fromIndex(entries, 1);
+        MerkleTree parallel = MerkleTree.fromIndex(entries, 8);
+
+        //The parallel hasher has to compute exactly the same tree
+        assertEquals(sequential.getRoot().getHash(),
+                parallel.getRoot().getHash());
+        for (Directory dir : sequential.getDirectories()) {
+            assertEquals(dir.getHash(), parallel.getDirectory(
+                    dirPath(dir)).getHash());
+        }
+    }
+
+    private static String dirPath(Directory dir) {
+
+        if (dir.getParent() == null) {
+            return "";
+        }
+        String parent = dirPath(dir.getParent());
+        return parent.isEmpty() ? dir.getName()
+                : parent + "/" + dir.getName();
+    }
+
+    @Test
+    public void putEntryTest() {
+
+        List<IndexEntry> entries = new LinkedList<IndexEntry>();
+        for (String path : Arrays.asList("a/x/1.txt", "a/y/2.txt",
+                "b/3.txt", "b/z/4.txt")) {
+            entries.add(new IndexEntry(path, FILE_MODE_REGULAR, 0, 0, 0, 0,
+                    SecureHashUtil.digest(path.getBytes())));
+        }
+        MerkleTree tree = MerkleTree.fromIndex(entries, 1);
+
+        //Only root, "a" and "a/x" are hashed again
+        IndexEntry added = new IndexEntry("a/x/5.txt", FILE_MODE_REGULAR,
+                0, 0, 0, 0, SecureHashUtil.digest("5".getBytes()));
+        Metrics metrics = Metrics.start("test");
+        tree.putEntry(added);
+        tree.rehash();
+        assertEquals(3, metrics.getCounters()
+                .get("tree.directories.hashed"));
+
+        entries.add(added);
+        assertEquals(MerkleTree.fromIndex(entries).getRoot().getHash(),
+                tree.getRoot().getHash());
+    }
+
+    @Test
+    public void sameFileNameTest() throws IOException {
+
+        Files.createDirectories(Paths.get("treeTestDir/x"));
+        Files.createDirectories(Paths.get("treeTestDir/y"));
+        Files.write(Paths.get("treeTestDir/x/Same.java"), "x".getBytes());
+        Files.write(Paths.get("treeTestDir/y/Same.java"), "y".getBytes());
+
+        MerkleTree tree = new MerkleTree();
+        tree.addInitialFile("treeTestDir/x/Same.java", store);
+        tree.addFileToExistingTree("treeTestDir/y/Same.java", store);
+
+        //Both files have to be stored, although they have the same name
+        assertEquals(2, tree.getAllFiles().size());
+        assertTrue(store.contains(tree.getFile("treeTestDir/x/Same.java")
+                .getHash()));
+        assertEquals("x", tree.getFile("treeTestDir/x/Same.java")
+                .getParent().getName());
+        assertEquals("y", tree.getFile("treeTestDir/y/Same.java")
+                .getParent().getName());
+        assertNotEquals(tree.getFile("treeTestDir/x/Same.java"),
+                tree.getFile("treeTestDir/y/Same.java"));
+
+        //Removing one file deletes its empty directory only
+        assertTrue(tree.removeFile("treeTestDir/x/Same.java"));
+        assertNull(tree.getDirectory("treeTestDir/x"));
+        assertEquals(1, tree.getDirectory("treeTestDir")
+                .getChildren().size());
+        assertEquals(1, tree.getAllFiles().size());
     }
 
     @Test
-    public void addInitialFileTest() {
+    public void addInitialFileTest() throws IOException {
 
         String s = B_JAVA_PATH;
 
         MerkleTree tree = new MerkleTree();
 
-        tree.addInitialFile(s);
+        tree.addInitialFile(s, store);
 
         //Checking if wether the file system is represented correctly
         assertEquals("root", tree.getDirectories().get(0).getName());
@@ -66,13 +204,13 @@ public class MerkleTreeTest {
     }
 
     @Test
-    public void addFileToExistingTreeTest() {
+    public void addFileToExistingTreeTest() throws IOException {
 
         //############### Initiate tree ###############
 
         String s = A_JAVA_PATH;
         MerkleTree tree = new MerkleTree();
-        tree.addInitialFile(s);
+        tree.addInitialFile(s, store);
 
         assertEquals(true, tree.getAllFiles().stream()
                 .anyMatch(file -> file.getName().equals("A.java")));
@@ -86,7 +224,7 @@ public class MerkleTreeTest {
                 .findFirst().map(othDir -> othDir.getHash());
 
         String s2 = C_JAVA_PATH;
-        tree.addFileToExistingTree(s2);
+        tree.addFileToExistingTree(s2, store);
 
         //Checking if all files are registered
         assertEquals(true, tree.getAllFiles().stream()
@@ -115,7 +253,7 @@ public class MerkleTreeTest {
                 .findFirst().map(d -> d.getHash());
 
         String s3 = B_JAVA_PATH;
-        tree.addFileToExistingTree(s3);
+        tree.addFileToExistingTree(s3, store);
 
         //Checking if all files/dir are registered
         assertEquals(true, tree.getAllFiles().stream()
@@ -151,7 +289,7 @@ public class MerkleTreeTest {
                 .findFirst().map(d -> d.getHash());
 
         String s4 = D_JAVA_PATH;
-        tree.addFileToExistingTree(s4);
+        tree.addFileToExistingTree(s4, store);
 
         //Checking if all files/dir are registered
         assertEquals(true, tree.getAllFiles().stream()
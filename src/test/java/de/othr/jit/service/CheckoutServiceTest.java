@@ -0,0 +1,295 @@
+package de.othr.jit.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import de.othr.jit.core.Jit;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.entity.IndexEntry;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.storage.RefStore;
+import de.othr.jit.utility.FileSystemUtil;
+import de.othr.jit.utility.SecureHashUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class CheckoutServiceTest {
+
+    private static final Path DIR = Paths.get("checkoutTestDir");
+
+    @Before
+    public void initJit() {
+
+        Jit.initializeDirectory();
+    }
+
+    @After
+    public void deleteJitDir() {
+
+        FileSystemUtils.deleteRecursively(
+                Paths.get(".jit").toFile().getAbsoluteFile());
+        FileSystemUtils.deleteRecursively(DIR.toFile().getAbsoluteFile());
+    }
+
+    @Test
+    public void incrementalCheckoutTest() throws IOException {
+
+        Files.createDirectories(DIR.resolve("sub"));
+        Files.write(DIR.resolve("a.txt"), "first".getBytes());
+        Files.write(DIR.resolve("sub/b.txt"), "unchanged".getBytes());
+        String first = commit("first");
+
+        Files.write(DIR.resolve("a.txt"), "second".getBytes());
+        Files.write(DIR.resolve("d.txt"), "new".getBytes());
+        String second = commit("second");
+
+        Files.write(DIR.resolve("untracked.txt"), "keep".getBytes());
+
+        CheckoutService checkout = checkoutCommit(first);
+
+        assertEquals("first", Files.readString(DIR.resolve("a.txt")));
+        assertFalse(Files.exists(DIR.resolve("d.txt")));
+        assertEquals("unchanged", Files.readString(DIR.resolve("sub/b.txt")));
+        assertTrue(Files.exists(DIR.resolve("untracked.txt")));
+
+        //Only the differing files were touched, sub was skipped
+        assertEquals(1, checkout.getWritten());
+        assertEquals(1, checkout.getDeleted());
+        assertEquals(1, checkout.getSkipped());
+
+        //The staging index matches the commit again
+        StatusService status = new StatusService();
+        status.checkStatus();
+        assertEquals(0, status.getModified().size());
+        assertEquals(0, status.getDeleted().size());
+
+        checkout = checkoutCommit(second);
+
+        assertEquals("second", Files.readString(DIR.resolve("a.txt")));
+        assertEquals("new", Files.readString(DIR.resolve("d.txt")));
+
+        //Checking out the current commit does nothing
+        checkout = checkoutCommit(second);
+        assertEquals(0, checkout.getWritten());
+    }
+
+    @Test
+    public void localChangesTest() throws IOException {
+
+        Files.createDirectories(DIR);
+        Files.write(DIR.resolve("a.txt"), "first".getBytes());
+        String first = commit("first");
+
+        Files.write(DIR.resolve("a.txt"), "second".getBytes());
+        Files.write(DIR.resolve("d.txt"), "new".getBytes());
+        commit("second");
+
+        //Neither the edited nor the deleted file may be lost
+        Files.write(DIR.resolve("a.txt"), "edited".getBytes());
+        assertFalse(new CheckoutService().checkoutFiles(first));
+        assertEquals("edited", Files.readString(DIR.resolve("a.txt")));
+        assertTrue(Files.exists(DIR.resolve("d.txt")));
+
+        Files.write(DIR.resolve("a.txt"), "second".getBytes());
+        Files.write(DIR.resolve("d.txt"), "edited".getBytes());
+        assertFalse(new CheckoutService().checkoutFiles(first));
+        assertEquals("edited", Files.readString(DIR.resolve("d.txt")));
+
+        //A file, which already has the content of the commit, is kept
+        Files.write(DIR.resolve("d.txt"), "new".getBytes());
+        Files.write(DIR.resolve("a.txt"), "first".getBytes());
+        assertTrue(new CheckoutService().checkoutFiles(first));
+        assertFalse(Files.exists(DIR.resolve("d.txt")));
+        assertEquals("first", Files.readString(DIR.resolve("a.txt")));
+    }
+
+    @Test
+    public void stagedChangesTest() throws IOException {
+
+        Files.createDirectories(DIR);
+        Files.write(DIR.resolve("a.txt"), "first".getBytes());
+        String first = commit("first");
+
+        Files.write(DIR.resolve("a.txt"), "second".getBytes());
+        Files.write(DIR.resolve("d.txt"), "second".getBytes());
+        String second = commit("second");
+
+        //A new file, which was never committed, is kept staged
+        Files.write(DIR.resolve("n.txt"), "new".getBytes());
+        Jit.addFile(DIR.resolve("n.txt").toString());
+        checkoutCommit(first);
+        checkoutCommit(second);
+
+        String path = FileSystemUtil.toRelativePath(
+                DIR.resolve("n.txt").toString());
+        assertEquals("new", Files.readString(DIR.resolve("n.txt")));
+        assertArrayEquals(SecureHashUtil.digest("new".getBytes()),
+                new StagingIndex().get(path).getId());
+
+        //A staged change of a file, which differs in the commit, is kept
+        Files.write(DIR.resolve("a.txt"), "staged".getBytes());
+        Jit.addFile(DIR.resolve("a.txt").toString());
+        assertFalse(new CheckoutService().checkoutFiles(first));
+        assertEquals("staged", Files.readString(DIR.resolve("a.txt")));
+        assertTrue(Files.exists(DIR.resolve("d.txt")));
+
+        path = FileSystemUtil.toRelativePath(
+                DIR.resolve("a.txt").toString());
+        assertArrayEquals(SecureHashUtil.digest("staged".getBytes()),
+                new StagingIndex().get(path).getId());
+    }
+
+    @Test
+    public void failedCheckoutTest() throws IOException {
+
+        Files.createDirectories(DIR);
+        Files.write(DIR.resolve("a.txt"), "first".getBytes());
+        Files.write(DIR.resolve("b.txt"), "first b".getBytes());
+        String first = commit("first");
+
+        Files.write(DIR.resolve("a.txt"), "second".getBytes());
+        Files.write(DIR.resolve("b.txt"), "second b".getBytes());
+        commit("second");
+
+        //The blob of a.txt is lost, b.txt can still be written
+        new ObjectStore().deleteLooseObjects(Collections.singletonList(
+                SecureHashUtil.computeHash("first".getBytes())));
+
+        assertFalse(new CheckoutService().checkoutFiles(first));
+        assertEquals("second", Files.readString(DIR.resolve("a.txt")));
+
+        //The index still describes the files of the second commit
+        IndexEntry staged = new StagingIndex().get(
+                FileSystemUtil.toRelativePath(DIR.resolve("b.txt").toString()));
+        assertArrayEquals(SecureHashUtil.digest("second b".getBytes()),
+                staged.getId());
+    }
+
+    @Test
+    public void parallelCheckoutTest() throws IOException {
+
+        for (int i = 0; i < 200; i++) {
+            Path file = DIR.resolve("dir" + i % 10).resolve("file" + i);
+            Files.createDirectories(file.getParent());
+            Files.write(file, ("first " + i).getBytes());
+        }
+        String first = commit("first");
+
+        for (int i = 0; i < 200; i++) {
+            Files.write(DIR.resolve("dir" + i % 10).resolve("file" + i),
+                    ("second " + i).getBytes());
+        }
+        commit("second");
+
+        CheckoutService checkout = checkoutCommit(first);
+
+        assertEquals(200, checkout.getWritten());
+        for (int i = 0; i < 200; i++) {
+            assertEquals("first " + i, Files.readString(
+                    DIR.resolve("dir" + i % 10).resolve("file" + i)));
+        }
+    }
+
+    @Test
+    public void partialCheckoutTest() throws IOException {
+
+        Files.createDirectories(DIR.resolve("app"));
+        Files.createDirectories(DIR.resolve("lib"));
+        Files.write(DIR.resolve("app/a.txt"), "first".getBytes());
+        Files.write(DIR.resolve("lib/b.txt"), "first".getBytes());
+        String first = commit("first");
+
+        Files.write(DIR.resolve("app/a.txt"), "second".getBytes());
+        Files.write(DIR.resolve("lib/b.txt"), "second".getBytes());
+        commit("second");
+
+        CheckoutService checkout = new CheckoutService();
+        checkout.checkoutFiles(first,
+                Collections.singletonList(DIR.resolve("app").toString()));
+
+        assertEquals(1, checkout.getWritten());
+        assertEquals("first", Files.readString(DIR.resolve("app/a.txt")));
+        assertEquals("second", Files.readString(DIR.resolve("lib/b.txt")));
+
+        //The other files are still staged with their current version
+        StatusService status = new StatusService();
+        status.checkStatus();
+        assertEquals(0, status.getModified().size());
+        assertEquals(0, status.getDeleted().size());
+    }
+
+    @Test
+    public void sparseCheckoutTest() throws IOException {
+
+        Files.createDirectories(DIR.resolve("app"));
+        Files.createDirectories(DIR.resolve("lib"));
+        Files.write(DIR.resolve("app/a.txt"), "first".getBytes());
+        Files.write(DIR.resolve("lib/b.txt"), "first".getBytes());
+        String first = commit("first");
+
+        Files.write(DIR.resolve("app/a.txt"), "second".getBytes());
+        Files.write(DIR.resolve("lib/b.txt"), "second".getBytes());
+        String second = commit("second");
+
+        CheckoutService checkout = new CheckoutService();
+        checkout.applySparsePatterns(
+                Collections.singletonList(DIR.resolve("app").toString()));
+
+        assertEquals(1, checkout.getDeleted());
+        assertFalse(Files.exists(DIR.resolve("lib/b.txt")));
+
+        checkout = checkoutCommit(first);
+
+        assertEquals(1, checkout.getWritten());
+        assertEquals("first", Files.readString(DIR.resolve("app/a.txt")));
+        assertFalse(Files.exists(DIR.resolve("lib/b.txt")));
+
+        //Excluded files are not reported as deleted
+        StatusService status = new StatusService();
+        status.checkStatus();
+        assertEquals(0, status.getDeleted().size());
+
+        //Disabling sparse checkout restores the staged version
+        checkout = new CheckoutService();
+        checkout.applySparsePatterns(Collections.emptyList());
+
+        assertEquals("first", Files.readString(DIR.resolve("lib/b.txt")));
+        assertEquals(1, checkout.getWritten());
+
+        checkout = checkoutCommit(second);
+        assertEquals(Arrays.asList("second", "second"), Arrays.asList(
+                Files.readString(DIR.resolve("app/a.txt")),
+                Files.readString(DIR.resolve("lib/b.txt"))));
+    }
+
+    private static String commit(String message) {
+
+        Jit.addFile(DIR.toString());
+        CommitService commit = new CommitService(message);
+        commit.commitFiles();
+        return commit.getCommitHash();
+    }
+
+    private static CheckoutService checkoutCommit(String hash) {
+
+        CheckoutService checkout = new CheckoutService();
+        if (checkout.checkoutFiles(hash)) {
+            new RefStore().detachHead(hash);
+        }
+        return checkout;
+    }
+}
@@ -1,8 +1,11 @@
 package de.othr.jit.service;
 
-import java.io.File;
+import java.io.IOException;
 import java.nio.file.Paths;
 import de.othr.jit.core.Jit;
+import de.othr.jit.entity.Commit;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.storage.ObjectStream;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -34,15 +37,23 @@ public class CommitServiceTest {
     }
 
     @Test
-    public void commitFilesTest() {
+    public void commitFilesTest() throws IOException {
 
         CommitService commit = new CommitService("CommitMessage");
 
         commit.commitFiles();
 
-        assertEquals(8,
-                new File(PATH_OBJECTS_FOLDER).listFiles().length);
-
+        //2 blobs, 6 trees and the commit
+        assertEquals(9, new ObjectStore().listLooseObjects().size());
+
+        try (ObjectStream in = new ObjectStore().openObject(
+                commit.getCommitHash())) {
+            assertEquals(OBJECT_TYPE_COMMIT, in.getType());
+            Commit parsed = Commit.parse(in.readAllBytes());
+            assertEquals(commit.getTree().getRoot().getHash(),
+                    parsed.getTree());
+            assertEquals("CommitMessage", parsed.getMessage());
+        }
     }
 
 }
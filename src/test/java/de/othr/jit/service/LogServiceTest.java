@@ -0,0 +1,200 @@
+package de.othr.jit.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import de.othr.jit.core.Jit;
+import de.othr.jit.entity.Commit;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.storage.CommitCache;
+import de.othr.jit.storage.CommitGraph;
+import de.othr.jit.storage.CommitGraphWriter;
+import de.othr.jit.storage.ObjectStore;
+import de.othr.jit.storage.RefStore;
+import de.othr.jit.utility.SecureHashUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class LogServiceTest {
+
+    private static final Path DIR = Paths.get("logTestDir");
+
+    @Before
+    public void initJit() {
+
+        Jit.initializeDirectory();
+    }
+
+    @After
+    public void deleteJitDir() {
+
+        FileSystemUtils.deleteRecursively(
+                Paths.get(".jit").toFile().getAbsoluteFile());
+        FileSystemUtils.deleteRecursively(DIR.toFile().getAbsoluteFile());
+    }
+
+    @Test
+    public void historyTest() throws IOException {
+
+        RefStore refs = new RefStore();
+        assertEquals(DEFAULT_BRANCH, refs.getBranch());
+        assertNull(refs.resolveHead());
+
+        Files.createDirectories(DIR);
+        List<String> hashes = new ArrayList<String>();
+        for (String content : Arrays.asList("first", "second", "third")) {
+            Files.write(DIR.resolve("a.txt"), content.getBytes());
+            Jit.addFile(DIR.toString());
+            Jit.commit(content);
+            hashes.add(0, refs.resolveHead());
+        }
+
+        ObjectStore store = new ObjectStore();
+        CommitCache commits = new CommitCache(store);
+        Commit third = commits.get(hashes.get(0));
+        assertEquals("third", third.getMessage());
+        assertEquals(Collections.singletonList(hashes.get(1)),
+                third.getParents());
+        assertEquals(AUTHOR, third.getAuthor());
+        assertTrue(commits.get(hashes.get(2)).getParents().isEmpty());
+
+        LogService log = new LogService(commits);
+        assertEquals(hashes, list(log.walk(hashes.get(0))));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, log.printLog(hashes.get(0), 2, out));
+        String printed = out.toString(StandardCharsets.UTF_8);
+        assertTrue(printed.startsWith("commit " + hashes.get(0) + "\n"));
+        assertTrue(printed.contains("    second\n"));
+        assertTrue(!printed.contains(hashes.get(2)));
+
+        //A checked out commit detaches HEAD, a branch attaches it again
+        Jit.checkoutFile(hashes.get(2));
+        assertNull(refs.getBranch());
+        assertEquals(hashes.get(2), refs.resolveHead());
+        assertEquals("first", Files.readString(DIR.resolve("a.txt")));
+
+        Jit.checkoutFile(DEFAULT_BRANCH);
+        assertEquals(DEFAULT_BRANCH, refs.getBranch());
+        assertEquals(hashes.get(0), refs.resolveHead());
+        assertEquals("third", Files.readString(DIR.resolve("a.txt")));
+
+        //Checking out HEAD restores the files, HEAD stays on the branch
+        Files.write(DIR.resolve("a.txt"), "third".getBytes());
+        Jit.checkoutFile(HEAD);
+        assertEquals(DEFAULT_BRANCH, refs.getBranch());
+        assertEquals(hashes.get(0), refs.resolveHead());
+    }
+
+    @Test
+    public void mergeWalkTest() throws IOException {
+
+        ObjectStore store = new ObjectStore();
+        String a = write(store, 1, "a");
+        String b = write(store, 2, "b", a);
+        String c = write(store, 3, "c", a);
+        String merge = write(store, 4, "merge", b, c);
+
+        //Every commit once, the newest first
+        CommitCache commits = new CommitCache(store, 2);
+        assertEquals(Arrays.asList(merge, c, b, a),
+                list(new LogService(commits).walk(merge)));
+        assertEquals(2, commits.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new LogService(commits).printLog(merge, 1, out);
+        assertTrue(out.toString(StandardCharsets.UTF_8)
+                .contains("Merge: " + b + " " + c + "\n"));
+    }
+
+    @Test
+    public void mergeBaseTest() throws IOException {
+
+        //Criss-cross merge: x and y merge b and c in both directions
+        ObjectStore store = new ObjectStore();
+        String a = write(store, 1, "a");
+        String b = write(store, 2, "b", a);
+        String c = write(store, 3, "c", a);
+        String x = write(store, 4, "x", b, c);
+        String y = write(store, 5, "y", c, b);
+        String d = write(store, 6, "d", b);
+        String other = write(store, 7, "unrelated");
+        //A parent, which is newer than its children (skewed clock)
+        String skewed = write(store, 100, "skewed", a);
+        String late = write(store, 8, "late", skewed);
+        String early = write(store, 0, "early", skewed);
+        String earliest = write(store, -1, "earliest", early);
+
+        for (boolean withGraph : Arrays.asList(false, true)) {
+
+            CommitGraph graph = null;
+            if (withGraph) {
+                Path file = Paths.get(PATH_COMMIT_GRAPH_FILE);
+                new CommitGraphWriter(new CommitCache(store), null).write(
+                        file, Arrays.asList(x, y, d, other, late, earliest));
+                graph = new CommitGraph(file);
+            }
+
+            Metrics metrics = Metrics.start("merge-base");
+            LogService log = new LogService(new CommitCache(store), graph);
+
+            assertEquals(Arrays.asList(c, b), log.mergeBases(x, y));
+            assertEquals(Collections.singletonList(b), log.mergeBases(x, d));
+            assertEquals(Collections.singletonList(a), log.mergeBases(c, d));
+            assertEquals(Collections.singletonList(b), log.mergeBases(b, d));
+            assertTrue(log.mergeBases(x, other).isEmpty());
+            assertEquals(Collections.singletonList(skewed),
+                    log.mergeBases(earliest, late));
+
+            assertTrue(log.isAncestor(a, y));
+            assertTrue(log.isAncestor(d, d));
+            assertFalse(log.isAncestor(c, d));
+            assertFalse(log.isAncestor(y, x));
+            assertEquals(Arrays.asList(y, c, b, a),
+                    list(log.walk(y)));
+
+            //The graph answers without reading commit objects
+            assertEquals(withGraph ? 0L : 1L, Math.min(1L, metrics
+                    .getCounters().get("history.objects.read")));
+        }
+    }
+
+    private static String write(ObjectStore store, long time,
+            String message, String... parents) {
+
+        byte[] content = new Commit(SecureHashUtil.computeHash(
+                new byte[0]), Arrays.asList(parents), "author", time,
+                ZoneOffset.UTC, message).toBytes();
+        String hash = SecureHashUtil.computeHash(content);
+        store.writeObject(hash, OBJECT_TYPE_COMMIT, content);
+        return hash;
+    }
+
+    private static List<String> list(Iterator<String> walk) {
+
+        List<String> hashes = new ArrayList<String>();
+        walk.forEachRemaining(hashes::add);
+        return hashes;
+    }
+}
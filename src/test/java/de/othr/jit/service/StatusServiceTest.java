@@ -0,0 +1,101 @@
+package de.othr.jit.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import de.othr.jit.core.Jit;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.metrics.Metrics;
+import de.othr.jit.utility.FileSystemUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class StatusServiceTest {
+
+    private static final Path DIR = Paths.get("statusTestDir");
+
+    @Before
+    public void initJit() throws IOException {
+
+        Jit.initializeDirectory();
+        Files.createDirectories(DIR);
+        Files.write(DIR.resolve("a.txt"), "first".getBytes());
+        Files.write(DIR.resolve("b.txt"), "second".getBytes());
+
+        Jit.addFile(DIR.resolve("a.txt").toString());
+        Jit.addFile(DIR.resolve("b.txt").toString());
+    }
+
+    @After
+    public void deleteJitDir() {
+
+        FileSystemUtils.deleteRecursively(
+                Paths.get(".jit").toFile().getAbsoluteFile());
+        FileSystemUtils.deleteRecursively(DIR.toFile().getAbsoluteFile());
+    }
+
+    @Test
+    public void unchangedTest() {
+
+        StatusService status = new StatusService();
+        status.checkStatus();
+
+        assertEquals(0, status.getModified().size());
+        assertEquals(0, status.getDeleted().size());
+    }
+
+    @Test
+    public void refreshTest() throws IOException {
+
+        //Touched files keep their content, only the stat data changed
+        Files.setLastModifiedTime(DIR.resolve("a.txt"),
+                FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(DIR.resolve("b.txt"),
+                FileTime.fromMillis(1000));
+
+        Metrics metrics = Metrics.start(STATUS);
+        StatusService status = new StatusService();
+        status.checkStatus();
+
+        assertEquals(0, status.getModified().size());
+        assertEquals(2, metrics.getCounters().get("status.refreshed"));
+        //Both entries are written with one sync
+        assertEquals(1, metrics.getCounters().get("staging.syncs"));
+        assertEquals(1000, new StagingIndex().get(FileSystemUtil
+                .toRelativePath(DIR.resolve("b.txt").toString()))
+                .getModified());
+    }
+
+    @Test
+    public void modifiedAndDeletedTest() throws IOException {
+
+        Files.write(DIR.resolve("a.txt"), "changed".getBytes());
+        Files.delete(DIR.resolve("b.txt"));
+
+        StatusService status = new StatusService();
+        status.checkStatus();
+
+        assertEquals(1, status.getModified().size());
+        assertEquals(FileSystemUtil.toRelativePath(
+                DIR.resolve("a.txt").toString()), status.getModified().get(0));
+        assertEquals(1, status.getDeleted().size());
+
+        //Adding the file again stages the new content
+        Jit.addFile(DIR.resolve("a.txt").toString());
+        status = new StatusService();
+        status.checkStatus();
+
+        assertEquals(0, status.getModified().size());
+    }
+}
@@ -0,0 +1,131 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import de.othr.jit.entity.Commit;
+import de.othr.jit.utility.SecureHashUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class CommitGraphTest {
+
+    private static final Path FOLDER = Paths.get("graphTestDir");
+    private static final Path GRAPH = FOLDER.resolve("commit-graph");
+
+    private ObjectStore store;
+
+    @Before
+    public void createFolder() throws IOException {
+
+        Files.createDirectories(FOLDER);
+        store = new ObjectStore(FOLDER.toString());
+    }
+
+    @After
+    public void deleteFolder() {
+
+        FileSystemUtils.deleteRecursively(FOLDER.toFile().getAbsoluteFile());
+    }
+
+    @Test
+    public void writeAndReadTest() throws IOException {
+
+        String root = write(10, "root");
+        String a = write(20, "a", root);
+        String b = write(30, "b", root);
+        String c = write(40, "c", a);
+        String octopus = write(50, "octopus", c, a, b);
+
+        assertEquals(5, new CommitGraphWriter(new CommitCache(store), null)
+                .write(GRAPH, Collections.singletonList(octopus)));
+
+        CommitGraph graph = new CommitGraph(GRAPH);
+        assertEquals(5, graph.getCount());
+        assertTrue(graph.find(SecureHashUtil.computeHash(new byte[1])) < 0);
+        assertTrue(graph.find("no hash") < 0);
+
+        int position = graph.find(octopus);
+        assertEquals(octopus, graph.getHash(position));
+        assertEquals(tree("octopus"), graph.getTree(position));
+        assertEquals(50, graph.getTime(position));
+        assertEquals(4, graph.getGeneration(position));
+        assertEquals(Arrays.asList(c, a, b), hashes(graph,
+                graph.getParents(position)));
+
+        assertEquals(1, graph.getGeneration(graph.find(root)));
+        assertEquals(0, graph.getParents(graph.find(root)).length);
+        assertEquals(Collections.singletonList(root), hashes(graph,
+                graph.getParents(graph.find(b))));
+        assertEquals(3, graph.getGeneration(graph.find(c)));
+    }
+
+    @Test
+    public void incrementalWriteTest() throws IOException {
+
+        String root = write(10, "root");
+        String a = write(20, "a", root);
+        new CommitGraphWriter(new CommitCache(store), null).write(GRAPH,
+                Collections.singletonList(a));
+
+        //The commits of the old graph are not read again
+        store.deleteLooseObjects(Arrays.asList(root, a));
+        String b = write(30, "b", a);
+
+        CommitGraph previous = new CommitGraph(GRAPH);
+        assertEquals(3, new CommitGraphWriter(new CommitCache(store),
+                previous).write(GRAPH, Collections.singletonList(b)));
+
+        CommitGraph graph = new CommitGraph(GRAPH);
+        assertEquals(3, graph.getGeneration(graph.find(b)));
+        assertArrayEquals(new int[] { graph.find(root) },
+                graph.getParents(graph.find(a)));
+    }
+
+    @Test
+    public void corruptGraphTest() throws IOException {
+
+        Files.write(GRAPH, new byte[] { 1, 2, 3 });
+        assertThrows(IOException.class, () -> new CommitGraph(GRAPH));
+    }
+
+    private String write(long time, String message, String... parents) {
+
+        byte[] content = new Commit(tree(message), Arrays.asList(parents),
+                "author", time, ZoneOffset.UTC, message).toBytes();
+        String hash = SecureHashUtil.computeHash(content);
+        store.writeObject(hash, OBJECT_TYPE_COMMIT, content);
+        return hash;
+    }
+
+    private static String tree(String message) {
+        return SecureHashUtil.computeHash(message.getBytes());
+    }
+
+    private static List<String> hashes(CommitGraph graph,
+            int[] positions) {
+
+        String[] hashes = new String[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            hashes[i] = graph.getHash(positions[i]);
+        }
+        return Arrays.asList(hashes);
+    }
+}
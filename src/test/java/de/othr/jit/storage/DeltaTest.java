@@ -0,0 +1,56 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class DeltaTest {
+
+    @Test
+    public void createAndApplyTest() throws IOException {
+
+        byte[] base = new byte[100 * 1024];
+        new Random(42).nextBytes(base);
+
+        //Change some bytes, insert a block and cut the end
+        byte[] target = Arrays.copyOf(base, base.length + 100);
+        System.arraycopy(base, 5000, target, 5100, base.length - 5100);
+        Arrays.fill(target, 5000, 5100, (byte) 7);
+        target[70000] ^= 1;
+        target = Arrays.copyOf(target, target.length - 300);
+
+        byte[] delta = Delta.create(base, target);
+
+        assertTrue(delta.length < 1024);
+        assertArrayEquals(target, Delta.apply(base, delta));
+    }
+
+    @Test
+    public void smallAndEmptyTest() throws IOException {
+
+        byte[] base = "short".getBytes();
+        byte[] empty = new byte[0];
+
+        assertArrayEquals(empty, Delta.apply(base, Delta.create(base, empty)));
+        assertArrayEquals(base, Delta.apply(empty, Delta.create(empty, base)));
+        assertArrayEquals(base, Delta.apply(base, Delta.create(base, base)));
+    }
+
+    @Test
+    public void wrongBaseTest() {
+
+        byte[] delta = Delta.create("base".getBytes(), "target".getBytes());
+
+        assertThrows(IOException.class,
+                () -> Delta.apply("other base".getBytes(), delta));
+    }
+}
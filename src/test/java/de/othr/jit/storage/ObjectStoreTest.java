@@ -0,0 +1,180 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+import de.othr.jit.utility.SecureHashUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class ObjectStoreTest {
+
+    private static final Path FOLDER = Paths.get("storeTestDir");
+
+    @Before
+    public void createFolder() throws IOException {
+
+        Files.createDirectories(FOLDER);
+    }
+
+    @After
+    public void deleteFolder() {
+
+        FileSystemUtils.deleteRecursively(FOLDER.toFile().getAbsoluteFile());
+    }
+
+    @Test
+    public void compressedBlobTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString());
+
+        //Repetitive binary content compresses well
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 7 == 0 ? '\n' : i % 256);
+        }
+        Path source = FOLDER.resolve("source.bin");
+        Files.write(source, data);
+
+        String hash = store.writeBlob(source);
+
+        assertTrue(Files.size(Paths.get(store.buildFileName(hash)))
+                < data.length / 2);
+
+        try (ObjectStream in = store.openObject(hash)) {
+            assertEquals(OBJECT_TYPE_BLOB, in.getType());
+            assertEquals(data.length, in.getSize());
+        }
+
+        Path target = FOLDER.resolve("target.bin");
+        assertTrue(store.copyBlob(hash, target));
+        assertArrayEquals(data, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void staleHashTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString());
+        Path source = FOLDER.resolve("source.txt");
+        Files.write(source, "old".getBytes());
+        String old = SecureHashUtil.computeHash(source);
+
+        //The file changed after it was hashed, its new content is stored
+        Files.write(source, "new".getBytes());
+        String hash = store.writeBlob(source, old);
+        assertEquals(SecureHashUtil.computeHash("new".getBytes()), hash);
+        assertFalse(store.contains(old));
+        assertTrue(store.contains(hash));
+
+        //A missing file is reported and leaves no temporary file
+        assertThrows(IOException.class,
+                () -> store.writeBlob(FOLDER.resolve("missing.txt")));
+        assertEquals(1, store.listLooseObjects().size());
+        try (Stream<Path> files = Files.list(FOLDER)) {
+            assertTrue(files.noneMatch(
+                    file -> file.toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    public void chunkedBlobTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString(), 1024 * 1024);
+        byte[] data = new byte[6 * 1024 * 1024];
+        new Random(7).nextBytes(data);
+        Path source = FOLDER.resolve("large.bin");
+        Files.write(source, data);
+
+        String hash = store.writeBlob(source);
+
+        //The hash value of the whole content is kept
+        assertEquals(SecureHashUtil.computeHash(data), hash);
+        try (ObjectStream in = store.openObject(hash)) {
+            assertEquals(OBJECT_TYPE_CHUNKED, in.getType());
+        }
+        //The chunks are read as one blob
+        try (ObjectStream in = store.openContent(hash)) {
+            assertEquals(OBJECT_TYPE_BLOB, in.getType());
+            assertEquals(data.length, in.getSize());
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        int objects = store.listLooseObjects().size();
+        assertTrue(objects > 2);
+
+        //Inserting a byte only stores the chunks around it again
+        byte[] changed = new byte[data.length + 1];
+        System.arraycopy(data, 0, changed, 0, 3000000);
+        changed[3000000] = 42;
+        System.arraycopy(data, 3000000, changed, 3000001,
+                data.length - 3000000);
+        Files.write(source, changed);
+
+        String changedHash = store.writeBlob(source);
+        assertTrue(store.listLooseObjects().size() - objects <= 3);
+
+        Path target = FOLDER.resolve("target.bin");
+        assertTrue(store.copyBlob(hash, target));
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertTrue(store.copyBlob(changedHash, target));
+        assertArrayEquals(changed, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void fanOutTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString());
+        String hash = SecureHashUtil.computeHash("fan-out".getBytes());
+
+        store.writeObject(hash, OBJECT_TYPE_BLOB, "fan-out");
+
+        Path dir = FOLDER.resolve(hash.substring(0, 2));
+        assertTrue(Files.isDirectory(dir));
+        assertTrue(Files.isRegularFile(dir.resolve(hash.substring(2))));
+        assertTrue(store.contains(hash));
+
+        //Other files of a fan-out directory are no objects
+        Files.write(dir.resolve("notes.txt"), "fan-out".getBytes());
+        assertEquals(Arrays.asList(hash), store.listLooseObjects());
+
+        //Invalid hash values are never found
+        assertFalse(store.contains("ab"));
+        assertFalse(store.contains("../../pom.xml"));
+    }
+
+    @Test
+    public void objectTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString());
+        String content = "Directory\nFile abc A.java\n";
+        String hash = SecureHashUtil.computeHash(content.getBytes());
+
+        store.writeObject(hash, OBJECT_TYPE_TREE, content);
+
+        assertEquals(content, store.readObject(hash));
+        try (ObjectStream in = store.openObject(hash)) {
+            assertEquals(OBJECT_TYPE_TREE, in.getType());
+        }
+
+        //A corrupt object can not be opened
+        Files.write(Paths.get(store.buildFileName(hash)),
+                Arrays.copyOf(content.getBytes(), 4));
+        assertEquals("", store.readObject(hash));
+    }
+}
@@ -0,0 +1,115 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.stream.Stream;
+import de.othr.jit.utility.SecureHashUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class ObjectWriterTest {
+
+    private static final Path FOLDER = Paths.get("writerTestDir");
+
+    @Before
+    public void createFolder() throws IOException {
+
+        Files.createDirectories(FOLDER);
+    }
+
+    @After
+    public void deleteFolder() {
+
+        FileSystemUtils.deleteRecursively(FOLDER.toFile().getAbsoluteFile());
+    }
+
+    @Test
+    public void batchWriteTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString());
+        store.writeObject(hash("object 0"), OBJECT_TYPE_TREE, "object 0");
+
+        ObjectWriter writer = new ObjectWriter(store, 4);
+        for (int i = 0; i < 100; i++) {
+            writer.submit(hash("object " + i), OBJECT_TYPE_TREE,
+                    ("object " + i).getBytes());
+        }
+        //Submitting the same object twice writes it only once
+        writer.submit(hash("object 1"), OBJECT_TYPE_TREE,
+                "object 1".getBytes());
+
+        assertTrue(writer.finish());
+        assertEquals(99, writer.getWrittenCount());
+        assertEquals(2, writer.getSkippedCount());
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("object " + i, store.readObject(hash("object " + i)));
+        }
+
+        //No temporary files are left
+        assertEquals(100, store.listLooseObjects().size());
+        try (Stream<Path> files = Files.walk(FOLDER)) {
+            assertEquals(100, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    public void syncTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString(), 1024);
+        Path file = FOLDER.resolve("large.bin");
+        byte[] data = new byte[64 * 1024];
+        new Random(3).nextBytes(data);
+        Files.write(file, data);
+        String blob = store.writeBlob(file);
+
+        //A stored blob joins the barrier, it is not written again
+        ObjectWriter writer = new ObjectWriter(store, 2);
+        writer.sync(blob);
+        writer.submit(hash("tree"), OBJECT_TYPE_TREE, "tree".getBytes());
+        assertTrue(writer.finish());
+        assertEquals(1, writer.getWrittenCount());
+
+        //A blob, which is missing, fails the batch
+        writer = new ObjectWriter(store, 2);
+        writer.sync(hash("missing"));
+        assertFalse(writer.finish());
+    }
+
+    @Test
+    public void failedSyncTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString());
+        ObjectWriter writer = new ObjectWriter(store, 4);
+        for (int i = 0; i < 20; i++) {
+            writer.submit(hash("object " + i), OBJECT_TYPE_TREE,
+                    ("object " + i).getBytes());
+        }
+        writer.sync(hash("missing"));
+
+        //Nothing is renamed and no temporary file is left
+        assertFalse(writer.finish());
+        assertTrue(store.listLooseObjects().isEmpty());
+        try (Stream<Path> files = Files.walk(FOLDER)) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    private static String hash(String data) {
+        return SecureHashUtil.computeHash(data.getBytes());
+    }
+}
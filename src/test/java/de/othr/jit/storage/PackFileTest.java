@@ -0,0 +1,169 @@
+package de.othr.jit.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import de.othr.jit.service.GcService;
+import de.othr.jit.utility.SecureHashUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static de.othr.jit.constants.Constants.*;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class PackFileTest {
+
+    private static final Path FOLDER = Paths.get("packTestDir");
+
+    @Before
+    public void createFolder() throws IOException {
+
+        Files.createDirectories(FOLDER);
+    }
+
+    @After
+    public void deleteFolder() {
+
+        FileSystemUtils.deleteRecursively(FOLDER.toFile().getAbsoluteFile());
+    }
+
+    @Test
+    public void repackTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString());
+        for (int i = 0; i < 500; i++) {
+            store.writeObject(hash("object " + i), OBJECT_TYPE_TREE,
+                    "object " + i);
+        }
+
+        Path source = FOLDER.resolve("source.bin");
+        byte[] data = { 0, 1, 2, '\n', (byte) 0xff };
+        Files.write(source, data);
+        String blob = store.writeBlob(source);
+
+        assertEquals(501, new GcService(store).repack());
+        assertTrue(store.listLooseObjects().isEmpty());
+
+        //A new store finds the objects in the pack
+        ObjectStore reopened = new ObjectStore(FOLDER.toString());
+        for (int i = 0; i < 500; i++) {
+            assertTrue(reopened.contains(hash("object " + i)));
+            assertEquals("object " + i,
+                    reopened.readObject(hash("object " + i)));
+        }
+        assertFalse(reopened.contains(hash("missing")));
+
+        Path target = FOLDER.resolve("target.bin");
+        assertTrue(reopened.copyBlob(blob, target));
+        assertArrayEquals(data, Files.readAllBytes(target));
+
+        //Nothing left to pack
+        assertEquals(0, new GcService(store).repack());
+    }
+
+    @Test
+    public void newPackTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString());
+        store.writeObject(hash("first"), OBJECT_TYPE_BLOB, "first");
+        new GcService(store).repack();
+
+        assertTrue(store.contains(hash("first")));
+
+        //A pack written later is found by the same store
+        store.writeObject(hash("second"), OBJECT_TYPE_BLOB, "second");
+        List<Path> indexFiles = new PackWriter(store)
+                .write(store.listLooseObjects());
+        store.deleteLooseObjects(store.listLooseObjects());
+
+        assertEquals(1, indexFiles.size());
+        assertEquals(1, new PackFile(indexFiles.get(0)).getCount());
+        assertEquals("second", store.readObject(hash("second")));
+    }
+
+    @Test
+    public void corruptLengthTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString());
+        store.writeObject(hash("first"), OBJECT_TYPE_BLOB, "first");
+        Path indexFile = new PackWriter(store)
+                .write(store.listLooseObjects()).get(0);
+
+        //The length of the only object ends the index
+        byte[] index = Files.readAllBytes(indexFile);
+        ByteBuffer.wrap(index).putInt(index.length - Integer.BYTES,
+                Integer.MAX_VALUE);
+        Files.write(indexFile, index);
+
+        assertThrows(IOException.class, () -> new PackFile(indexFile));
+    }
+
+    @Test
+    public void deltaTest() throws IOException {
+
+        ObjectStore store = new ObjectStore(FOLDER.toString());
+        byte[] data = new byte[200 * 1024];
+        new Random(1).nextBytes(data);
+
+        //Every version changes a few bytes of the previous one
+        List<byte[]> versions = new ArrayList<byte[]>();
+        List<String> hashes = new ArrayList<String>();
+        for (int i = 0; i < 8; i++) {
+            data = data.clone();
+            data[i * 1000] ^= 1;
+            versions.add(data);
+
+            Path file = FOLDER.resolve("version.bin");
+            Files.write(file, data);
+            hashes.add(store.writeBlob(file));
+            if (i == 3) {
+                new GcService(store).repack();
+            }
+        }
+        new GcService(store).repack();
+
+        assertEquals(1, store.getPacks().size());
+        PackFile pack = store.getPacks().get(0);
+        assertTrue(Files.size(pack.getPackFile()) < 3 * data.length);
+
+        //The header of a delta is read without applying the delta
+        ObjectStore headers = new ObjectStore(FOLDER.toString());
+        for (int i = 0; i < versions.size(); i++) {
+            ObjectStream.Header header = headers.readHeader(hashes.get(i));
+            assertEquals(OBJECT_TYPE_BLOB, header.getType());
+            assertEquals(versions.get(i).length, header.getSize());
+        }
+
+        ObjectStore reopened = new ObjectStore(FOLDER.toString());
+        int deltas = 0;
+        for (int i = 0; i < versions.size(); i++) {
+            if (pack.isDelta(SecureHashUtil.decode(hashes.get(i)))) {
+                deltas++;
+            }
+            try (ObjectStream in = reopened.openObject(hashes.get(i))) {
+                assertEquals(OBJECT_TYPE_BLOB, in.getType());
+                assertArrayEquals(versions.get(i), in.readAllBytes());
+            }
+        }
+        assertEquals(versions.size() - 1, deltas);
+    }
+
+    private static String hash(String data) {
+        return SecureHashUtil.computeHash(data.getBytes());
+    }
+}
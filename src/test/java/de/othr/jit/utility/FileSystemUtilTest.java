@@ -1,11 +1,18 @@
 package de.othr.jit.utility;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.List;
 import de.othr.jit.constants.Constants;
 import de.othr.jit.core.Jit;
 import de.othr.jit.datastructure.MerkleTree;
+import de.othr.jit.datastructure.StagingIndex;
+import de.othr.jit.entity.IndexEntry;
+import de.othr.jit.storage.ObjectStore;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -35,10 +42,11 @@ public class FileSystemUtilTest {
     }
 
     @Test
-    public void serializationTest() {
+    public void serializationTest() throws IOException {
 
         MerkleTree treeBeforeSer = new MerkleTree();
-        treeBeforeSer.addInitialFile(Constants.B_JAVA_PATH);
+        treeBeforeSer.addInitialFile(Constants.B_JAVA_PATH,
+                new ObjectStore());
 
         FileSystemUtil.serializeStagingFile(treeBeforeSer);
 
@@ -56,6 +64,27 @@ public class FileSystemUtilTest {
 
     }
 
+    @Test
+    public void statTest() throws IOException {
+
+        final Path FILE = Paths.get("testDir/stat.txt");
+
+        new File("testDir").mkdirs();
+        Files.write(FILE, "old".getBytes());
+        Files.setLastModifiedTime(FILE, FileTime.fromMillis(1000));
+
+        MerkleTree tree = new MerkleTree();
+        tree.addInitialFile(FILE.toString(), new ObjectStore());
+
+        //A change after hashing must not be recorded as the stat data
+        Files.write(FILE, "new!".getBytes());
+        FileSystemUtil.serializeStagingFile(tree);
+
+        IndexEntry entry = new StagingIndex().get("testDir/stat.txt");
+        assertEquals(1000, entry.getModified());
+        assertEquals(3, entry.getSize());
+    }
+
     @Test
     public void splitPathTest() {
 
@@ -78,8 +107,7 @@ public class FileSystemUtilTest {
         FileSystemUtil.writeToFile(FILE_NAME, DATA);
 
         assertEquals(true, new File(FILE_NAME).exists());
-        assertEquals(DATA + System.getProperty("line.separator"),
-                FileSystemUtil.readFile(FILE_NAME));
+        assertEquals(DATA, FileSystemUtil.readFile(FILE_NAME));
 
         //Delete testfile.txt after test
         new File(FILE_NAME).delete();
@@ -0,0 +1,79 @@
+package de.othr.jit.utility;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author codemonkey500
+ *
+ */
+
+public class SecureHashUtilTest {
+
+    private static final String FILE_NAME = "hashtest.bin";
+
+    private static byte[] data;
+
+    @BeforeClass
+    public static void createFile() throws IOException {
+
+        //Bigger than the internal buffer to check the block wise reading
+        data = new byte[200 * 1024 + 17];
+        new Random(42).nextBytes(data);
+        Files.write(Paths.get(FILE_NAME), data);
+    }
+
+    @AfterClass
+    public static void deleteFile() throws IOException {
+
+        Files.deleteIfExists(Paths.get(FILE_NAME));
+    }
+
+    @Test
+    public void streamingDigestTest() throws IOException {
+
+        Path path = Paths.get(FILE_NAME);
+
+        byte[] expected = SecureHashUtil.digest(data);
+
+        assertEquals(20, expected.length);
+        assertArrayEquals(expected, SecureHashUtil.digest(path));
+        assertArrayEquals(expected, SecureHashUtil
+                .digest(new ByteArrayInputStream(data)));
+        assertEquals(SecureHashUtil.computeHash(data),
+                SecureHashUtil.computeHash(path));
+    }
+
+    @Test
+    public void missingFileTest() {
+
+        //A file, which can not be read, must never get an id
+        Path missing = Paths.get("missing.bin");
+        assertThrows(IOException.class, () -> SecureHashUtil.digest(missing));
+        assertArrayEquals(SecureHashUtil.digest(data), assertDoesNotThrow(
+                () -> SecureHashUtil.digest(Paths.get(FILE_NAME))));
+    }
+
+    @Test
+    public void pooledDigestTest() {
+
+        //The pooled digest must not leak state between two calls
+        SecureHashUtil.getDigest().update("garbage".getBytes());
+
+        assertEquals(SecureHashUtil.computeHash("test".getBytes()),
+                SecureHashUtil.computeHash("test".getBytes()));
+        assertEquals("qUqP5cyxm6YcTAhz05Hph5gvu9M=",
+                SecureHashUtil.computeHash("test".getBytes()));
+    }
+}